@@ -0,0 +1,127 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An executor for masking tasks that either runs them inline on the submitting thread or hands
+ * them to a pool of workers, switching between the two and resizing the pool as an
+ * {@link AdaptivePolicy} decides. It times every task, and re-evaluates the policy when a task is
+ * submitted at least {@link #SAMPLE_INTERVAL_NANOS} after the last evaluation.
+ *
+ * <p>Tasks must be submitted from a single thread. The {@link MaskingPipeline} writes results in
+ * submission order whichever way each task ran, so switching never reorders output.
+ */
+final class AdaptiveExecutor extends AbstractExecutorService {
+
+  private static final Logger logger = Logger.getLogger(AdaptiveExecutor.class.getName());
+
+  static final long SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+  private final AdaptivePolicy policy;
+  private final Ticker ticker;
+  private final ThreadPoolExecutor pool;
+  private final AtomicLong maskNanos = new AtomicLong();
+
+  /** Only accessed by the submitting thread, except for reads by {@link #threads()}. */
+  private volatile int threads;
+  private long sampleStart;
+
+  AdaptiveExecutor(int maxThreads) {
+    this(maxThreads, Ticker.systemTicker());
+  }
+
+  AdaptiveExecutor(int maxThreads, Ticker ticker) {
+    this.policy = new AdaptivePolicy(maxThreads);
+    this.ticker = ticker;
+    this.sampleStart = ticker.read();
+    this.pool = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setNameFormat("luhn-adaptive-%d").build());
+    this.pool.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Returns the number of worker threads currently in use; 0 means tasks run inline.
+   */
+  int threads() {
+    return threads;
+  }
+
+  @Override public void execute(final Runnable command) {
+    // the chunks still waiting from earlier submissions, not counting this one
+    int waiting = pool.getQueue().size();
+    if (threads == 0) {
+      long start = ticker.read();
+      command.run();
+      maskNanos.addAndGet(ticker.read() - start);
+    } else {
+      pool.execute(new Runnable() {
+        @Override public void run() {
+          long start = ticker.read();
+          command.run();
+          maskNanos.addAndGet(ticker.read() - start);
+        }
+      });
+    }
+    maybeAdapt(waiting);
+  }
+
+  private void maybeAdapt(int waiting) {
+    long now = ticker.read();
+    long elapsed = now - sampleStart;
+    if (elapsed < SAMPLE_INTERVAL_NANOS)
+      return;
+
+    int next = policy.threads(threads, elapsed, maskNanos.getAndSet(0), waiting);
+    sampleStart = now;
+    if (next != threads) {
+      logger.log(Level.FINE, "Masking with {0} threads (was {1})", new Object[] {next, threads});
+      if (next > 0) {
+        resize(next);
+      }
+      threads = next;
+    }
+  }
+
+  private void resize(int size) {
+    // the maximum can never be below the core size, so the order depends on the direction
+    if (size > pool.getMaximumPoolSize()) {
+      pool.setMaximumPoolSize(size);
+      pool.setCorePoolSize(size);
+    } else {
+      pool.setCorePoolSize(size);
+      pool.setMaximumPoolSize(size);
+    }
+  }
+
+  @Override public void shutdown() {
+    pool.shutdown();
+  }
+
+  @Override public List<Runnable> shutdownNow() {
+    return pool.shutdownNow();
+  }
+
+  @Override public boolean isShutdown() {
+    return pool.isShutdown();
+  }
+
+  @Override public boolean isTerminated() {
+    return pool.isTerminated();
+  }
+
+  @Override public boolean awaitTermination(long timeout, TimeUnit unit)
+      throws InterruptedException {
+    return pool.awaitTermination(timeout, unit);
+  }
+}
@@ -0,0 +1,70 @@
+package com.cgdecker.luhnybin;
+
+/**
+ * Decides how many worker threads an adaptive masker should use, based on how much masking work
+ * it did over the last sampling interval. Zero threads means masking inline on the reading
+ * thread, which avoids handing chunks between threads when the input is slow or cheap to mask.
+ *
+ * <p>The policy sizes the pool so that workers are about {@value #TARGET_UTILIZATION} busy, grows
+ * it by at least one thread while chunks are waiting for a free worker, and shrinks it by at most
+ * one thread per interval so that a brief lull doesn't throw away threads that are needed again
+ * right after. Switching between inline and parallel masking uses separate thresholds so that
+ * the masker doesn't flip back and forth around a single one.
+ */
+final class AdaptivePolicy {
+
+  /** The fraction of the time each worker should be busy masking. */
+  static final double TARGET_UTILIZATION = 0.75;
+
+  /**
+   * Masking inline switches to parallel when masking takes more than this fraction of the reading
+   * thread's time, since reading is then held up by masking.
+   */
+  static final double PARALLEL_ABOVE = 0.5;
+
+  /**
+   * Masking in parallel switches back to inline when there was less than this much masking work
+   * (in threads' worth) and nothing was waiting for a worker.
+   */
+  static final double INLINE_BELOW = 0.2;
+
+  private final int maxThreads;
+
+  AdaptivePolicy(int maxThreads) {
+    this.maxThreads = maxThreads;
+  }
+
+  /**
+   * Returns the number of threads to use for the next interval.
+   *
+   * @param threads the number of threads used for the last interval, 0 meaning inline
+   * @param elapsedNanos the length of the last interval
+   * @param maskNanos the total time spent masking during the last interval, on all threads
+   * @param waiting the number of chunks waiting for a free worker at the end of the interval
+   */
+  int threads(int threads, long elapsedNanos, long maskNanos, int waiting) {
+    if (elapsedNanos <= 0)
+      return threads;
+    double busy = (double) maskNanos / elapsedNanos;
+
+    if (threads == 0) {
+      return busy > PARALLEL_ABOVE ? Math.min(needed(busy), maxThreads) : 0;
+    }
+
+    if (busy < INLINE_BELOW && waiting == 0)
+      return 0;
+
+    int next = needed(busy);
+    if (waiting > 0) {
+      next = Math.max(next, threads + 1);
+    }
+    if (next < threads) {
+      next = threads - 1;
+    }
+    return Math.max(1, Math.min(next, maxThreads));
+  }
+
+  private static int needed(double busy) {
+    return (int) Math.ceil(busy / TARGET_UTILIZATION);
+  }
+}
@@ -0,0 +1,216 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Ticker;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Delivers {@link MaskAlert alerts} to a {@link MaskAlertHandler} on a dedicated thread. Masking
+ * threads hand detections over through a bounded lock-free queue and never wait on the handler: if
+ * the queue is full, the detection is dropped and counted. The dispatcher coalesces detections in
+ * the same stream into a single alert and limits how many alerts per second it sends.
+ */
+public final class AlertDispatcher implements Closeable {
+
+  private static final Logger logger = Logger.getLogger(AlertDispatcher.class.getName());
+
+  /** How long the dispatcher thread sleeps when it has nothing to do. */
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  /**
+   * Starts a dispatcher that sends alerts to the given handler.
+   *
+   * @param queueCapacity the number of detections that may be waiting to be dispatched before
+   *     further detections are dropped
+   * @param maxAlertsPerSecond the maximum rate at which alerts are sent to the handler; detections
+   *     arriving faster than this are coalesced into the alerts that follow
+   */
+  public static AlertDispatcher start(MaskAlertHandler handler, int queueCapacity,
+      int maxAlertsPerSecond) {
+    AlertDispatcher dispatcher = new AlertDispatcher(
+        handler, queueCapacity, maxAlertsPerSecond, Ticker.systemTicker());
+    dispatcher.thread.start();
+    return dispatcher;
+  }
+
+  private final MaskAlertHandler handler;
+  private final BoundedMpscQueue<Detection> queue;
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread thread;
+  private volatile boolean closed;
+
+  // only accessed by the dispatcher thread
+  private final Ticker ticker;
+  private final double alertsPerNano;
+  private final double maxTokens;
+  private double tokens;
+  private long lastRefill;
+  private long droppedReported;
+  private final Map<String, Coalesced> pending = new LinkedHashMap<String, Coalesced>();
+
+  AlertDispatcher(MaskAlertHandler handler, int queueCapacity, int maxAlertsPerSecond,
+      Ticker ticker) {
+    checkArgument(queueCapacity > 0, "queueCapacity must be positive");
+    checkArgument(maxAlertsPerSecond > 0, "maxAlertsPerSecond must be positive");
+    this.handler = checkNotNull(handler);
+    this.queue = new BoundedMpscQueue<Detection>(queueCapacity);
+    this.ticker = ticker;
+    this.alertsPerNano = maxAlertsPerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+    this.maxTokens = maxAlertsPerSecond;
+    this.tokens = maxTokens;
+    this.lastRefill = ticker.read();
+    this.thread = new Thread(new Runnable() {
+      @Override public void run() {
+        dispatchUntilClosed();
+      }
+    }, "mask-alert-dispatcher");
+  }
+
+  /**
+   * Returns a listener that sends detections in the stream with the given name to this
+   * dispatcher. The listener never blocks.
+   */
+  public MaskListener listenerFor(final String stream) {
+    checkNotNull(stream);
+    return new MaskListener() {
+      @Override public void masked(long offset, long line, int column, int length) {
+        if (!queue.offer(new Detection(stream, offset, line, length))) {
+          dropped.incrementAndGet();
+        }
+      }
+
+      @Override public void finished() {
+      }
+    };
+  }
+
+  /**
+   * Returns the total number of detections dropped because the queue was full.
+   */
+  public long droppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Stops the dispatcher once all queued detections have been dispatched, ignoring the rate limit
+   * for them, and waits for it to finish.
+   */
+  @Override public void close() {
+    closed = true;
+    LockSupport.unpark(thread);
+    boolean interrupted = false;
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void dispatchUntilClosed() {
+    while (!closed) {
+      if (!dispatch(false)) {
+        LockSupport.parkNanos(IDLE_NANOS);
+      }
+    }
+    dispatch(true);
+  }
+
+  /**
+   * Drains the queue, coalescing detections, and sends as many alerts as the rate limit allows
+   * (or all of them if {@code flush} is true). Returns whether there was anything to do.
+   */
+  boolean dispatch(boolean flush) {
+    boolean drained = false;
+    Detection detection;
+    while ((detection = queue.poll()) != null) {
+      drained = true;
+      Coalesced coalesced = pending.get(detection.stream);
+      if (coalesced == null) {
+        pending.put(detection.stream, new Coalesced(detection));
+      } else {
+        coalesced.add(detection);
+      }
+    }
+
+    refillTokens();
+    boolean sent = false;
+    Iterator<Coalesced> iterator = pending.values().iterator();
+    while (iterator.hasNext() && (flush || tokens >= 1)) {
+      Coalesced coalesced = iterator.next();
+      iterator.remove();
+      tokens--;
+      sent = true;
+
+      long droppedTotal = dropped.get();
+      send(coalesced.toAlert(droppedTotal - droppedReported));
+      droppedReported = droppedTotal;
+    }
+    return drained || sent;
+  }
+
+  private void refillTokens() {
+    long now = ticker.read();
+    tokens = Math.min(maxTokens, tokens + (now - lastRefill) * alertsPerNano);
+    lastRefill = now;
+  }
+
+  private void send(MaskAlert alert) {
+    try {
+      handler.alert(alert);
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Alert handler failed for alert: " + alert, e);
+    }
+  }
+
+  private static final class Detection {
+    final String stream;
+    final long offset;
+    final long line;
+    final int length;
+
+    Detection(String stream, long offset, long line, int length) {
+      this.stream = stream;
+      this.offset = offset;
+      this.line = line;
+      this.length = length;
+    }
+  }
+
+  private static final class Coalesced {
+    private final Detection first;
+    private long lastLine;
+    private int count;
+
+    Coalesced(Detection first) {
+      this.first = first;
+      this.lastLine = first.line;
+      this.count = 1;
+    }
+
+    void add(Detection detection) {
+      lastLine = detection.line;
+      count++;
+    }
+
+    MaskAlert toAlert(long dropped) {
+      return new MaskAlert(
+          first.stream, first.line, lastLine, first.offset, first.length, count, dropped);
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.cgdecker.luhnybin;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue for any number of producer threads and a single consumer thread.
+ * {@link #offer} never blocks: it fails if the queue is full.
+ */
+final class BoundedMpscQueue<E> {
+
+  private final AtomicReferenceArray<E> slots;
+  private final int mask;
+
+  /** The index of the next slot to claim; shared by producers. */
+  private final AtomicLong tail = new AtomicLong();
+
+  /** The index of the next slot to consume; only written by the consumer. */
+  private final AtomicLong head = new AtomicLong();
+
+  /**
+   * Creates a queue holding at least the given number of elements (rounded up to a power of 2).
+   */
+  BoundedMpscQueue(int capacity) {
+    int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+    this.slots = new AtomicReferenceArray<E>(size);
+    this.mask = size - 1;
+  }
+
+  /**
+   * Adds the given element to the queue if it isn't full, returning whether it was added.
+   */
+  boolean offer(E element) {
+    while (true) {
+      long index = tail.get();
+      if (index - head.get() > mask)
+        return false;
+      if (tail.compareAndSet(index, index + 1)) {
+        slots.lazySet((int) index & mask, element);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Removes and returns the element at the head of the queue, or returns null if the queue is
+   * empty. Must only be called from the consumer thread.
+   */
+  E poll() {
+    long index = head.get();
+    int slot = (int) index & mask;
+    E element = slots.get(slot);
+    if (element == null) {
+      // either empty or a producer has claimed the slot but not yet published to it
+      return null;
+    }
+    slots.lazySet(slot, null);
+    head.lazySet(index + 1);
+    return element;
+  }
+}
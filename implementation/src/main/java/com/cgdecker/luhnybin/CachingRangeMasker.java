@@ -0,0 +1,78 @@
+package com.cgdecker.luhnybin;
+
+import java.util.Arrays;
+
+/**
+ * Masks lines using a {@link LineCache}, skipping lines it has seen masking leave unchanged and
+ * only passing the rest to another masker. Masking is deterministic, so a cached line needs no
+ * masking the next time it's seen.
+ */
+final class CachingRangeMasker implements RangeMasker {
+
+  private static final ThreadLocal<MaskSpans> lineSpans = new ThreadLocal<MaskSpans>() {
+    @Override protected MaskSpans initialValue() {
+      return new MaskSpans();
+    }
+  };
+
+  private final RangeMasker delegate;
+  private final LineCache cache;
+
+  CachingRangeMasker(RangeMasker delegate, LineCache cache) {
+    this.delegate = delegate;
+    this.cache = cache;
+  }
+
+  @Override public void mask(byte[] buffer, int offset, int length, MaskSpans spans) {
+    int end = offset + length;
+    int lineStart = offset;
+    while (lineStart < end) {
+      int lineEnd = lineStart;
+      while (lineEnd < end && buffer[lineEnd] != '\n') {
+        lineEnd++;
+      }
+      if (delegate.mayMask(buffer, lineStart, lineEnd)) {
+        maskLine(buffer, lineStart, lineEnd, spans);
+      }
+      lineStart = lineEnd + 1;
+    }
+  }
+
+  @Override public boolean mayMask(byte[] buffer, int start, int end) {
+    return delegate.mayMask(buffer, start, end);
+  }
+
+  private void maskLine(byte[] buffer, int start, int end, MaskSpans spans) {
+    if (end - start > LineCache.MAX_LINE_LENGTH) {
+      delegate.mask(buffer, start, end - start, spans);
+      return;
+    }
+
+    int hash = LineCache.hash(buffer, start, end);
+    if (cache.contains(buffer, start, end, hash))
+      return;
+
+    byte[] original = Arrays.copyOfRange(buffer, start, end);
+    MaskSpans masked = lineSpans.get();
+    masked.clear();
+    delegate.mask(buffer, start, end - start, masked);
+
+    if (spans != null) {
+      for (int i = 0; i < masked.size(); i++) {
+        spans.add(masked.start(i), masked.end(i));
+      }
+    }
+    // also checks the bytes, since a masker may change some without reporting them
+    if (masked.size() == 0 && unchanged(original, buffer, start)) {
+      cache.add(original, hash);
+    }
+  }
+
+  private static boolean unchanged(byte[] original, byte[] buffer, int start) {
+    for (int i = 0; i < original.length; i++) {
+      if (buffer[start + i] != original[i])
+        return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,178 @@
+package com.cgdecker.luhnybin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The journal of checkpoints a {@link CheckpointedFileMasker} keeps for a job, from which a job
+ * that was killed can be resumed.
+ *
+ * <p>The format is the 4 bytes {@code "LBCK"} and a version byte, then the length and last
+ * modified time of the input as 8-byte big-endian values, followed by one 32-byte record per
+ * checkpoint: the input offset, the output offset and the number of line feeds before the
+ * checkpoint as 8-byte values, the CRC-32 of the output written since the previous checkpoint (or
+ * since the start) and the CRC-32 of the record's first 28 bytes. A record is only appended once
+ * the output it covers has been synced to disk, and is synced itself before the job goes on. A
+ * record cut short or garbled by a crash fails its own check and is ignored, along with anything
+ * after it.
+ */
+final class CheckpointJournal implements Closeable {
+
+  private static final byte[] MAGIC = {'L', 'B', 'C', 'K'};
+  private static final int VERSION = 1;
+  static final int HEADER_SIZE = MAGIC.length + 1 + 16;
+  static final int RECORD_SIZE = 32;
+
+  /** The start of the input and output, where a job with no checkpoints starts. */
+  static final Checkpoint START = new Checkpoint(0, 0, 0, 0);
+
+  /**
+   * A point at a line boundary up to which the output is known to be complete and on disk.
+   */
+  static final class Checkpoint {
+
+    final long inputOffset;
+    final long outputOffset;
+    final long lineFeeds;
+    /** The CRC-32 of the output from the previous checkpoint to this one. */
+    final int outputCrc;
+
+    Checkpoint(long inputOffset, long outputOffset, long lineFeeds, int outputCrc) {
+      this.inputOffset = inputOffset;
+      this.outputOffset = outputOffset;
+      this.lineFeeds = lineFeeds;
+      this.outputCrc = outputCrc;
+    }
+
+    @Override public String toString() {
+      return "input " + inputOffset + ", output " + outputOffset + ", line " + (lineFeeds + 1);
+    }
+  }
+
+  private final RandomAccessFile file;
+  private final Checkpoint previous;
+  private final Checkpoint last;
+
+  private CheckpointJournal(RandomAccessFile file, Checkpoint previous, Checkpoint last) {
+    this.file = file;
+    this.previous = previous;
+    this.last = last;
+  }
+
+  /**
+   * Opens the journal in the given file for a job masking the given input, creating it if it
+   * doesn't exist or is empty. Any torn record at its end is dropped. Fails if the journal was
+   * written for a job with a different input.
+   */
+  static CheckpointJournal open(File journal, File input) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(journal, "rw");
+    boolean opened = false;
+    try {
+      byte[] header = header(input.length(), input.lastModified());
+      if (file.length() < HEADER_SIZE) {
+        file.setLength(0);
+        file.write(header);
+        file.getFD().sync();
+        opened = true;
+        return new CheckpointJournal(file, null, START);
+      }
+
+      byte[] existing = new byte[HEADER_SIZE];
+      file.readFully(existing);
+      if (!Arrays.equals(MAGIC, Arrays.copyOf(existing, MAGIC.length)))
+        throw new IOException("Not a checkpoint journal: " + journal);
+      if (existing[MAGIC.length] != VERSION)
+        throw new IOException("Unsupported checkpoint journal version: " + existing[MAGIC.length]);
+      if (!Arrays.equals(header, existing))
+        throw new IOException("Checkpoint journal " + journal + " is for a different input than "
+            + input + "; delete it to start over");
+
+      Checkpoint previous = null;
+      Checkpoint last = START;
+      byte[] record = new byte[RECORD_SIZE];
+      long end = HEADER_SIZE;
+      while (end + RECORD_SIZE <= file.length()) {
+        file.readFully(record);
+        Checkpoint checkpoint = decode(record);
+        if (checkpoint == null)
+          break;
+        previous = last;
+        last = checkpoint;
+        end += RECORD_SIZE;
+      }
+      file.setLength(end);
+      file.seek(end);
+      opened = true;
+      return new CheckpointJournal(file, last == START ? null : previous, last);
+    } finally {
+      if (!opened) {
+        file.close();
+      }
+    }
+  }
+
+  /**
+   * Returns the last checkpoint in the journal, or {@link #START} if there are none.
+   */
+  Checkpoint last() {
+    return last;
+  }
+
+  /**
+   * Returns the checkpoint before {@link #last()}, or null if there is none because the last is
+   * {@link #START}. The output covered by the last checkpoint starts at this one.
+   */
+  Checkpoint previous() {
+    return previous;
+  }
+
+  /**
+   * Appends the given checkpoint, returning once it is on disk. The output it covers must already
+   * be on disk.
+   */
+  void append(Checkpoint checkpoint) throws IOException {
+    file.write(encode(checkpoint));
+    file.getFD().sync();
+  }
+
+  @Override public void close() throws IOException {
+    file.close();
+  }
+
+  private static byte[] header(long inputLength, long inputModified) {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.put(MAGIC).put((byte) VERSION).putLong(inputLength).putLong(inputModified);
+    return header.array();
+  }
+
+  private static byte[] encode(Checkpoint checkpoint) {
+    ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    record.putLong(checkpoint.inputOffset)
+        .putLong(checkpoint.outputOffset)
+        .putLong(checkpoint.lineFeeds)
+        .putInt(checkpoint.outputCrc)
+        .putInt(crc(record.array()));
+    return record.array();
+  }
+
+  /**
+   * Returns the checkpoint in the given record, or null if it fails its check.
+   */
+  private static Checkpoint decode(byte[] bytes) {
+    ByteBuffer record = ByteBuffer.wrap(bytes);
+    Checkpoint checkpoint = new Checkpoint(record.getLong(), record.getLong(), record.getLong(),
+        record.getInt());
+    return record.getInt() == crc(bytes) ? checkpoint : null;
+  }
+
+  private static int crc(byte[] record) {
+    CRC32 crc = new CRC32();
+    crc.update(record, 0, RECORD_SIZE - 4);
+    return (int) crc.getValue();
+  }
+}
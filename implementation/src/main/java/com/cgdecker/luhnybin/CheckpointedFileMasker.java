@@ -0,0 +1,148 @@
+package com.cgdecker.luhnybin;
+
+import com.cgdecker.luhnybin.CheckpointJournal.Checkpoint;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Masks a file to a file as a job that can be resumed if it is killed partway through, for inputs
+ * big enough that starting over would cost hours. As it goes, the job records checkpoints in a
+ * {@link CheckpointJournal journal}: after each interval of input it syncs the output to disk and
+ * then appends the input and output offsets it has reached, which are always at a line boundary,
+ * and a checksum of the output written since the last checkpoint.
+ *
+ * <p>Running the job again with the same journal truncates the output to the last checkpoint and
+ * resumes from there, after checking the output still matches that checkpoint's checksum. Running
+ * a job that finished does nothing. The interval trades the cost of syncing against the amount of
+ * work redone after a crash; syncing every few hundred megabytes costs little.
+ */
+public final class CheckpointedFileMasker {
+
+  /** May be null. */
+  private final MaskListener listener;
+  private final RangeMasker rangeMasker;
+  private final long interval;
+
+  CheckpointedFileMasker(MaskListener listener, RangeMasker rangeMasker, long interval) {
+    checkArgument(interval > 0, "interval must be positive");
+    this.listener = listener;
+    this.rangeMasker = rangeMasker;
+    this.interval = interval;
+  }
+
+  /**
+   * Masks the given input file to the given output file, resuming from the last checkpoint in the
+   * given journal if there is one and starting a new journal otherwise. The input must not change
+   * between runs. When resuming, the listener is only told about spans masked after the checkpoint,
+   * with their positions in the whole input.
+   */
+  public void mask(File input, File output, File journal) throws IOException {
+    CheckpointJournal checkpoints = CheckpointJournal.open(journal, input);
+    try {
+      RandomAccessFile out = new RandomAccessFile(output, "rw");
+      try {
+        Checkpoint start = checkpoints.last();
+        verify(out, checkpoints.previous(), start);
+        out.setLength(start.outputOffset);
+        out.seek(start.outputOffset);
+
+        FileInputStream in = new FileInputStream(input);
+        try {
+          in.getChannel().position(start.inputOffset);
+          mask(in, out, checkpoints, start);
+        } finally {
+          in.close();
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      checkpoints.close();
+    }
+  }
+
+  private void mask(FileInputStream in, RandomAccessFile out, CheckpointJournal checkpoints,
+      Checkpoint start) throws IOException {
+    MaskReporter reporter = listener == null
+        ? null
+        : new MaskReporter(listener, start.inputOffset, start.lineFeeds + 1);
+    try {
+      LineChunkReader reader = new LineChunkReader(in);
+      LineChunk chunk = new LineChunk(LuhnMaskers.CHUNK_SIZE, true);
+      CRC32 crc = new CRC32();
+
+      Checkpoint last = start;
+      long inputOffset = start.inputOffset;
+      long outputOffset = start.outputOffset;
+      long lineFeeds = start.lineFeeds;
+      while (reader.next(chunk)) {
+        chunk.mask(rangeMasker);
+        out.write(chunk.bytes, 0, chunk.length);
+        crc.update(chunk.bytes, 0, chunk.length);
+        if (reporter != null) {
+          reporter.report(chunk);
+        }
+        inputOffset += chunk.length;
+        outputOffset += chunk.length;
+        lineFeeds += chunk.lineFeeds;
+
+        // chunks end at line boundaries except at the end of the input
+        if (inputOffset - last.inputOffset >= interval) {
+          last = checkpoint(out, checkpoints, inputOffset, outputOffset, lineFeeds, crc);
+        }
+      }
+      if (inputOffset != last.inputOffset || last == CheckpointJournal.START) {
+        checkpoint(out, checkpoints, inputOffset, outputOffset, lineFeeds, crc);
+      }
+    } finally {
+      if (reporter != null) {
+        reporter.finished();
+      }
+    }
+  }
+
+  private static Checkpoint checkpoint(RandomAccessFile out, CheckpointJournal checkpoints,
+      long inputOffset, long outputOffset, long lineFeeds, CRC32 crc) throws IOException {
+    out.getFD().sync();
+    Checkpoint checkpoint =
+        new Checkpoint(inputOffset, outputOffset, lineFeeds, (int) crc.getValue());
+    checkpoints.append(checkpoint);
+    crc.reset();
+    return checkpoint;
+  }
+
+  /**
+   * Checks that the output covered by the given checkpoint, which starts at the previous one, is
+   * still what was written, so that a job isn't resumed on top of output that was changed or
+   * replaced.
+   */
+  private static void verify(RandomAccessFile out, Checkpoint previous, Checkpoint checkpoint)
+      throws IOException {
+    if (previous == null)
+      return;
+    if (out.length() < checkpoint.outputOffset)
+      throw new EOFException("Output is shorter than its last checkpoint (" + checkpoint
+          + "); delete the journal to start over");
+
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[LuhnMaskers.CHUNK_SIZE];
+    out.seek(previous.outputOffset);
+    long remaining = checkpoint.outputOffset - previous.outputOffset;
+    while (remaining > 0) {
+      int read = (int) Math.min(buffer.length, remaining);
+      out.readFully(buffer, 0, read);
+      crc.update(buffer, 0, read);
+      remaining -= read;
+    }
+    if ((int) crc.getValue() != checkpoint.outputCrc)
+      throw new IOException("Output doesn't match its last checkpoint (" + checkpoint
+          + "); delete the journal to start over");
+  }
+}
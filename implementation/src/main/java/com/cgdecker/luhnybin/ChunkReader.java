@@ -0,0 +1,15 @@
+package com.cgdecker.luhnybin;
+
+import java.io.IOException;
+
+/**
+ * Reads an input stream into {@link LineChunk}s, each of which can be masked on its own.
+ */
+interface ChunkReader {
+
+  /**
+   * Reads the next chunk of input into the given chunk, growing its array if needed. Returns false
+   * if the end of the input has been reached and there is nothing left to return.
+   */
+  boolean next(LineChunk chunk) throws IOException;
+}
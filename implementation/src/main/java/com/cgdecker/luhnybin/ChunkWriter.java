@@ -0,0 +1,103 @@
+package com.cgdecker.luhnybin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes masked {@link LineChunk}s of raw input to an output stream, either in full or, for
+ * auditing, only the lines in which something was masked. Chunks must be written in input order.
+ */
+abstract class ChunkWriter {
+
+  /**
+   * Returns a writer that writes whole chunks to the given stream, or only the changed lines of
+   * each chunk if {@code changedLinesOnly} is true. Only changed lines can be written for chunks
+   * that track spans.
+   */
+  static ChunkWriter newWriter(OutputStream out, boolean changedLinesOnly) {
+    return changedLinesOnly ? new ChangedLinesWriter(out) : new AllWriter(out);
+  }
+
+  abstract void write(LineChunk chunk) throws IOException;
+
+  private static final class AllWriter extends ChunkWriter {
+
+    private final OutputStream out;
+
+    AllWriter(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override void write(LineChunk chunk) throws IOException {
+      out.write(chunk.bytes, 0, chunk.length);
+      out.flush();
+    }
+  }
+
+  /**
+   * Writes each line that had something masked in it as its 1-based line number and the byte
+   * offset of its start in the input, each followed by a tab, then the masked line. A final line
+   * that doesn't end with a line feed gets one. Unchanged lines cost nothing.
+   */
+  private static final class ChangedLinesWriter extends ChunkWriter {
+
+    private final OutputStream out;
+    private final byte[] prefix = new byte[42];
+
+    private long offset;
+    private long line = 1;
+
+    ChangedLinesWriter(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override void write(LineChunk chunk) throws IOException {
+      MaskSpans spans = chunk.spans;
+      int lastLineStart = -1;
+      for (int i = 0; i < spans.size(); i++) {
+        int lineStart = spans.lineStart(i);
+        if (lineStart == lastLineStart)
+          continue;
+        lastLineStart = lineStart;
+
+        int lineEnd = spans.end(i);
+        while (lineEnd < chunk.length && chunk.bytes[lineEnd] != '\n') {
+          lineEnd++;
+        }
+
+        writePrefix(line + spans.line(i), offset + lineStart);
+        out.write(chunk.bytes, lineStart, lineEnd - lineStart);
+        out.write('\n');
+      }
+      if (spans.size() > 0) {
+        out.flush();
+      }
+      offset += chunk.length;
+      line += chunk.lineFeeds;
+    }
+
+    private void writePrefix(long line, long offset) throws IOException {
+      int length = append(line, 0);
+      prefix[length++] = '\t';
+      length = append(offset, length);
+      prefix[length++] = '\t';
+      out.write(prefix, 0, length);
+    }
+
+    /**
+     * Appends the decimal digits of the given non-negative value to the prefix at the given index,
+     * returning the index after them.
+     */
+    private int append(long value, int index) {
+      int digits = 1;
+      for (long v = value / 10; v > 0; v /= 10) {
+        digits++;
+      }
+      for (int i = index + digits - 1; i >= index; i--) {
+        prefix[i] = (byte) ('0' + value % 10);
+        value /= 10;
+      }
+      return index + digits;
+    }
+  }
+}
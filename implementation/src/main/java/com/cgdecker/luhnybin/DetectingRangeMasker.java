@@ -0,0 +1,175 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Masks whatever any of a list of {@link NumberDetector}s finds, scanning each line once. The scan
+ * splits lines into runs of letters, digits and the separators of any detector, counting the
+ * digits and letters in each, and only passes a run to the detectors whose minimum length it meets.
+ */
+final class DetectingRangeMasker implements RangeMasker {
+
+  private static final ThreadLocal<MatchList> matchLists = new ThreadLocal<MatchList>() {
+    @Override protected MatchList initialValue() {
+      return new MatchList();
+    }
+  };
+
+  private final NumberDetector[] detectors;
+  private final boolean[] separators = new boolean[256];
+  private final int minDigits;
+  private final int minAlphanumerics;
+
+  DetectingRangeMasker(Iterable<? extends NumberDetector> detectors) {
+    this.detectors = ImmutableList.copyOf(detectors).toArray(new NumberDetector[0]);
+    checkArgument(this.detectors.length > 0, "no detectors");
+
+    int minDigits = Integer.MAX_VALUE;
+    int minAlphanumerics = Integer.MAX_VALUE;
+    for (NumberDetector detector : this.detectors) {
+      if (detector.allowsLetters()) {
+        minAlphanumerics = Math.min(minAlphanumerics, detector.minLength());
+      } else {
+        minDigits = Math.min(minDigits, detector.minLength());
+      }
+      for (int b = 0; b < 256; b++) {
+        if (detector.isSeparator((byte) b)) {
+          checkArgument(b != '\n' && !isAlphanumeric((byte) b),
+              "%s can't be a separator", (char) b);
+          separators[b] = true;
+        }
+      }
+    }
+    this.minDigits = minDigits;
+    this.minAlphanumerics = minAlphanumerics;
+  }
+
+  @Override public void mask(byte[] buffer, int offset, int length, MaskSpans spans) {
+    MatchList matches = null;
+    int end = offset + length;
+    int pos = offset;
+    while (true) {
+      while (pos < end && !isAlphanumeric(buffer[pos])) {
+        pos++;
+      }
+      if (pos == end)
+        return;
+
+      int runStart = pos;
+      int runEnd = pos;
+      int digits = 0;
+      int alphanumerics = 0;
+      for (; pos < end; pos++) {
+        byte b = buffer[pos];
+        if (isDigit(b)) {
+          digits++;
+          alphanumerics++;
+          runEnd = pos + 1;
+        } else if (isLetter(b)) {
+          alphanumerics++;
+          runEnd = pos + 1;
+        } else if (!separators[b & 0xFF]) {
+          break;
+        }
+      }
+
+      if (digits >= minDigits || alphanumerics >= minAlphanumerics) {
+        if (matches == null) {
+          matches = matchLists.get();
+        }
+        matches.clear();
+        for (NumberDetector detector : detectors) {
+          int count = detector.allowsLetters() ? alphanumerics : digits;
+          if (count >= detector.minLength()) {
+            detector.detect(buffer, runStart, runEnd, matches);
+          }
+        }
+        matches.mask(buffer, spans);
+      }
+    }
+  }
+
+  @Override public boolean mayMask(byte[] buffer, int start, int end) {
+    int digits = 0;
+    int alphanumerics = 0;
+    for (int i = start; i < end; i++) {
+      byte b = buffer[i];
+      if (isDigit(b)) {
+        digits++;
+        alphanumerics++;
+      } else if (isLetter(b)) {
+        alphanumerics++;
+      } else if (!separators[b & 0xFF]) {
+        digits = 0;
+        alphanumerics = 0;
+        continue;
+      }
+      if (digits >= minDigits || alphanumerics >= minAlphanumerics)
+        return true;
+    }
+    return false;
+  }
+
+  static boolean isAlphanumeric(byte b) {
+    return isDigit(b) || isLetter(b);
+  }
+
+  private static boolean isDigit(byte b) {
+    return '0' <= b && b <= '9';
+  }
+
+  private static boolean isLetter(byte b) {
+    return ('A' <= b && b <= 'Z') || ('a' <= b && b <= 'z');
+  }
+
+  /**
+   * The matches found in a single run. Reused by each thread, so it allocates nothing once it's
+   * big enough.
+   */
+  private static final class MatchList implements NumberDetector.Matches {
+
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int size;
+
+    void clear() {
+      size = 0;
+    }
+
+    @Override public void add(int start, int end) {
+      if (size == starts.length) {
+        starts = Arrays.copyOf(starts, size * 2);
+        ends = Arrays.copyOf(ends, size * 2);
+      }
+      // keep sorted by start; a run rarely has more than a couple of matches
+      int i = size++;
+      for (; i > 0 && starts[i - 1] > start; i--) {
+        starts[i] = starts[i - 1];
+        ends[i] = ends[i - 1];
+      }
+      starts[i] = start;
+      ends[i] = end;
+    }
+
+    /**
+     * Masks the letters and digits of each match, adding the merged matches to {@code spans} in
+     * order if it is not null.
+     */
+    void mask(byte[] buffer, MaskSpans spans) {
+      for (int i = 0; i < size; i++) {
+        for (int j = starts[i]; j < ends[i]; j++) {
+          if (isAlphanumeric(buffer[j])) {
+            buffer[j] = 'X';
+          }
+        }
+        if (spans != null) {
+          spans.add(starts[i], ends[i]);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package com.cgdecker.luhnybin;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ServiceLoader;
+
+/**
+ * An entry point for short runs, where starting the JVM costs far more than masking. With no
+ * arguments it masks standard in to standard out on the main thread, loading only the few classes
+ * the raw byte path needs: no Guava, no thread pools and no logging. Any arguments, or any
+ * installed {@link MaskAlertHandler}, hand the run to {@link Main} instead, so the output is always
+ * the same as {@code Main}'s.
+ *
+ * <p>{@code mask-fast.sh} runs this class with a class data sharing archive of exactly these
+ * classes when the build made one (the {@code appcds} profile, active on JDK 13 and later), or
+ * runs the native image made by the {@code native} profile if there is one.
+ */
+public final class FastMain {
+
+  private FastMain() {}
+
+  public static void main(String[] args) throws IOException {
+    if (args.length > 0 || ServiceLoader.load(MaskAlertHandler.class).iterator().hasNext()) {
+      Main.main(args);
+      return;
+    }
+
+    InputStream in = new FileInputStream(FileDescriptor.in);
+    try {
+      ChunkWriter writer = ChunkWriter.newWriter(new FileOutputStream(FileDescriptor.out), false);
+      LineChunkReader reader = new LineChunkReader(in);
+      LineChunk chunk = new LineChunk(LuhnMaskers.CHUNK_SIZE, false);
+      while (reader.next(chunk)) {
+        chunk.mask(RangeMasker.ALL);
+        writer.write(chunk);
+      }
+    } finally {
+      in.close();
+    }
+  }
+}
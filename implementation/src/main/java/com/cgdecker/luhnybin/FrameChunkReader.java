@@ -0,0 +1,134 @@
+package com.cgdecker.luhnybin;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a stream of length-prefixed records into {@link LineChunk chunks} of complete records
+ * without copying them out of the chunk's array: each record's payload is recorded as a slice of
+ * it. Like {@link LineChunkReader}, a chunk is returned as soon as a read ends with at least one
+ * complete record, and a chunk's array grows if a single record doesn't fit in it.
+ *
+ * <p>A record cut off by the end of the input is returned as the last record with the part of its
+ * payload that there is, so that it is still masked; a header cut off by the end of the input is
+ * returned as it is.
+ */
+final class FrameChunkReader implements ChunkReader {
+
+  private static final int MAX_VARINT_LENGTH = 5;
+
+  private final InputStream in;
+  private final RecordFraming framing;
+
+  /** The partial record left over from the last read. */
+  private byte[] pending;
+  private int pendingLength;
+
+  /** The offset in the input of the start of the next chunk, for error messages. */
+  private long offset;
+
+  /** The payload length decoded by the last call to {@link #header}. */
+  private int payloadLength;
+
+  FrameChunkReader(InputStream in, RecordFraming framing) {
+    this.in = in;
+    this.framing = framing;
+    this.pending = new byte[0];
+  }
+
+  @Override public boolean next(LineChunk chunk) throws IOException {
+    chunk.records = 0;
+    if (chunk.bytes.length <= pendingLength) {
+      chunk.bytes = new byte[Math.max(chunk.bytes.length, pendingLength) * 2];
+    }
+    System.arraycopy(pending, 0, chunk.bytes, 0, pendingLength);
+    int length = pendingLength;
+    pendingLength = 0;
+
+    while (true) {
+      int read = in.read(chunk.bytes, length, chunk.bytes.length - length);
+      if (read == -1) {
+        if (length == 0)
+          return false;
+        // the input ends partway through its last record
+        int header = header(chunk.bytes, 0, length);
+        if (header >= 0) {
+          chunk.addRecord(header, length);
+        }
+        return finish(chunk, length, length);
+      }
+      length += read;
+
+      // the pending bytes never hold a complete record, so there's only something new to return
+      // after a read
+      int pos = 0;
+      long needed;
+      while (true) {
+        int header = header(chunk.bytes, pos, length);
+        needed = header < 0 ? pos + MAX_VARINT_LENGTH : (long) pos + header + payloadLength;
+        if (header < 0 || needed > length)
+          break;
+        chunk.addRecord(pos + header, (int) needed);
+        pos = (int) needed;
+      }
+      if (chunk.records > 0)
+        return finish(chunk, pos, length);
+
+      if (length == chunk.bytes.length) {
+        if (needed > Integer.MAX_VALUE - 8)
+          throw new IOException("Record at offset " + offset + " is too long");
+        byte[] grown = new byte[(int) Math.max(chunk.bytes.length * 2L, needed)];
+        System.arraycopy(chunk.bytes, 0, grown, 0, length);
+        chunk.bytes = grown;
+      }
+    }
+  }
+
+  /**
+   * Ends the chunk at {@code end}, keeping the bytes after it for the next chunk.
+   */
+  private boolean finish(LineChunk chunk, int end, int length) {
+    pendingLength = length - end;
+    if (pending.length < pendingLength) {
+      pending = new byte[pendingLength];
+    }
+    System.arraycopy(chunk.bytes, end, pending, 0, pendingLength);
+    chunk.length = end;
+    offset += end;
+    return true;
+  }
+
+  /**
+   * Decodes the header of the record starting at {@code pos}, setting {@link #payloadLength} and
+   * returning the header's length, or returns -1 if the header isn't complete before {@code end}.
+   */
+  private int header(byte[] bytes, int pos, int end) throws IOException {
+    switch (framing) {
+      case FIXED_32:
+        if (end - pos < 4)
+          return -1;
+        payloadLength = (bytes[pos] & 0xFF) << 24 | (bytes[pos + 1] & 0xFF) << 16
+            | (bytes[pos + 2] & 0xFF) << 8 | (bytes[pos + 3] & 0xFF);
+        if (payloadLength < 0)
+          throw new IOException("Negative record length at offset " + (offset + pos));
+        return 4;
+      case VARINT:
+        long value = 0;
+        for (int i = 0; i < MAX_VARINT_LENGTH; i++) {
+          if (pos + i == end)
+            return -1;
+          int b = bytes[pos + i];
+          value |= (long) (b & 0x7F) << (7 * i);
+          if ((b & 0x80) == 0) {
+            if (value > Integer.MAX_VALUE)
+              break;
+            payloadLength = (int) value;
+            return i + 1;
+          }
+        }
+        throw new IOException("Malformed record length at offset " + (offset + pos));
+      default:
+        throw new AssertionError(framing);
+    }
+  }
+}
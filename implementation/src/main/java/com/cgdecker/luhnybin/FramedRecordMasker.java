@@ -0,0 +1,109 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.io.InputSupplier;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * Masks a stream of length-prefixed records, such as log records that may contain line feeds of
+ * their own. Each record's payload is masked as if it were a line: a number can't span two records,
+ * but line feeds within a payload still separate numbers as they would anywhere else. The framing
+ * bytes are written exactly as they were read.
+ *
+ * <p>Records are read in large chunks and masked in place, as slices of the chunk they were read
+ * into. If the masker is multithreaded, the chunks are masked in parallel as batches of records
+ * and written in order. A listener is told the 1-based number of the record each masked span is
+ * in as its line and the column within the record's payload.
+ */
+public final class FramedRecordMasker {
+
+  /** May be null. */
+  private final MaskListener listener;
+  private final RangeMasker rangeMasker;
+  private final RecordFraming framing;
+  /** 0 to mask on the calling thread. */
+  private final int processingThreads;
+
+  FramedRecordMasker(MaskListener listener, RangeMasker rangeMasker, RecordFraming framing,
+      int processingThreads) {
+    this.listener = listener;
+    this.rangeMasker = rangeMasker;
+    this.framing = framing;
+    this.processingThreads = processingThreads;
+  }
+
+  /**
+   * Masks the records in the given stream to the given stream, returning once all output is
+   * written. Neither stream is closed.
+   */
+  public void mask(InputStream in, OutputStream out) throws IOException {
+    if (processingThreads == 0) {
+      maskOnThisThread(in, out);
+    } else {
+      maskOnPool(in, out);
+    }
+  }
+
+  private void maskOnThisThread(InputStream in, OutputStream out) throws IOException {
+    MaskReporter reporter = listener == null ? null : new MaskReporter(listener);
+    try {
+      ChunkWriter writer = ChunkWriter.newWriter(out, false);
+      FrameChunkReader reader = new FrameChunkReader(in, framing);
+      LineChunk chunk = new LineChunk(LuhnMaskers.CHUNK_SIZE, reporter != null);
+      while (reader.next(chunk)) {
+        chunk.mask(rangeMasker);
+        writer.write(chunk);
+        if (reporter != null) {
+          reporter.report(chunk);
+        }
+      }
+    } finally {
+      if (reporter != null) {
+        reporter.finished();
+      }
+    }
+  }
+
+  private void maskOnPool(final InputStream in, OutputStream out) throws IOException {
+    ExecutorService workers = Executors.newFixedThreadPool(processingThreads,
+        new ThreadFactoryBuilder().setNameFormat("luhn-worker-%d").build());
+    ExecutorService io = Executors.newFixedThreadPool(2,
+        new ThreadFactoryBuilder().setNameFormat("luhn-io-%d").build());
+    try {
+      InputSupplier<InputStream> supplier = new InputSupplier<InputStream>() {
+        @Override public InputStream getInput() {
+          // the pipeline closes its input, but the caller owns this stream
+          return new UnclosedInputStream(in);
+        }
+      };
+      getUninterruptibly(new MaskingPipeline(workers, io, rangeMasker, false)
+          .start(supplier, out, listener, framing));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    } finally {
+      workers.shutdown();
+      io.shutdown();
+    }
+  }
+
+  private static final class UnclosedInputStream extends FilterInputStream {
+
+    UnclosedInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override public void close() {
+    }
+  }
+}
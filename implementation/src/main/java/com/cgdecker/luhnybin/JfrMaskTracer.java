@@ -0,0 +1,146 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * A {@link MaskTracer} that commits a Flight Recorder event for each call, so that slow lines and
+ * blocked pipeline stages can be left traced in production and analyzed offline from recordings
+ * (for example, with {@code -XX:StartFlightRecording} or the {@code --jfr} option of
+ * {@link Main}). The events are {@code com.cgdecker.luhnybin.SlowLine},
+ * {@code com.cgdecker.luhnybin.ReaderBlocked} and {@code com.cgdecker.luhnybin.WriterBlocked}, in
+ * the Luhnybin category.
+ *
+ * <p>The events are defined at runtime through {@code jdk.jfr.EventFactory} and committed
+ * reflectively, so this compiles for JVMs without Flight Recorder; {@link #create} only returns a
+ * tracer on one that has it (Java 11 or later, or a Java 8 update with Flight Recorder). Events are
+ * only sent for slow lines and blocked stages, so reflection adds little to their cost.
+ */
+public final class JfrMaskTracer implements MaskTracer {
+
+  private static final String CATEGORY = "Luhnybin";
+
+  private final Method newEvent;
+  private final Method set;
+  private final Method commit;
+
+  private final Object slowLine;
+  private final Object readerBlocked;
+  private final Object writerBlocked;
+
+  /**
+   * Creates a tracer, defining its event types, or returns null if this JVM doesn't have Flight
+   * Recorder.
+   */
+  public static JfrMaskTracer create() {
+    Api api;
+    try {
+      api = new Api();
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+    try {
+      return new JfrMaskTracer(api);
+    } catch (Exception e) {
+      throw new IllegalStateException("Couldn't define Flight Recorder events", e);
+    }
+  }
+
+  private JfrMaskTracer(Api api) throws Exception {
+    this.newEvent = api.eventFactory.getMethod("newEvent");
+    this.set = api.event.getMethod("set", int.class, Object.class);
+    this.commit = api.event.getMethod("commit");
+
+    this.slowLine = api.eventType("SlowLine", "Slow Line",
+        "A line that took at least the installed threshold to mask",
+        api.timespan("maskTime", "Mask Time"),
+        api.field(int.class, "length", "Length"),
+        api.field(int.class, "digitRuns", "Digit Runs"),
+        api.field(int.class, "matches", "Matches"));
+    this.readerBlocked = api.eventType("ReaderBlocked", "Reader Blocked",
+        "The reading thread waited for lines to be masked or written",
+        api.timespan("blockedTime", "Blocked Time"));
+    this.writerBlocked = api.eventType("WriterBlocked", "Writer Blocked",
+        "The writing thread waited for the next line to be masked",
+        api.timespan("blockedTime", "Blocked Time"));
+  }
+
+  @Override public void slowLine(long nanos, int length, int digitRuns, int matches) {
+    commit(slowLine, nanos, length, digitRuns, matches);
+  }
+
+  @Override public void readerBlocked(long nanos) {
+    commit(readerBlocked, nanos);
+  }
+
+  @Override public void writerBlocked(long nanos) {
+    commit(writerBlocked, nanos);
+  }
+
+  private void commit(Object eventType, Object... values) {
+    try {
+      Object event = newEvent.invoke(eventType);
+      for (int i = 0; i < values.length; i++) {
+        set.invoke(event, i, values[i]);
+      }
+      commit.invoke(event);
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);
+    } catch (InvocationTargetException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * The parts of the {@code jdk.jfr} API used to define events.
+   */
+  private static final class Api {
+
+    final Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+    final Class<?> event = Class.forName("jdk.jfr.Event");
+    private final Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+    private final Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+
+    Api() throws ClassNotFoundException {}
+
+    /**
+     * Returns an {@code EventFactory} for events with the given name (in this package) and fields.
+     */
+    Object eventType(String name, String label, String description, Object... fields)
+        throws Exception {
+      List<Object> annotations = ImmutableList.of(
+          annotation("Name", "com.cgdecker.luhnybin." + name),
+          annotation("Label", label),
+          annotation("Description", description),
+          annotation("Category", new String[] {CATEGORY}));
+      return eventFactory.getMethod("create", List.class, List.class)
+          .invoke(null, annotations, ImmutableList.copyOf(fields));
+    }
+
+    Object field(Class<?> type, String name, String label) throws Exception {
+      return field(type, name, ImmutableList.of(annotation("Label", label)));
+    }
+
+    /**
+     * Returns a field holding a time in nanoseconds.
+     */
+    Object timespan(String name, String label) throws Exception {
+      return field(long.class, name,
+          ImmutableList.of(annotation("Label", label), annotation("Timespan", "NANOSECONDS")));
+    }
+
+    private Object field(Class<?> type, String name, List<Object> annotations) throws Exception {
+      return valueDescriptor.getConstructor(Class.class, String.class, List.class)
+          .newInstance(type, name, annotations);
+    }
+
+    private Object annotation(String type, Object value) throws Exception {
+      return annotationElement.getConstructor(Class.class, Object.class)
+          .newInstance(Class.forName("jdk.jfr." + type), value);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Which fields of JSON-structured log lines to scan for possible credit card numbers. Fields are
+ * matched by their key using patterns in which {@code *} matches any sequence of characters, for
+ * example {@code "card*"} or {@code "*_ms"}. Keys are compared as raw bytes without unescaping.
+ *
+ * <p>A value is scanned if its key matches one of the scanned patterns and none of the safe
+ * patterns. Values in arrays use the key of the array. Values in nested objects also inherit the
+ * decision for the key of the object: everything under a safe key is skipped, and everything under
+ * a scanned key is scanned unless its own key is safe, so {@code only(["card"], [])} scans
+ * {@code {"card":{"number":"..."}}}. Values with no key at all (in a top-level array) are always
+ * scanned. Keys themselves are never scanned.
+ */
+public final class JsonFields {
+
+  /**
+   * Returns fields that scan every value except those of keys matching the given safe patterns.
+   */
+  public static JsonFields allExcept(Iterable<String> safePatterns) {
+    return new JsonFields(ImmutableList.of("*"), safePatterns);
+  }
+
+  /**
+   * Returns fields that scan only the values of keys that match the given patterns and not the
+   * given safe patterns.
+   */
+  public static JsonFields only(Iterable<String> patterns, Iterable<String> safePatterns) {
+    return new JsonFields(patterns, safePatterns);
+  }
+
+  private final byte[][] scanned;
+  private final byte[][] safe;
+
+  private JsonFields(Iterable<String> scanned, Iterable<String> safe) {
+    this.scanned = toBytes(scanned);
+    this.safe = toBytes(safe);
+  }
+
+  private static byte[][] toBytes(Iterable<String> patterns) {
+    List<String> list = ImmutableList.copyOf(patterns);
+    byte[][] result = new byte[list.size()][];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = list.get(i).getBytes(Charsets.UTF_8);
+    }
+    return result;
+  }
+
+  /** The value of a key is scanned, as is everything nested in it unless its own key is safe. */
+  static final int SCANNED = 1;
+
+  /** The value of a key is skipped, as is everything nested in it. */
+  static final int SKIPPED = -1;
+
+  /** The key matches no pattern and isn't under a key that did. */
+  static final int UNMATCHED = 0;
+
+  /**
+   * Returns whether the value of the key in the given range of the given buffer is
+   * {@link #SCANNED}, {@link #SKIPPED} or {@link #UNMATCHED}, given the same for the key of the
+   * object it's in ({@link #UNMATCHED} at the top level).
+   */
+  int match(int enclosing, byte[] buffer, int keyStart, int keyEnd) {
+    if (enclosing == SKIPPED || matchesAny(safe, buffer, keyStart, keyEnd))
+      return SKIPPED;
+    if (enclosing == SCANNED || matchesAny(scanned, buffer, keyStart, keyEnd))
+      return SCANNED;
+    return UNMATCHED;
+  }
+
+  private static boolean matchesAny(byte[][] patterns, byte[] buffer, int start, int end) {
+    for (byte[] pattern : patterns) {
+      if (matches(pattern, buffer, start, end))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Matches the given pattern against the given range, with {@code *} matching any sequence of
+   * bytes. Backtracks only to the most recent {@code *}, which is enough for this kind of pattern.
+   */
+  static boolean matches(byte[] pattern, byte[] buffer, int start, int end) {
+    int p = 0;
+    int i = start;
+    int starP = -1;
+    int starI = -1;
+    while (i < end) {
+      if (p < pattern.length && pattern[p] == '*') {
+        starP = p++;
+        starI = i;
+      } else if (p < pattern.length && pattern[p] == buffer[i]) {
+        p++;
+        i++;
+      } else if (starP != -1) {
+        p = starP + 1;
+        i = ++starI;
+      } else {
+        return false;
+      }
+    }
+    while (p < pattern.length && pattern[p] == '*') {
+      p++;
+    }
+    return p == pattern.length;
+  }
+}
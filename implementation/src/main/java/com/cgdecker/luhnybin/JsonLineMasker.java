@@ -0,0 +1,338 @@
+package com.cgdecker.luhnybin;
+
+/**
+ * Masks lines of JSON, only scanning string and number values of the configured {@link JsonFields}.
+ * Scanning a value masks exactly what the value masker ({@link LuhnLineMasker} unless another is
+ * given) would mask in it, and nothing outside the values is changed, so the rest of the line is
+ * preserved byte for byte. A line that isn't a valid JSON object or array (or is nested too
+ * deeply) is scanned in full instead.
+ *
+ * <p>If the masker has {@link SafeTokens}, they are found in the whole line before it is parsed,
+ * so that a keyed token such as {@code "id":} matches as it would in any other line, and the parts
+ * of scanned values (or of a line that isn't JSON) inside them are skipped.
+ *
+ * <p>The values to scan are only masked once the whole line has parsed, so a line with a syntax
+ * error after some of its values is scanned in full just as if nothing had been masked yet.
+ *
+ * <p>With a {@link MaskTracer} installed, each whole line is timed and reported, so the value
+ * masker should be one that isn't traced itself, such as {@link RangeMasker#ALL_UNTRACED}.
+ *
+ * <p>The tokenizer works directly on the raw bytes, and each thread reuses its own, so masking
+ * allocates nothing per line or per call.
+ */
+final class JsonLineMasker implements RangeMasker {
+
+  /** Lines nested deeper than this are scanned in full rather than parsed. */
+  private static final int MAX_DEPTH = 64;
+
+  /** Marks a failure to parse. */
+  private static final int FAIL = -1;
+
+  private final JsonFields fields;
+  private final RangeMasker values;
+  /** May be null. */
+  private final SafeTokens safeTokens;
+
+  private final ThreadLocal<Tokenizer> tokenizers = new ThreadLocal<Tokenizer>() {
+    @Override protected Tokenizer initialValue() {
+      return new Tokenizer(fields, values, safeTokens);
+    }
+  };
+
+  JsonLineMasker(JsonFields fields) {
+    this(fields, RangeMasker.ALL_UNTRACED, null);
+  }
+
+  /**
+   * Creates a masker that masks scanned values (and lines that aren't JSON) with {@code values},
+   * skipping the given safe tokens if they aren't null.
+   */
+  JsonLineMasker(JsonFields fields, RangeMasker values, SafeTokens safeTokens) {
+    this.fields = fields;
+    this.values = values;
+    this.safeTokens = safeTokens;
+  }
+
+  @Override public boolean mayMask(byte[] buffer, int start, int end) {
+    return values.mayMask(buffer, start, end);
+  }
+
+  @Override public void mask(byte[] buffer, int offset, int length, MaskSpans spans) {
+    MaskTracer tracer = MaskTracing.tracer();
+    if (tracer != null && spans == null) {
+      spans = new MaskSpans();
+    }
+    Tokenizer tokenizer = tokenizers.get();
+    tokenizer.start(buffer, spans);
+    int end = offset + length;
+    int lineStart = offset;
+    while (lineStart < end) {
+      int lineEnd = lineStart;
+      while (lineEnd < end && buffer[lineEnd] != '\n') {
+        lineEnd++;
+      }
+      if (tracer == null) {
+        tokenizer.maskLine(lineStart, lineEnd);
+      } else {
+        int spansBefore = spans.size();
+        long start = System.nanoTime();
+        tokenizer.maskLine(lineStart, lineEnd);
+        MaskTracing.lineMasked(tracer, System.nanoTime() - start, buffer, lineStart, lineEnd,
+            spans.size() - spansBefore);
+      }
+      lineStart = lineEnd + 1;
+    }
+    tokenizer.start(null, null);
+  }
+
+  /**
+   * Parses and masks lines of a buffer. Not thread-safe; each thread uses its own, set to the
+   * buffer of each call to {@link #mask} in turn.
+   */
+  private static final class Tokenizer {
+
+    private final JsonFields fields;
+    private final RangeMasker values;
+    /** May be null. */
+    private final SafeTokens safeTokens;
+    private byte[] buffer;
+    private MaskSpans spans;
+    private int end;
+
+    /** The safe tokens in the current line; empty if there are no safe tokens to find. */
+    private final MaskSpans safe = new MaskSpans();
+
+    /** The start and end of each value to scan in the current line, in pairs. */
+    private int[] scanned = new int[16];
+    private int scannedCount;
+
+    Tokenizer(JsonFields fields, RangeMasker values, SafeTokens safeTokens) {
+      this.fields = fields;
+      this.values = values;
+      this.safeTokens = safeTokens;
+    }
+
+    /**
+     * Sets the buffer whose lines are masked next and the spans they're reported to, or clears
+     * them once done so that the buffer isn't kept reachable.
+     */
+    void start(byte[] buffer, MaskSpans spans) {
+      this.buffer = buffer;
+      this.spans = spans;
+    }
+
+    void maskLine(int start, int end) {
+      this.end = end;
+      scannedCount = 0;
+      safe.clear();
+      if (safeTokens != null) {
+        safeTokens.find(buffer, start, end, safe);
+      }
+
+      int pos = skipWhitespace(start);
+      if (pos < end && (buffer[pos] == '{' || buffer[pos] == '[')) {
+        pos = value(pos, -1, -1, JsonFields.UNMATCHED, 0);
+        if (pos != FAIL && skipWhitespace(pos) == end) {
+          int from = 0;
+          for (int i = 0; i < scannedCount; i += 2) {
+            from = mask(scanned[i], scanned[i + 1], from);
+          }
+          return;
+        }
+      } else if (pos == end) {
+        return;
+      }
+
+      // not JSON: scan everything; nothing has been masked yet
+      mask(start, end, 0);
+    }
+
+    /**
+     * Masks the given range outside the line's safe tokens, starting the search for safe tokens at
+     * index {@code from}, and returns the index to start from for a later range.
+     */
+    private int mask(int start, int end, int from) {
+      if (safe.size() == 0) {
+        values.mask(buffer, start, end - start, spans);
+        return 0;
+      }
+      return SafeTokenMasker.maskOutside(values, buffer, start, end, safe, from, spans);
+    }
+
+    /**
+     * Parses the value at {@code pos}, which belongs to the key in the given range (or to no key if
+     * {@code keyStart} is -1) in an object whose own key matched as given, masking it if needed.
+     * Returns the position after the value.
+     */
+    private int value(int pos, int keyStart, int keyEnd, int enclosing, int depth) {
+      pos = skipWhitespace(pos);
+      if (pos == end)
+        return FAIL;
+
+      byte b = buffer[pos];
+      switch (b) {
+        case '{':
+          return depth == MAX_DEPTH
+              ? FAIL
+              : object(pos + 1, match(keyStart, keyEnd, enclosing), depth + 1);
+        case '[':
+          return depth == MAX_DEPTH
+              ? FAIL
+              : array(pos + 1, keyStart, keyEnd, enclosing, depth + 1);
+        case '"':
+          int close = stringEnd(pos + 1);
+          if (close != FAIL) {
+            maskIfScanned(pos + 1, close, keyStart, keyEnd, enclosing);
+            return close + 1;
+          }
+          return FAIL;
+        case 't':
+          return literal(pos, "true");
+        case 'f':
+          return literal(pos, "false");
+        case 'n':
+          return literal(pos, "null");
+        default:
+          if (b == '-' || isDigit(b)) {
+            int numberEnd = numberEnd(pos + 1);
+            maskIfScanned(pos, numberEnd, keyStart, keyEnd, enclosing);
+            return numberEnd;
+          }
+          return FAIL;
+      }
+    }
+
+    /**
+     * Parses the object whose contents start at {@code pos}, whose own key matched as given.
+     */
+    private int object(int pos, int enclosing, int depth) {
+      pos = skipWhitespace(pos);
+      if (pos < end && buffer[pos] == '}')
+        return pos + 1;
+
+      while (true) {
+        if (pos == end || buffer[pos] != '"')
+          return FAIL;
+        int keyStart = pos + 1;
+        int keyEnd = stringEnd(keyStart);
+        if (keyEnd == FAIL)
+          return FAIL;
+
+        pos = skipWhitespace(keyEnd + 1);
+        if (pos == end || buffer[pos] != ':')
+          return FAIL;
+
+        pos = value(pos + 1, keyStart, keyEnd, enclosing, depth);
+        if (pos == FAIL)
+          return FAIL;
+
+        pos = skipWhitespace(pos);
+        if (pos == end)
+          return FAIL;
+        if (buffer[pos] == '}')
+          return pos + 1;
+        if (buffer[pos] != ',')
+          return FAIL;
+        pos = skipWhitespace(pos + 1);
+      }
+    }
+
+    private int array(int pos, int keyStart, int keyEnd, int enclosing, int depth) {
+      pos = skipWhitespace(pos);
+      if (pos < end && buffer[pos] == ']')
+        return pos + 1;
+
+      while (true) {
+        pos = value(pos, keyStart, keyEnd, enclosing, depth);
+        if (pos == FAIL)
+          return FAIL;
+
+        pos = skipWhitespace(pos);
+        if (pos == end)
+          return FAIL;
+        if (buffer[pos] == ']')
+          return pos + 1;
+        if (buffer[pos] != ',')
+          return FAIL;
+        pos++;
+      }
+    }
+
+    /**
+     * Records the given value to be masked once the line has parsed, if it needs scanning.
+     */
+    private void maskIfScanned(int valueStart, int valueEnd, int keyStart, int keyEnd,
+        int enclosing) {
+      // most values can't contain anything to mask, and checking is cheaper than masking
+      if (values.mayMask(buffer, valueStart, valueEnd)
+          && (keyStart == -1 || match(keyStart, keyEnd, enclosing) == JsonFields.SCANNED)) {
+        if (scannedCount == scanned.length) {
+          int[] grown = new int[scanned.length * 2];
+          System.arraycopy(scanned, 0, grown, 0, scannedCount);
+          scanned = grown;
+        }
+        scanned[scannedCount++] = valueStart;
+        scanned[scannedCount++] = valueEnd;
+      }
+    }
+
+    /**
+     * Returns how the key in the given range matched, given how the key of the object it's in
+     * matched. A value with no key, in a top-level array, inherits the latter.
+     */
+    private int match(int keyStart, int keyEnd, int enclosing) {
+      return keyStart == -1 ? enclosing : fields.match(enclosing, buffer, keyStart, keyEnd);
+    }
+
+    /**
+     * Returns the index of the quote ending the string whose contents start at {@code pos}.
+     */
+    private int stringEnd(int pos) {
+      for (int i = pos; i < end; i++) {
+        byte b = buffer[i];
+        if (b == '"')
+          return i;
+        if (b == '\\')
+          i++;
+      }
+      return FAIL;
+    }
+
+    private int numberEnd(int pos) {
+      int i = pos;
+      while (i < end && isNumberChar(buffer[i])) {
+        i++;
+      }
+      return i;
+    }
+
+    private int literal(int pos, String literal) {
+      if (end - pos < literal.length())
+        return FAIL;
+      for (int i = 0; i < literal.length(); i++) {
+        if (buffer[pos + i] != literal.charAt(i))
+          return FAIL;
+      }
+      return pos + literal.length();
+    }
+
+    private int skipWhitespace(int pos) {
+      while (pos < end && isWhitespace(buffer[pos])) {
+        pos++;
+      }
+      return pos;
+    }
+
+    private static boolean isWhitespace(byte b) {
+      return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static boolean isNumberChar(byte b) {
+      return isDigit(b) || b == '.' || b == 'e' || b == 'E' || b == '-' || b == '+';
+    }
+
+    private static boolean isDigit(byte b) {
+      return '0' <= b && b <= '9';
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package com.cgdecker.luhnybin;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded cache of recently seen lines that masking left unchanged, for input that repeats the
+ * same lines over and over (health checks, stack traces, retry loops) with long digit runs that
+ * aren't card numbers, such as request ids and timestamps. Set one with
+ * {@link LuhnMaskers.Builder#lineCache}; a cache may be shared by several maskers.
+ *
+ * <p>Only lines the masker might change are looked up (with the default masker, lines containing a
+ * run of 14 or more digits), and lines longer than {@value #MAX_LINE_LENGTH} bytes aren't cached.
+ * A line in which anything was masked is never cached, so the cache only ever holds lines that are
+ * written out as they are, and no card number it saw stays on the heap; such lines are masked
+ * again each time they're seen. Entries are keyed by a hash of the line's bytes and compared in
+ * full on lookup, so a hash collision can't cause a wrong result. The cache is split into
+ * independently locked stripes, each evicting its least recently used entries when full.
+ *
+ * <p>Compare {@link #hitCount()} with {@link #missCount()} to see whether a cache pays off for a
+ * given stream: a miss costs a hash and a copy of the line on top of masking it.
+ */
+public final class LineCache {
+
+  /** The longest line, in bytes, that is cached. */
+  static final int MAX_LINE_LENGTH = 1024;
+
+  private static final int STRIPES = 16;
+
+  private static final ThreadLocal<Key> probe = new ThreadLocal<Key>() {
+    @Override protected Key initialValue() {
+      return new Key();
+    }
+  };
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Creates a cache holding up to about the given number of lines.
+   */
+  public static LineCache create(int maxEntries) {
+    checkArgument(maxEntries >= STRIPES, "maxEntries must be at least %s", STRIPES);
+    return new LineCache(maxEntries);
+  }
+
+  private LineCache(int maxEntries) {
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe(maxEntries / STRIPES);
+    }
+  }
+
+  public long hitCount() {
+    return hits.get();
+  }
+
+  public long missCount() {
+    return misses.get();
+  }
+
+  public long evictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * Returns the fraction of lookups that were hits, or 0 if there have been none.
+   */
+  public double hitRate() {
+    long hits = hitCount();
+    long lookups = hits + missCount();
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  @Override public String toString() {
+    return String.format("LineCache{hits=%d, misses=%d, evictions=%d, hitRate=%.3f}",
+        hitCount(), missCount(), evictionCount(), hitRate());
+  }
+
+  /**
+   * Returns whether the line in the given range is cached, that is, whether masking is known to
+   * leave it unchanged.
+   */
+  boolean contains(byte[] buffer, int start, int end, int hash) {
+    Key key = probe.get();
+    key.set(buffer, start, end - start, hash);
+    boolean cached;
+    Stripe stripe = stripe(hash);
+    synchronized (stripe) {
+      cached = stripe.get(key) != null;
+    }
+    key.set(null, 0, 0, 0);
+    (cached ? hits : misses).incrementAndGet();
+    return cached;
+  }
+
+  /**
+   * Caches the given line, which masking left unchanged. The cache then owns the array.
+   */
+  void add(byte[] line, int hash) {
+    Key key = new Key();
+    key.set(line, 0, line.length, hash);
+    Stripe stripe = stripe(hash);
+    synchronized (stripe) {
+      stripe.put(key, Boolean.TRUE);
+    }
+  }
+
+  private Stripe stripe(int hash) {
+    return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+  }
+
+  /**
+   * Returns the hash of the given range of bytes.
+   */
+  static int hash(byte[] buffer, int start, int end) {
+    int hash = 1;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + buffer[i];
+    }
+    return hash;
+  }
+
+  private final class Stripe extends LinkedHashMap<Key, Boolean> {
+
+    private static final long serialVersionUID = 0;
+
+    private final int maxEntries;
+
+    Stripe(int maxEntries) {
+      super(16, 0.75f, true);
+      this.maxEntries = maxEntries;
+    }
+
+    @Override protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+      if (size() > maxEntries) {
+        evictions.incrementAndGet();
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * A line's bytes. Cached keys own a copy of the line; each thread's probe key points at the
+   * line being looked up.
+   */
+  private static final class Key {
+    private byte[] bytes;
+    private int offset;
+    private int length;
+    private int hash;
+
+    void set(byte[] bytes, int offset, int length, int hash) {
+      this.bytes = bytes;
+      this.offset = offset;
+      this.length = length;
+      this.hash = hash;
+    }
+
+    @Override public int hashCode() {
+      return hash;
+    }
+
+    @Override public boolean equals(Object obj) {
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      if (hash != other.hash || length != other.length)
+        return false;
+      for (int i = 0; i < length; i++) {
+        if (bytes[offset + i] != other.bytes[other.offset + i])
+          return false;
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package com.cgdecker.luhnybin;
+
+/**
+ * A chunk of raw input bytes made up of complete lines (except possibly for the final line of the
+ * input, which may not end with a line feed). Because a possible credit card number can't span a
+ * line feed, a chunk can be masked without looking at any other chunk.
+ *
+ * <p>A chunk may instead hold complete length-prefixed records, as read by
+ * {@link FrameChunkReader}. Then only the payloads, which are slices of the chunk's array, are
+ * masked, each as if it were a line, and the framing bytes between them are left alone.
+ */
+final class LineChunk {
+
+  byte[] bytes;
+  int length;
+
+  /** The spans masked in this chunk, or null if they aren't being tracked. */
+  final MaskSpans spans;
+
+  /**
+   * The number of line feeds in this chunk, or of records if it holds records; only set when spans
+   * are tracked.
+   */
+  int lineFeeds;
+
+  /** The number of records in this chunk, or -1 if it holds lines. */
+  int records = -1;
+
+  /** The start and end of the payload of each record, in pairs; only used if it holds records. */
+  int[] payloads = new int[0];
+
+  LineChunk(int capacity, boolean trackSpans) {
+    this(new byte[capacity], 0, trackSpans);
+  }
+
+  LineChunk(byte[] bytes, int length, boolean trackSpans) {
+    this.bytes = bytes;
+    this.length = length;
+    this.spans = trackSpans ? new MaskSpans() : null;
+  }
+
+  /**
+   * Masks any possible credit card numbers in this chunk in place using the given masker,
+   * recording the masked spans if they are tracked. Only lines (or records) the masker
+   * {@linkplain RangeMasker#mayMask may change} are passed to it; the rest are left as they are
+   * without being scanned again.
+   */
+  void mask(RangeMasker masker) {
+    if (spans != null) {
+      spans.clear();
+    }
+    if (records < 0) {
+      // mask each run of consecutive lines that may need it as one range
+      int runStart = -1;
+      int lineStart = 0;
+      while (lineStart < length) {
+        int lineEnd = lineStart;
+        while (lineEnd < length && bytes[lineEnd] != '\n') {
+          lineEnd++;
+        }
+        if (masker.mayMask(bytes, lineStart, lineEnd)) {
+          if (runStart == -1) {
+            runStart = lineStart;
+          }
+        } else if (runStart != -1) {
+          masker.mask(bytes, runStart, lineStart - runStart, spans);
+          runStart = -1;
+        }
+        lineStart = lineEnd + 1;
+      }
+      if (runStart != -1) {
+        masker.mask(bytes, runStart, length - runStart, spans);
+      }
+    } else {
+      for (int i = 0; i < 2 * records; i += 2) {
+        masker.mask(bytes, payloads[i], payloads[i + 1] - payloads[i], spans);
+      }
+    }
+    locate();
+  }
+
+  /**
+   * Adds a record with the payload from {@code start} (inclusive) to {@code end} (exclusive),
+   * making this a chunk of records if it isn't already.
+   */
+  void addRecord(int start, int end) {
+    if (records < 0) {
+      records = 0;
+    }
+    if (payloads.length < 2 * (records + 1)) {
+      int[] grown = new int[Math.max(16, payloads.length * 2)];
+      System.arraycopy(payloads, 0, grown, 0, 2 * records);
+      payloads = grown;
+    }
+    payloads[2 * records] = start;
+    payloads[2 * records + 1] = end;
+    records++;
+  }
+
+  /**
+   * Returns whether masking this chunk with the given masker might change anything. If not, the
+   * chunk is left just as {@link #mask} would leave it, with no masked spans.
+   */
+  boolean needsMasking(RangeMasker masker) {
+    if (records < 0) {
+      if (masker.mayMask(bytes, 0, length))
+        return true;
+    } else {
+      for (int i = 0; i < 2 * records; i += 2) {
+        if (masker.mayMask(bytes, payloads[i], payloads[i + 1]))
+          return true;
+      }
+    }
+    if (spans != null) {
+      spans.clear();
+      locate();
+    }
+    return false;
+  }
+
+  private void locate() {
+    if (spans != null) {
+      lineFeeds = records < 0
+          ? spans.locate(bytes, length)
+          : spans.locateRecords(payloads, records);
+    }
+  }
+}
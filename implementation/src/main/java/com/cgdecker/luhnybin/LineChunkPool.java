@@ -0,0 +1,67 @@
+package com.cgdecker.luhnybin;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A bounded pool of {@link LineChunk}s, so that a run reuses the same few chunk arrays for all of
+ * its input instead of allocating one per chunk. Chunks are taken from a free list that may be
+ * shared with other pools, or created if it is empty, up to the pool's size; after that,
+ * {@link #take()} blocks until a chunk is released, which also limits how far reading can get
+ * ahead of writing. Released chunks go back on the free list unless it is full.
+ *
+ * <p>Every {@code take} must be matched by exactly one {@code release}. A chunk that may still be
+ * in use (one whose masking task was cancelled, say) is released as {@code null}: its slot becomes
+ * available again but the chunk itself is dropped rather than reused.
+ */
+final class LineChunkPool {
+
+  private final int capacity;
+  private final boolean trackSpans;
+  private final Semaphore slots;
+  private final BlockingQueue<LineChunk> free;
+
+  /**
+   * @param size the maximum number of chunks that can be taken at once
+   * @param capacity the initial capacity of new chunks
+   * @param free the free list, which must only contain chunks that track spans if
+   *     {@code trackSpans} is true and only chunks that don't otherwise
+   */
+  LineChunkPool(int size, int capacity, boolean trackSpans, BlockingQueue<LineChunk> free) {
+    this.capacity = capacity;
+    this.trackSpans = trackSpans;
+    this.slots = new Semaphore(size);
+    this.free = free;
+  }
+
+  /**
+   * Takes a chunk, returning null without blocking if none is available.
+   */
+  LineChunk poll() {
+    return slots.tryAcquire() ? chunk() : null;
+  }
+
+  /**
+   * Takes a chunk, blocking until one is available.
+   */
+  LineChunk take() {
+    slots.acquireUninterruptibly();
+    return chunk();
+  }
+
+  private LineChunk chunk() {
+    LineChunk chunk = free.poll();
+    return chunk != null ? chunk : new LineChunk(capacity, trackSpans);
+  }
+
+  /**
+   * Returns a chunk to the pool, or just frees its slot if it is null.
+   */
+  void release(LineChunk chunk) {
+    if (chunk != null) {
+      chunk.length = 0;
+      free.offer(chunk);
+    }
+    slots.release();
+  }
+}
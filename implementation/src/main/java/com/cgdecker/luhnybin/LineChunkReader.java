@@ -0,0 +1,75 @@
+package com.cgdecker.luhnybin;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads an {@link InputStream} into {@link LineChunk chunks} of complete lines without decoding
+ * it. A chunk is returned as soon as a read ends with at least one complete line, so interactive
+ * input isn't held back waiting for a full buffer.
+ */
+final class LineChunkReader implements ChunkReader {
+
+  private final InputStream in;
+
+  /** The partial line left over from the last read. */
+  private byte[] pending;
+  private int pendingLength;
+
+  LineChunkReader(InputStream in) {
+    this.in = in;
+    this.pending = new byte[0];
+  }
+
+  /**
+   * Reads the next chunk of lines into the given chunk, growing its array if a line doesn't fit.
+   * Returns false if the end of the input has been reached and there is nothing left to return.
+   */
+  @Override public boolean next(LineChunk chunk) throws IOException {
+    chunk.records = -1;
+    if (chunk.bytes.length <= pendingLength) {
+      chunk.bytes = new byte[Math.max(chunk.bytes.length, pendingLength) * 2];
+    }
+    System.arraycopy(pending, 0, chunk.bytes, 0, pendingLength);
+    int length = pendingLength;
+    pendingLength = 0;
+
+    while (true) {
+      if (length == chunk.bytes.length) {
+        byte[] grown = new byte[chunk.bytes.length * 2];
+        System.arraycopy(chunk.bytes, 0, grown, 0, length);
+        chunk.bytes = grown;
+      }
+
+      int read = in.read(chunk.bytes, length, chunk.bytes.length - length);
+      if (read == -1) {
+        chunk.length = length;
+        return length > 0;
+      }
+
+      int lastLineFeed = lastLineFeed(chunk.bytes, length, length + read);
+      length += read;
+      if (lastLineFeed != -1) {
+        keepPending(chunk.bytes, lastLineFeed + 1, length);
+        chunk.length = lastLineFeed + 1;
+        return true;
+      }
+    }
+  }
+
+  private void keepPending(byte[] bytes, int from, int to) {
+    pendingLength = to - from;
+    if (pending.length < pendingLength) {
+      pending = new byte[pendingLength];
+    }
+    System.arraycopy(bytes, from, pending, 0, pendingLength);
+  }
+
+  private static int lastLineFeed(byte[] bytes, int from, int to) {
+    for (int i = to - 1; i >= from; i--) {
+      if (bytes[i] == '\n')
+        return i;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,281 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.collect.AbstractIterator;
+
+import java.util.Iterator;
+
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * Detects possible credit card numbers without masking them, for callers that only need to know
+ * whether (or where) text contains one, for example to route or quarantine it. The text is read in
+ * place and never copied or modified. Detection follows the same rules as {@link LuhnLineMasker}.
+ *
+ * <p>A match is the longest sequence of 14 to 16 digits (possibly separated by spaces or hyphens)
+ * that passes the Luhn check and ends at a given digit. Matches are found in order of where they
+ * end, so the first match is found without looking any further.
+ */
+public final class LuhnDetector {
+
+  private static final ThreadLocal<Scanners> scanners = new ThreadLocal<Scanners>() {
+    @Override protected Scanners initialValue() {
+      return new Scanners();
+    }
+  };
+
+  private LuhnDetector() {}
+
+  /**
+   * Returns whether the given text contains a possible credit card number.
+   */
+  public static boolean containsCard(CharSequence text) {
+    CharSequenceScanner scanner = scanners.get().chars;
+    try {
+      return scanner.reset(text, 0, text.length()).find();
+    } finally {
+      scanner.release();
+    }
+  }
+
+  /**
+   * Returns whether the given range of ASCII-compatible bytes contains a possible credit card
+   * number.
+   */
+  public static boolean containsCard(byte[] bytes, int offset, int length) {
+    checkPositionIndexes(offset, offset + length, bytes.length);
+    ByteScanner scanner = scanners.get().bytes;
+    try {
+      return scanner.reset(bytes, offset, offset + length).find();
+    } finally {
+      scanner.release();
+    }
+  }
+
+  /**
+   * Returns the first possible credit card number in the given text, or null if there is none.
+   */
+  public static Match firstMatch(CharSequence text) {
+    CharSequenceScanner scanner = scanners.get().chars;
+    try {
+      return scanner.reset(text, 0, text.length()).find() ? scanner.match() : null;
+    } finally {
+      scanner.release();
+    }
+  }
+
+  /**
+   * Returns the first possible credit card number in the given range of ASCII-compatible bytes, or
+   * null if there is none. The offset of the match is relative to the start of the array.
+   */
+  public static Match firstMatch(byte[] bytes, int offset, int length) {
+    checkPositionIndexes(offset, offset + length, bytes.length);
+    ByteScanner scanner = scanners.get().bytes;
+    try {
+      return scanner.reset(bytes, offset, offset + length).find() ? scanner.match() : null;
+    } finally {
+      scanner.release();
+    }
+  }
+
+  /**
+   * Returns an iterator over all possible credit card numbers in the given text. Overlapping
+   * numbers are each returned. The text must not change while it is being iterated over.
+   */
+  public static Iterator<Match> matches(CharSequence text) {
+    return iterate(new CharSequenceScanner().reset(text, 0, text.length()));
+  }
+
+  /**
+   * Returns an iterator over all possible credit card numbers in the given range of
+   * ASCII-compatible bytes, with offsets relative to the start of the array.
+   */
+  public static Iterator<Match> matches(byte[] bytes, int offset, int length) {
+    checkPositionIndexes(offset, offset + length, bytes.length);
+    return iterate(new ByteScanner().reset(bytes, offset, offset + length));
+  }
+
+  private static Iterator<Match> iterate(final Scanner scanner) {
+    return new AbstractIterator<Match>() {
+      @Override protected Match computeNext() {
+        return scanner.find() ? scanner.match() : endOfData();
+      }
+    };
+  }
+
+  /**
+   * A possible credit card number found in text.
+   */
+  public static final class Match {
+
+    private final int offset;
+    private final int length;
+
+    Match(int offset, int length) {
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /** The index of the first digit of the number. */
+    public int offset() {
+      return offset;
+    }
+
+    /** The length of the number, from its first digit to its last, including any separators. */
+    public int length() {
+      return length;
+    }
+
+    @Override public boolean equals(Object obj) {
+      if (obj instanceof Match) {
+        Match other = (Match) obj;
+        return offset == other.offset && length == other.length;
+      }
+      return false;
+    }
+
+    @Override public int hashCode() {
+      return 31 * offset + length;
+    }
+
+    @Override public String toString() {
+      return "[" + offset + ", " + (offset + length) + ")";
+    }
+  }
+
+  /**
+   * Scans text for matches one at a time, resuming where the last match ended.
+   */
+  private abstract static class Scanner {
+
+    private final LuhnDigitBuffer digits = new LuhnDigitBuffer(16);
+
+    private int pos;
+    private int end;
+
+    /** The index after the last digit of the run being checked, or -1 if not in a run. */
+    private int runEnd = -1;
+
+    private int matchStart;
+    private int matchEnd;
+
+    abstract char charAt(int index);
+
+    void reset(int offset, int end) {
+      this.pos = offset;
+      this.end = end;
+      this.runEnd = -1;
+    }
+
+    /**
+     * Finds the next match, returning false if there are no more.
+     */
+    boolean find() {
+      while (true) {
+        while (pos < runEnd) {
+          int index = pos++;
+          char c = charAt(index);
+          if (isDigit(c)) {
+            digits.add(c - '0', index);
+            int luhnyStart = digits.luhnyStart();
+            if (luhnyStart != -1) {
+              matchStart = luhnyStart;
+              matchEnd = index + 1;
+              return true;
+            }
+          }
+        }
+        runEnd = -1;
+
+        if (!nextRun())
+          return false;
+      }
+    }
+
+    /**
+     * Moves to the start of the next run of digits and separators that has at least 14 digits,
+     * returning false if there isn't one.
+     */
+    private boolean nextRun() {
+      while (true) {
+        while (pos < end && !isDigit(charAt(pos))) {
+          pos++;
+        }
+        if (pos == end)
+          return false;
+
+        int totalDigits = 0;
+        int lastDigitIndex = pos;
+        int i = pos;
+        for (; i < end; i++) {
+          char c = charAt(i);
+          if (isDigit(c)) {
+            totalDigits++;
+            lastDigitIndex = i;
+          } else if (c != ' ' && c != '-') {
+            break;
+          }
+        }
+
+        if (totalDigits >= 14) {
+          digits.reset(totalDigits);
+          runEnd = lastDigitIndex + 1;
+          return true;
+        }
+        pos = i;
+      }
+    }
+
+    Match match() {
+      return new Match(matchStart, matchEnd - matchStart);
+    }
+
+    private static boolean isDigit(char c) {
+      return '0' <= c && c <= '9';
+    }
+  }
+
+  private static final class CharSequenceScanner extends Scanner {
+    private CharSequence text;
+
+    CharSequenceScanner reset(CharSequence text, int offset, int end) {
+      this.text = text;
+      reset(offset, end);
+      return this;
+    }
+
+    void release() {
+      text = null;
+    }
+
+    @Override char charAt(int index) {
+      return text.charAt(index);
+    }
+  }
+
+  private static final class ByteScanner extends Scanner {
+    private byte[] bytes;
+
+    ByteScanner reset(byte[] bytes, int offset, int end) {
+      this.bytes = bytes;
+      reset(offset, end);
+      return this;
+    }
+
+    void release() {
+      bytes = null;
+    }
+
+    @Override char charAt(int index) {
+      // no byte of a multi-byte UTF-8 sequence can look like an ASCII digit, space or hyphen
+      return (char) (bytes[index] & 0xFF);
+    }
+  }
+
+  /**
+   * Per-thread scanners for the one-shot methods.
+   */
+  private static final class Scanners {
+    final CharSequenceScanner chars = new CharSequenceScanner();
+    final ByteScanner bytes = new ByteScanner();
+  }
+}
@@ -1,8 +1,8 @@
 package com.cgdecker.luhnybin;
 
 /**
- * A list of digits used for checking for a possible credit card number. May not be longer than 16
- * digits.
+ * A list of digits used for checking for a possible credit card number. Holds at most 16 digits
+ * unless reset with a different window.
  *
  * @author cgdecker@gmail.com (Colin Decker)
  */
@@ -10,12 +10,13 @@ final class LuhnDigitBuffer {
 
   private static final int[] DOUBLE_SUMS = {0, 2, 4, 6, 8, 1, 3, 5, 7, 9};
 
-  private final int[] evens;
-  private final int[] odds;
-  private final int[] indices;
+  private int[] evens;
+  private int[] odds;
+  private int[] indices;
 
   private int start;
   private int end;
+  private int window = 16;
 
   public LuhnDigitBuffer(int maxLength) {
     this.evens = new int[maxLength];
@@ -24,11 +25,33 @@ final class LuhnDigitBuffer {
   }
 
   /**
-   * Adds the given digit which is at the given index in the original string. If adding this digit
-   * would cause the length of the list to go over 16, the first digit will be dropped.
+   * Empties this list so it can be reused, making sure it can hold the given number of digits.
    */
-  public void add(char digit, int index) {
-    int number = digit - '0';
+  public void reset(int maxLength) {
+    reset(maxLength, 16);
+  }
+
+  /**
+   * Empties this list so it can be reused like {@link #reset(int)}, keeping at most the given
+   * number of digits at a time.
+   */
+  public void reset(int maxLength, int window) {
+    if (evens.length < maxLength) {
+      this.evens = new int[maxLength];
+      this.odds = new int[maxLength];
+      this.indices = new int[maxLength];
+    }
+    start = 0;
+    end = 0;
+    this.window = window;
+  }
+
+  /**
+   * Adds the given digit (a value from 0 to 9) which is at the given index in the original string.
+   * If adding this digit would cause the length of the list to go over its window (16 by default),
+   * the first digit will be dropped.
+   */
+  public void add(int number, int index) {
     evens[end] = number;
     odds[end] = DOUBLE_SUMS[number];
 
@@ -41,7 +64,7 @@ final class LuhnDigitBuffer {
 
     end++;
 
-    if (length() > 16) {
+    if (length() > window) {
       start++;
     }
   }
@@ -55,14 +78,40 @@ final class LuhnDigitBuffer {
 
   /**
    * For the digits this list represents and any shorter list of digits that ends at the digit this
-   * list ends at, masks the digits if they pass the Luhn check and may be a credit card number.
+   * list ends at, masks the digits if they pass the Luhn check and may be a credit card number. If
+   * {@code spans} is not null, the masked span is added to it.
+   */
+  public void mask(char[] buffer, MaskSpans spans) {
+    int originalStart = start;
+    try {
+      while (length() >= 14) {
+        if (isLuhny()) {
+          maskUnmaskedDigits(buffer);
+          if (spans != null) {
+            spans.add(indices[start], indices[end - 1] + 1);
+          }
+          return;
+        } else {
+          start++;
+        }
+      }
+    } finally {
+      start = originalStart;
+    }
+  }
+
+  /**
+   * Like {@link #mask(char[], MaskSpans)}, but for a buffer of ASCII-compatible bytes.
    */
-  public void mask(char[] buffer) {
+  public void mask(byte[] buffer, MaskSpans spans) {
     int originalStart = start;
     try {
       while (length() >= 14) {
         if (isLuhny()) {
           maskUnmaskedDigits(buffer);
+          if (spans != null) {
+            spans.add(indices[start], indices[end - 1] + 1);
+          }
           return;
         } else {
           start++;
@@ -94,16 +143,61 @@ final class LuhnDigitBuffer {
     }
   }
 
+  private void maskUnmaskedDigits(byte[] buffer) {
+    for (int i = start; i < end; i++) {
+      if (!mask(buffer, i))
+        break;
+    }
+
+    for (int i = end - 1; i >= start; i--) {
+      if (!mask(buffer, i))
+        break;
+    }
+  }
+
+  private boolean mask(byte[] buffer, int i) {
+    if (buffer[indices[i]] != 'X') {
+      buffer[indices[i]] = 'X';
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the index in the original string of the first digit of the longest list of 14 or more
+   * digits ending at the last digit added that passes the Luhn check, or -1 if there is none. These
+   * are the digits {@link #mask} would mask, but nothing is modified.
+   */
+  public int luhnyStart() {
+    return luhnyStart(14);
+  }
+
+  /**
+   * Like {@link #luhnyStart()}, but for lists of at least the given number of digits.
+   */
+  public int luhnyStart(int minLength) {
+    for (int from = start; end - from >= minLength; from++) {
+      if (isLuhny(from))
+        return indices[from];
+    }
+    return -1;
+  }
+
   private boolean isLuhny() {
-    return sum() % 10 == 0;
+    return isLuhny(start);
+  }
+
+  private boolean isLuhny(int from) {
+    return sum(from) % 10 == 0;
   }
 
-  private int sum() {
+  private int sum(int from) {
     // ignore case where length is 0... only called when length is 14+
     int result = evens[end - 1];
-    if (start > 0) {
-      int sumToSubtract = length() % 2 == 0 ?
-          evens[start - 1] : odds[start - 1];
+    if (from > 0) {
+      int sumToSubtract = (end - from) % 2 == 0 ?
+          evens[from - 1] : odds[from - 1];
       result -= sumToSubtract;
     }
     return result;
@@ -18,6 +18,20 @@ public final class LuhnLineMasker implements Callable<char[]> {
     return new LuhnLineMasker(line).call();
   }
 
+  /**
+   * The digit buffer each thread reuses for masking raw bytes, so that masking a chunk doesn't
+   * allocate anything.
+   */
+  private static final ThreadLocal<LuhnDigitBuffer> byteDigits =
+      new ThreadLocal<LuhnDigitBuffer>() {
+        @Override protected LuhnDigitBuffer initialValue() {
+          return new LuhnDigitBuffer(32);
+        }
+      };
+
+  /** The shortest possible run of digits and separators that can be masked. */
+  private static final int MIN_RUN_LENGTH = 14;
+
   private final char[] buffer;
 
   public LuhnLineMasker(String line) {
@@ -28,30 +42,49 @@ public final class LuhnLineMasker implements Callable<char[]> {
    * Processes the given line, writing the processed output to the given writer.
    */
   public char[] call() throws IOException {
-    int pos = 0;
-    while ((pos = nextDigit(pos)) < buffer.length) {
-      pos = check(pos);
+    MaskTracer tracer = MaskTracing.tracer();
+    if (tracer == null) {
+      mask(buffer, 0, buffer.length, null, null);
+    } else {
+      MaskTracing.mask(tracer, buffer);
     }
     return buffer;
   }
 
   /**
-   * Returns the index of the next digit or the buffer length if the end of the buffer is reached.
+   * Masks any possible credit card sequences in the given range of the given buffer in place.
+   *
+   * @param digits a digit buffer to reuse for checking possible numbers, or null to create them as
+   *     needed
+   * @param spans if not null, the spans that are masked are added to it
+   */
+  static void mask(char[] buffer, int offset, int length, LuhnDigitBuffer digits,
+      MaskSpans spans) {
+    int end = offset + length;
+    int pos = offset;
+    while ((pos = nextDigit(buffer, pos, end)) < end) {
+      pos = check(buffer, pos, end, digits, spans);
+    }
+  }
+
+  /**
+   * Returns the index of the next digit or {@code end} if it is reached.
    */
-  private int nextDigit(int pos) {
-    for (int i = pos; i < buffer.length; i++) {
+  private static int nextDigit(char[] buffer, int pos, int end) {
+    for (int i = pos; i < end; i++) {
       if (isDigit(buffer[i]))
         return i;
     }
-    return buffer.length;
+    return end;
   }
 
   /**
    * Checks the characters of the string starting at {@code pos}, known to be a digit, masking
-   * digits if needed. Returns the index of the next non-credit card character or the buffer length
-   * if the end of the buffer is reached.
+   * digits if needed. Returns the index of the next non-credit card character or {@code end} if it
+   * is reached.
    */
-  private int check(int pos) {
+  private static int check(char[] buffer, int pos, int end, LuhnDigitBuffer digits,
+      MaskSpans spans) {
     int totalDigits = 0;
     int i = pos;
     int lastDigitIndex = i;
@@ -65,13 +98,13 @@ public final class LuhnLineMasker implements Callable<char[]> {
         break;
       }
       i++;
-    } while (i < buffer.length);
+    } while (i < end);
 
     int nextNonCcPos = i;
 
     if (totalDigits >= 14) {
       // we have a 14+ character substring with only digits, spaces and hyphens... check it
-      mask(pos, lastDigitIndex - pos + 1, totalDigits);
+      mask(buffer, pos, lastDigitIndex - pos + 1, totalDigits, digits, spans);
     }
     return nextNonCcPos;
   }
@@ -80,17 +113,174 @@ public final class LuhnLineMasker implements Callable<char[]> {
    * Checks the given range (containing 14+ digits) in the buffer, masking any possible credit card numbers
    * in it.
    */
-  private void mask(int offset, int length, int totalDigits) {
-    LuhnDigitBuffer digits = new LuhnDigitBuffer(totalDigits);
+  private static void mask(char[] buffer, int offset, int length, int totalDigits,
+      LuhnDigitBuffer digits, MaskSpans spans) {
+    if (digits == null) {
+      digits = new LuhnDigitBuffer(totalDigits);
+    } else {
+      digits.reset(totalDigits);
+    }
 
     for (int i = offset; i < offset + length; i++) {
       char c = buffer[i];
 
       if (isDigit(c)) {
-        digits.add(c, i);
-        digits.mask(buffer);
+        digits.add(c - '0', i);
+        digits.mask(buffer, spans);
+      }
+    }
+  }
+
+  /**
+   * Masks any possible credit card sequences in the given range of the given buffer in place. The
+   * bytes are treated as ASCII-compatible text (ASCII, UTF-8, ISO-8859-1, etc.): only the ASCII
+   * digits, {@code ' '} and {@code '-'} are meaningful, and every other byte is left untouched. The
+   * range may contain multiple lines.
+   */
+  public static void mask(byte[] buffer, int offset, int length) {
+    mask(buffer, offset, length, null);
+  }
+
+  /**
+   * Masks the given range of the given buffer in place like {@link #mask(byte[], int, int)}, adding
+   * each masked span to {@code spans} if it is not null.
+   */
+  static void mask(byte[] buffer, int offset, int length, MaskSpans spans) {
+    LuhnDigitBuffer digits = byteDigits.get();
+    int end = offset + length;
+    int pos = offset;
+    while ((pos = nextDigit(buffer, pos, end)) < end) {
+      pos = check(buffer, pos, end, digits, spans);
+    }
+  }
+
+  /**
+   * Returns whether the given range of the given buffer contains a run of 14 or more digits,
+   * possibly separated by spaces and hyphens. Only such a run can be masked.
+   *
+   * <p>Such a run is at least 14 bytes long, so only every 14th byte needs to be looked at until
+   * one could be part of a run; ordinary text is mostly skipped over without a look.
+   */
+  static boolean hasPossibleNumber(byte[] buffer, int start, int end) {
+    int i = start + MIN_RUN_LENGTH - 1;
+    while (i < end) {
+      if (!isDigit(buffer[i]) && !isSeparator(buffer[i])) {
+        i += MIN_RUN_LENGTH;
+        continue;
+      }
+      int runStart = i;
+      while (runStart > start
+          && (isDigit(buffer[runStart - 1]) || isSeparator(buffer[runStart - 1]))) {
+        runStart--;
+      }
+      int digits = 0;
+      for (i = runStart; i < end; i++) {
+        byte b = buffer[i];
+        if (isDigit(b)) {
+          if (++digits == 14)
+            return true;
+        } else if (!isSeparator(b)) {
+          break;
+        }
       }
+      // the byte at i isn't part of a run, so the next run that could matter includes i + 14
+      i += MIN_RUN_LENGTH;
     }
+    return false;
+  }
+
+  /**
+   * Like {@link #hasPossibleNumber(byte[], int, int)}, for a line of text.
+   */
+  static boolean hasPossibleNumber(String line) {
+    int end = line.length();
+    int i = MIN_RUN_LENGTH - 1;
+    while (i < end) {
+      if (!isDigit(line.charAt(i)) && !isSeparator(line.charAt(i))) {
+        i += MIN_RUN_LENGTH;
+        continue;
+      }
+      int runStart = i;
+      while (runStart > 0
+          && (isDigit(line.charAt(runStart - 1)) || isSeparator(line.charAt(runStart - 1)))) {
+        runStart--;
+      }
+      int digits = 0;
+      for (i = runStart; i < end; i++) {
+        char c = line.charAt(i);
+        if (isDigit(c)) {
+          if (++digits == 14)
+            return true;
+        } else if (!isSeparator(c)) {
+          break;
+        }
+      }
+      i += MIN_RUN_LENGTH;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the index of the next digit or {@code end} if it is reached.
+   */
+  private static int nextDigit(byte[] buffer, int pos, int end) {
+    for (int i = pos; i < end; i++) {
+      if (isDigit(buffer[i]))
+        return i;
+    }
+    return end;
+  }
+
+  /**
+   * Byte version of {@link #check(char[], int, int, LuhnDigitBuffer, MaskSpans)}, which always
+   * reuses the given digit buffer.
+   */
+  private static int check(byte[] buffer, int pos, int end, LuhnDigitBuffer digits,
+      MaskSpans spans) {
+    int totalDigits = 0;
+    int i = pos;
+    int lastDigitIndex = i;
+    byte b;
+    do {
+      b = buffer[i];
+      if (isDigit(b)) {
+        totalDigits++;
+        lastDigitIndex = i;
+      } else if (!isSeparator(b)) {
+        break;
+      }
+      i++;
+    } while (i < end);
+
+    if (totalDigits >= 14) {
+      mask(buffer, pos, lastDigitIndex - pos + 1, totalDigits, digits, spans);
+    }
+    return i;
+  }
+
+  /**
+   * Byte version of {@link #mask(char[], int, int, int, LuhnDigitBuffer, MaskSpans)}.
+   */
+  private static void mask(byte[] buffer, int offset, int length, int totalDigits,
+      LuhnDigitBuffer digits, MaskSpans spans) {
+    digits.reset(totalDigits);
+
+    for (int i = offset; i < offset + length; i++) {
+      byte b = buffer[i];
+
+      if (isDigit(b)) {
+        digits.add(b - '0', i);
+        digits.mask(buffer, spans);
+      }
+    }
+  }
+
+  private static boolean isSeparator(byte b) {
+    return b == ' ' || b == '-';
+  }
+
+  private static boolean isDigit(byte b) {
+    return '0' <= b && b <= '9';
   }
 
   private static boolean isSeparator(char c) {
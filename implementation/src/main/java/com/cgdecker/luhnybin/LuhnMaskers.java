@@ -1,23 +1,31 @@
 package com.cgdecker.luhnybin;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.CharStreams;
 import com.google.common.io.InputSupplier;
 import com.google.common.io.LineProcessor;
-import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
-import static com.google.common.util.concurrent.Uninterruptibles.putUninterruptibly;
-import static com.google.common.util.concurrent.Uninterruptibles.takeUninterruptibly;
 
 /**
  * Factory for {@link LuhnMasker} implementations.
@@ -25,14 +33,17 @@ import static com.google.common.util.concurrent.Uninterruptibles.takeUninterrupt
  * @author cgdecker@gmail.com (Colin Decker)
  */
 public class LuhnMaskers {
-  
+
+  /** The initial size of the chunks raw input is read in. */
+  static final int CHUNK_SIZE = 64 * 1024;
+
   private LuhnMaskers() {}
 
   /**
    * Returns a basic, single-threaded masker.
    */
-  public static LuhnMasker newBasicMasker() {
-    return new BasicLuhnMasker();
+  public static RawLuhnMasker newBasicMasker() {
+    return builder().build();
   }
 
   /**
@@ -41,11 +52,239 @@ public class LuhnMaskers {
    *
    * @param processingThreads the number of threads to use for processing input lines.
    */
-  public static LuhnMasker newMultithreadedMasker(int processingThreads) {
-    return new MultithreadedLuhnMasker(processingThreads);
+  public static RawLuhnMasker newMultithreadedMasker(int processingThreads) {
+    return builder().multithreaded(processingThreads).build();
+  }
+
+  /**
+   * Returns a new builder for configuring a masker. By default, the built masker is basic and
+   * single-threaded and scans all input.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builder for {@link LuhnMasker}s.
+   */
+  public static final class Builder {
+
+    private int processingThreads;
+    private int adaptiveThreads;
+    private MaskListener listener;
+    private JsonFields jsonFields;
+    private List<NumberDetector> detectors;
+    private SafeTokens safeTokens;
+    private LineCache lineCache;
+    private boolean changedLinesOnly;
+
+    private Builder() {}
+
+    /**
+     * Makes the masker multithreaded: it reads and writes on separate threads and uses a thread
+     * pool with the given number of threads to mask input. Replaces any earlier call to
+     * {@link #adaptive}.
+     */
+    public Builder multithreaded(int processingThreads) {
+      checkArgument(processingThreads > 0, "processingThreads must be positive");
+      this.processingThreads = processingThreads;
+      this.adaptiveThreads = 0;
+      return this;
+    }
+
+    /**
+     * Makes the masker adaptive: it masks on the reading thread while that keeps up, and moves
+     * masking to a pool of up to the given number of threads, resized as it runs, when masking
+     * becomes the bottleneck. Replaces any earlier call to {@link #multithreaded}. Unlike a
+     * multithreaded masker, an adaptive masker's {@code run} methods return once all output is
+     * written.
+     */
+    public Builder adaptive(int maxThreads) {
+      checkArgument(maxThreads > 0, "maxThreads must be positive");
+      this.adaptiveThreads = maxThreads;
+      this.processingThreads = 0;
+      return this;
+    }
+
+    /**
+     * Sets a listener to report the spans masked in raw input to. A multithreaded masker calls it
+     * from its writing thread.
+     */
+    public Builder listener(MaskListener listener) {
+      this.listener = checkNotNull(listener);
+      return this;
+    }
+
+    /**
+     * Treats each line of raw input as a JSON object and only scans the values of the given fields.
+     * Lines that aren't valid JSON are scanned in full.
+     */
+    public Builder jsonFields(JsonFields fields) {
+      this.jsonFields = checkNotNull(fields);
+      return this;
+    }
+
+    /**
+     * Masks whatever any of the given detectors finds in raw input, rather than only credit card
+     * numbers, scanning each line once for all of them. Include {@link NumberDetectors#luhn()} to
+     * keep masking credit card numbers. Decoded input is still only scanned for credit card
+     * numbers.
+     */
+    public Builder detectors(NumberDetector... detectors) {
+      return detectors(Arrays.asList(detectors));
+    }
+
+    /**
+     * Like {@link #detectors(NumberDetector...)}.
+     */
+    public Builder detectors(Iterable<? extends NumberDetector> detectors) {
+      this.detectors = ImmutableList.copyOf(detectors);
+      checkArgument(!this.detectors.isEmpty(), "no detectors");
+      return this;
+    }
+
+    /**
+     * Skips the given safe tokens in raw input, never scanning or masking them. Decoded input is
+     * scanned in full.
+     */
+    public Builder safeTokens(SafeTokens tokens) {
+      this.safeTokens = checkNotNull(tokens);
+      return this;
+    }
+
+    /**
+     * Looks up lines of raw input in the given cache before masking them, and caches those that
+     * masking leaves unchanged. Worthwhile for input that repeats the same lines with long digit
+     * runs that aren't card numbers. Lines in which something is masked aren't cached, so the cache
+     * never holds a card number in the clear.
+     */
+    public Builder lineCache(LineCache cache) {
+      this.lineCache = checkNotNull(cache);
+      return this;
+    }
+
+    /**
+     * Writes only the lines of raw input in which something was masked, each preceded by its
+     * 1-based line number and the byte offset of its start in the input, separated by tabs.
+     * Doesn't apply to decoded input, processors or multiplexers.
+     */
+    public Builder changedLinesOnly() {
+      this.changedLinesOnly = true;
+      return this;
+    }
+
+    private RangeMasker rangeMasker() {
+      RangeMasker rangeMasker;
+      if (detectors != null) {
+        rangeMasker = new DetectingRangeMasker(detectors);
+      } else {
+        // JSON lines are traced whole rather than value by value
+        rangeMasker = jsonFields == null ? RangeMasker.ALL : RangeMasker.ALL_UNTRACED;
+      }
+      // JSON lines find safe tokens in the whole line themselves, so that keyed tokens match
+      if (jsonFields != null) {
+        rangeMasker = new JsonLineMasker(jsonFields, rangeMasker, safeTokens);
+      } else if (safeTokens != null) {
+        rangeMasker = new SafeTokenMasker(rangeMasker, safeTokens);
+      }
+      return lineCache == null ? rangeMasker : new CachingRangeMasker(rangeMasker, lineCache);
+    }
+
+    /**
+     * Builds a Reactive Streams processor that masks raw input, running all masking on the given
+     * executor. The multithreaded setting doesn't apply to processors.
+     */
+    public MaskingProcessor buildProcessor(Executor executor) {
+      return new MaskingProcessor(executor, rangeMasker(), listener);
+    }
+
+    /**
+     * Builds a {@link MaskingService} that shares a pool with the number of threads given to
+     * {@link #multithreaded} across all of its runs. Listeners are passed to each run rather than
+     * set on the builder. The service must be started before use.
+     *
+     * @throws IllegalStateException if {@code multithreaded} wasn't called or a listener was set
+     */
+    public MaskingService buildService() {
+      checkState(processingThreads > 0, "a service must be multithreaded");
+      checkState(listener == null, "listeners are passed to MaskingService.submit");
+      return new MaskingService(processingThreads, rangeMasker(), changedLinesOnly);
+    }
+
+    /**
+     * Builds a {@link MultiplexedMasker} that masks many streams on a shared pool with the number
+     * of threads given to {@link #multithreaded}. Listeners are passed to each stream rather than
+     * set on the builder. The masker must be started before use.
+     *
+     * @throws IllegalStateException if {@code multithreaded} wasn't called or a listener was set
+     */
+    public MultiplexedMasker buildMultiplexer() {
+      checkState(processingThreads > 0, "a multiplexer must be multithreaded");
+      checkState(listener == null, "listeners are passed to MultiplexedMasker.open");
+      return new MultiplexedMasker(processingThreads, rangeMasker());
+    }
+
+    /**
+     * Builds a masker for files that copies unchanged bytes from the input file to the output with
+     * {@link java.nio.channels.FileChannel#transferTo}. The multithreaded, adaptive and changed
+     * lines settings don't apply to it.
+     */
+    public SparseFileMasker buildFileMasker() {
+      return new SparseFileMasker(listener, rangeMasker());
+    }
+
+    /**
+     * Builds a masker for files that reads, masks and writes at the same time, with separate
+     * threads for reading and writing. The multithreaded and adaptive settings don't apply to it.
+     */
+    public OverlappedFileMasker buildOverlappedFileMasker() {
+      return new OverlappedFileMasker(listener, rangeMasker(), changedLinesOnly);
+    }
+
+    /**
+     * Builds a masker for file to file jobs that can be resumed after being killed, recording a
+     * checkpoint every time it has masked the given number of bytes of input. The multithreaded,
+     * adaptive and changed lines settings don't apply to it.
+     */
+    public CheckpointedFileMasker buildCheckpointedFileMasker(long checkpointInterval) {
+      return new CheckpointedFileMasker(listener, rangeMasker(), checkpointInterval);
+    }
+
+    /**
+     * Builds a masker for streams of length-prefixed records with the given framing, which masks
+     * each record's payload as a line. It masks on a pool with the number of threads given to
+     * {@link #multithreaded} or {@link #adaptive} if either was called, and on the calling thread
+     * otherwise. The changed lines setting doesn't apply to it.
+     */
+    public FramedRecordMasker buildFramedMasker(RecordFraming framing) {
+      checkNotNull(framing);
+      return new FramedRecordMasker(listener, rangeMasker(), framing,
+          Math.max(processingThreads, adaptiveThreads));
+    }
+
+    public RawLuhnMasker build() {
+      if (adaptiveThreads > 0)
+        return new AdaptiveLuhnMasker(adaptiveThreads, listener, rangeMasker(),
+            changedLinesOnly);
+      return processingThreads == 0
+          ? new BasicLuhnMasker(listener, rangeMasker(), changedLinesOnly)
+          : new MultithreadedLuhnMasker(processingThreads, listener, rangeMasker(),
+              changedLinesOnly);
+    }
   }
 
-  private static class BasicLuhnMasker implements LuhnMasker {
+  private static class BasicLuhnMasker implements RawLuhnMasker {
+
+    /** May be null. */
+    private final MaskListener listener;
+    private final RangeMasker rangeMasker;
+    private final boolean changedLinesOnly;
+
+    BasicLuhnMasker(MaskListener listener, RangeMasker rangeMasker, boolean changedLinesOnly) {
+      this.listener = listener;
+      this.rangeMasker = rangeMasker;
+      this.changedLinesOnly = changedLinesOnly;
+    }
 
     @Override public void run(InputSupplier<? extends Reader> inSupplier, final Writer out) {
       try {
@@ -66,67 +305,131 @@ public class LuhnMaskers {
         throw new RuntimeException(e);
       }
     }
+
+    @Override public void run(InputSupplier<? extends InputStream> inSupplier, OutputStream out) {
+      try {
+        MaskReporter reporter = listener == null ? null : new MaskReporter(listener);
+        ChunkWriter writer = ChunkWriter.newWriter(out, changedLinesOnly);
+        InputStream in = inSupplier.getInput();
+        try {
+          LineChunkReader reader = new LineChunkReader(in);
+          LineChunk chunk = new LineChunk(CHUNK_SIZE, reporter != null || changedLinesOnly);
+          while (reader.next(chunk)) {
+            chunk.mask(rangeMasker);
+            writer.write(chunk);
+            if (reporter != null) {
+              reporter.report(chunk);
+            }
+          }
+        } finally {
+          in.close();
+          if (reporter != null) {
+            reporter.finished();
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
   }
 
-  private static class MultithreadedLuhnMasker implements LuhnMasker {
+  private static class MultithreadedLuhnMasker implements RawLuhnMasker {
 
-    private static final Future<char[]> POISON = Futures.immediateFuture(null);
+    private static final Logger logger = Logger.getLogger(MultithreadedLuhnMasker.class.getName());
 
     private final ExecutorService processingExecutor;
+    private final ExecutorService ioExecutor;
+    private final MaskingPipeline pipeline;
+    /** May be null. */
+    private final MaskListener listener;
 
-    private final BlockingQueue<Future<char[]>> processFutures =
-        new ArrayBlockingQueue<Future<char[]>>(200);
+    MultithreadedLuhnMasker(int processingThreads, MaskListener listener,
+        RangeMasker rangeMasker, boolean changedLinesOnly) {
+      this.processingExecutor = Executors.newFixedThreadPool(processingThreads,
+          new ThreadFactoryBuilder().setNameFormat("luhn-worker-%d").build());
+      this.ioExecutor = Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setNameFormat("luhn-io-%d").build());
+      this.pipeline = new MaskingPipeline(processingExecutor, ioExecutor, rangeMasker,
+          changedLinesOnly);
+      this.listener = listener;
+    }
 
-    MultithreadedLuhnMasker(int processingThreads) {
-      this.processingExecutor = Executors.newFixedThreadPool(processingThreads);
+    @Override public void run(InputSupplier<? extends Reader> inSupplier, Writer out) {
+      shutDownWhenDone(pipeline.start(inSupplier, out));
     }
 
-    @Override public void run(final InputSupplier<? extends Reader> inSupplier, final Writer out) {
-      new Thread(new Runnable() {
-        @Override public void run() {
-          try {
-            readLines(inSupplier);
-            putUninterruptibly(processFutures, POISON);
-          } catch (IOException e) {
-            throw new RuntimeException(e);
-          }
-        }
-      }).start();
+    @Override public void run(InputSupplier<? extends InputStream> inSupplier,
+        OutputStream out) {
+      shutDownWhenDone(pipeline.start(inSupplier, out, listener));
+    }
 
-      new Thread(new Runnable() {
+    private void shutDownWhenDone(final ListenableFuture<Void> done) {
+      done.addListener(new Runnable() {
         @Override public void run() {
-          Future<char[]> processedLineFuture;
+          processingExecutor.shutdown();
+          ioExecutor.shutdown();
           try {
-            while ((processedLineFuture = takeUninterruptibly(processFutures)) != POISON) {
-              writeLine(processedLineFuture, out);
-            }
-            processingExecutor.shutdown();
-          } catch (Exception e) {
-            throw new RuntimeException(e);
+            getUninterruptibly(done);
+          } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "Masking failed", e.getCause());
           }
         }
-      }).start();
+      }, MoreExecutors.sameThreadExecutor());
     }
+  }
 
-    private void writeLine(Future<char[]> processedLineFuture, Writer out) throws ExecutionException, IOException {
-      char[] line = getUninterruptibly(processedLineFuture);
-      out.write(line);
-      out.write('\n');
-      out.flush();
+  private static class AdaptiveLuhnMasker implements RawLuhnMasker {
+
+    private final int maxThreads;
+    /** May be null. */
+    private final MaskListener listener;
+    private final RangeMasker rangeMasker;
+    private final boolean changedLinesOnly;
+
+    AdaptiveLuhnMasker(int maxThreads, MaskListener listener, RangeMasker rangeMasker,
+        boolean changedLinesOnly) {
+      this.maxThreads = maxThreads;
+      this.listener = listener;
+      this.rangeMasker = rangeMasker;
+      this.changedLinesOnly = changedLinesOnly;
     }
 
-    private void readLines(InputSupplier<? extends Reader> inSupplier) throws IOException {
-      CharStreams.readLines(inSupplier, new LineProcessor<Void>() {
-        public boolean processLine(String line) throws IOException {
-          putUninterruptibly(processFutures,
-              processingExecutor.submit(new LuhnLineMasker(line)));
-          return true;
-        }
+    @Override public void run(InputSupplier<? extends Reader> inSupplier, Writer out) {
+      AdaptiveExecutor workers = new AdaptiveExecutor(maxThreads);
+      ExecutorService io = newIoExecutor();
+      try {
+        await(new MaskingPipeline(workers, io, rangeMasker, changedLinesOnly)
+            .start(inSupplier, out));
+      } finally {
+        workers.shutdown();
+        io.shutdown();
+      }
+    }
 
-        public Void getResult() {
-          return null;
-        }
-      });
+    @Override public void run(InputSupplier<? extends InputStream> inSupplier,
+        OutputStream out) {
+      AdaptiveExecutor workers = new AdaptiveExecutor(maxThreads);
+      ExecutorService io = newIoExecutor();
+      try {
+        await(new MaskingPipeline(workers, io, rangeMasker, changedLinesOnly)
+            .start(inSupplier, out, listener));
+      } finally {
+        workers.shutdown();
+        io.shutdown();
+      }
+    }
+
+    private static ExecutorService newIoExecutor() {
+      return Executors.newFixedThreadPool(2,
+          new ThreadFactoryBuilder().setNameFormat("luhn-io-%d").build());
+    }
+
+    private static void await(ListenableFuture<Void> run) {
+      try {
+        getUninterruptibly(run);
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
     }
   }
 }
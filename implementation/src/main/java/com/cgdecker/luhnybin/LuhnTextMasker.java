@@ -0,0 +1,100 @@
+package com.cgdecker.luhnybin;
+
+/**
+ * Masks possible credit card numbers in text in process, for example in log messages before they
+ * leave the application. The text is copied into a per-thread buffer and masked there, so nothing
+ * at all is allocated when there is nothing to mask, and the text passed in is returned as is.
+ * Masking follows the same rules as {@link LuhnLineMasker}.
+ */
+public final class LuhnTextMasker {
+
+  private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+    @Override protected Scratch initialValue() {
+      return new Scratch();
+    }
+  };
+
+  private LuhnTextMasker() {}
+
+  /**
+   * Returns the given text with any possible credit card numbers masked, or the given string itself
+   * if there are none.
+   */
+  public static String mask(String text) {
+    Scratch scratch = LuhnTextMasker.scratch.get();
+    char[] chars = scratch.chars(text.length());
+    text.getChars(0, text.length(), chars, 0);
+    return scratch.mask(chars, text.length()) ? new String(chars, 0, text.length()) : text;
+  }
+
+  /**
+   * Returns the given text with any possible credit card numbers masked, or the given sequence
+   * itself if there are none. The masked result, if any, is a {@link String}.
+   */
+  public static CharSequence mask(CharSequence text) {
+    if (text instanceof String)
+      return mask((String) text);
+
+    Scratch scratch = LuhnTextMasker.scratch.get();
+    char[] chars = scratch.copy(text);
+    return scratch.mask(chars, text.length()) ? new String(chars, 0, text.length()) : text;
+  }
+
+  /**
+   * Masks any possible credit card numbers in the given builder in place, returning whether
+   * anything was masked. Never allocates once the calling thread's buffer is big enough.
+   */
+  public static boolean maskInPlace(StringBuilder text) {
+    Scratch scratch = LuhnTextMasker.scratch.get();
+    char[] chars = scratch.copy(text);
+    if (!scratch.mask(chars, text.length()))
+      return false;
+
+    MaskSpans spans = scratch.spans;
+    for (int i = 0; i < spans.size(); i++) {
+      for (int j = spans.start(i); j < spans.end(i); j++) {
+        text.setCharAt(j, chars[j]);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Per-thread buffers reused across calls.
+   */
+  private static final class Scratch {
+    private final LuhnDigitBuffer digits = new LuhnDigitBuffer(16);
+    private final MaskSpans spans = new MaskSpans();
+    private char[] chars = new char[256];
+
+    char[] chars(int length) {
+      if (chars.length < length) {
+        chars = new char[Math.max(length, chars.length * 2)];
+      }
+      return chars;
+    }
+
+    char[] copy(CharSequence text) {
+      int length = text.length();
+      char[] chars = chars(length);
+      if (text instanceof StringBuilder) {
+        ((StringBuilder) text).getChars(0, length, chars, 0);
+      } else {
+        for (int i = 0; i < length; i++) {
+          chars[i] = text.charAt(i);
+        }
+      }
+      return chars;
+    }
+
+    /**
+     * Masks the first {@code length} chars of the given buffer in place, returning whether
+     * anything was masked.
+     */
+    boolean mask(char[] chars, int length) {
+      spans.clear();
+      LuhnLineMasker.mask(chars, 0, length, digits, spans);
+      return spans.size() > 0;
+    }
+  }
+}
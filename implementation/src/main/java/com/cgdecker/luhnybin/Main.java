@@ -1,48 +1,334 @@
 package com.cgdecker.luhnybin;
 
 import com.google.common.base.CharMatcher;
-import com.google.common.base.Charsets;
-import com.google.common.io.CharStreams;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.io.InputSupplier;
 
-import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
 
 /**
  * @author cgdecker@gmail.com (Colin Decker)
  */
 public class Main {
 
-  public static void main(String[] args) {
-    LuhnMasker masker;
-
-    boolean multithreaded = args.length > 0 && "-m".equals(args[0]);
-    if (multithreaded) {
-      int threads;
-      if (args.length > 1 && CharMatcher.DIGIT.matchesAllOf(args[1]))
-        threads = Integer.parseInt(args[1]);
-      else
-        threads = Math.max(Runtime.getRuntime().availableProcessors() / 2, 1);
-      masker = LuhnMaskers.newMultithreadedMasker(threads);
+  private static final int ALERT_QUEUE_CAPACITY = 1024;
+  private static final int MAX_ALERTS_PER_SECOND = 1;
+  private static final int HEX_HASH_LENGTH = 16;
+  private static final long CHECKPOINT_INTERVAL = 256L * 1024 * 1024;
+
+  public static void main(String[] args) throws IOException {
+    LuhnMaskers.Builder builder = LuhnMaskers.builder();
+    List<MaskListener> listeners = Lists.newArrayList();
+    List<String> jsonScan = null;
+    List<String> jsonSkip = null;
+    boolean multithreaded = false;
+    boolean adaptive = false;
+    List<String> workerArgs = Lists.newArrayList();
+    int shards = 0;
+    File shardInput = null;
+    LineCache lineCache = null;
+    SafeTokens.Builder safeTokens = null;
+    boolean changedOnly = false;
+    boolean sparse = false;
+    boolean overlapped = false;
+    File[] checkpointed = null;
+    long checkpointInterval = CHECKPOINT_INTERVAL;
+    RecordFraming framing = null;
+
+    for (int i = 0; i < args.length; i++) {
+      if ("-m".equals(args[i])) {
+        workerArgs.add(args[i]);
+        if (i + 1 < args.length && CharMatcher.DIGIT.matchesAllOf(args[i + 1])) {
+          workerArgs.add(args[i + 1]);
+          builder.multithreaded(Integer.parseInt(args[++i]));
+          multithreaded = true;
+          adaptive = false;
+        } else {
+          // with no thread count, adapt to the input as it comes
+          builder.adaptive(Runtime.getRuntime().availableProcessors());
+          adaptive = true;
+          multithreaded = false;
+        }
+      } else if ("--index".equals(args[i]) && i + 1 < args.length) {
+        listeners.add(MaskIndex.newWriter(new FileOutputStream(args[++i])));
+      } else if ("--json-scan".equals(args[i]) && i + 1 < args.length) {
+        workerArgs.add(args[i]);
+        workerArgs.add(args[i + 1]);
+        jsonScan = patterns(args[++i]);
+      } else if ("--json-skip".equals(args[i]) && i + 1 < args.length) {
+        workerArgs.add(args[i]);
+        workerArgs.add(args[i + 1]);
+        jsonSkip = patterns(args[++i]);
+      } else if ("--detect".equals(args[i]) && i + 1 < args.length) {
+        workerArgs.add(args[i]);
+        workerArgs.add(args[i + 1]);
+        builder.detectors(detectors(args[++i]));
+      } else if ("--safe-keys".equals(args[i]) && i + 1 < args.length) {
+        workerArgs.add(args[i]);
+        workerArgs.add(args[i + 1]);
+        safeTokens = safeTokens == null ? SafeTokens.builder() : safeTokens;
+        for (String key : patterns(args[++i])) {
+          safeTokens.key(key);
+        }
+      } else if ("--safe-shapes".equals(args[i]) && i + 1 < args.length) {
+        workerArgs.add(args[i]);
+        workerArgs.add(args[i + 1]);
+        safeTokens = safeTokens == null ? SafeTokens.builder() : safeTokens;
+        addShapes(safeTokens, patterns(args[++i]));
+      } else if ("--sparse".equals(args[i])) {
+        sparse = true;
+      } else if ("--overlapped".equals(args[i])) {
+        overlapped = true;
+      } else if ("--changed-only".equals(args[i])) {
+        builder.changedLinesOnly();
+        changedOnly = true;
+      } else if ("--line-cache".equals(args[i]) && i + 1 < args.length
+          && CharMatcher.DIGIT.matchesAllOf(args[i + 1])) {
+        workerArgs.add(args[i]);
+        workerArgs.add(args[i + 1]);
+        lineCache = LineCache.create(Integer.parseInt(args[++i]));
+        builder.lineCache(lineCache);
+      } else if ("--checkpointed".equals(args[i]) && i + 3 < args.length) {
+        checkpointed = new File[] {
+            new File(args[++i]), new File(args[++i]), new File(args[++i])};
+      } else if ("--checkpoint-interval".equals(args[i]) && i + 1 < args.length
+          && CharMatcher.DIGIT.matchesAllOf(args[i + 1])) {
+        checkpointInterval = Long.parseLong(args[++i]);
+      } else if ("--framed".equals(args[i]) && i + 1 < args.length) {
+        framing = framing(args[++i]);
+      } else if ("--jfr".equals(args[i]) && i + 1 < args.length
+          && CharMatcher.DIGIT.matchesAllOf(args[i + 1])) {
+        installJfrTracer(Long.parseLong(args[++i]));
+      } else if ("--shards".equals(args[i]) && i + 2 < args.length
+          && CharMatcher.DIGIT.matchesAllOf(args[i + 1])) {
+        shards = Integer.parseInt(args[++i]);
+        shardInput = new File(args[++i]);
+      } else {
+        usage();
+      }
+    }
+
+    if (shardInput != null) {
+      // positions reported by workers would be relative to their ranges, so there's no index
+      // and no changed-lines output; ranges are split at line feeds, which framed input can't be;
+      // and workers write no checkpoints
+      if (shards == 0 || !listeners.isEmpty() || changedOnly || framing != null
+          || checkpointed != null || overlapped || sparse)
+        usage();
+      try {
+        ShardCoordinator.create(shards, workerArgs).run(shardInput, standardOut());
+      } catch (IOException e) {
+        e.printStackTrace();
+        System.exit(1);
+      }
+      return;
+    }
+
+    SafeTokens safe = null;
+    if (safeTokens != null) {
+      safe = safeTokens.build();
+      builder.safeTokens(safe);
+    }
+
+    if (jsonScan != null || jsonSkip != null) {
+      List<String> skip = jsonSkip == null ? ImmutableList.<String>of() : jsonSkip;
+      builder.jsonFields(jsonScan == null
+          ? JsonFields.allExcept(skip)
+          : JsonFields.only(jsonScan, skip));
+    }
+
+    MaskListener alertListener = alertListener("stdin");
+    if (alertListener != null) {
+      listeners.add(alertListener);
+    }
+    MaskListener listener = listeners.isEmpty() ? null : MaskListeners.combine(listeners);
+
+    if (framing != null) {
+      // length-prefixed records in, the same records with their payloads masked out
+      if (sparse || overlapped || checkpointed != null || changedOnly)
+        usage();
+      if (listener != null) {
+        builder.listener(listener);
+      }
+      builder.buildFramedMasker(framing).mask(new FileInputStream(FileDescriptor.in),
+          standardOut());
+    } else if (checkpointed != null) {
+      // masks input to output, resuming from the last checkpoint in the journal if there is one
+      if (multithreaded || adaptive || sparse || overlapped || changedOnly)
+        usage();
+      if (listener != null) {
+        builder.listener(listener);
+      }
+      builder.buildCheckpointedFileMasker(checkpointInterval)
+          .mask(checkpointed[0], checkpointed[1], checkpointed[2]);
+    } else if (overlapped) {
+      // reads and writes on their own threads, masks on this one
+      if (multithreaded || adaptive || sparse)
+        usage();
+      if (listener != null) {
+        builder.listener(listener);
+      }
+      builder.buildOverlappedFileMasker().mask(new FileInputStream(FileDescriptor.in),
+          standardOut());
+    } else if (sparse) {
+      // needs standard in and out to be files (or, for output, a pipe); masks on this thread
+      if (multithreaded || adaptive || changedOnly)
+        usage();
+      if (listener != null) {
+        builder.listener(listener);
+      }
+      builder.buildFileMasker().mask(new FileInputStream(FileDescriptor.in).getChannel(),
+          new FileOutputStream(FileDescriptor.out).getChannel());
+    } else if (multithreaded) {
+      runService(builder.buildService(), listener);
     } else {
-      masker = LuhnMaskers.newBasicMasker();
+      if (listener != null) {
+        builder.listener(listener);
+      }
+      builder.build().run(standardInSupplier(), standardOut());
+    }
+
+    if (lineCache != null) {
+      System.err.println(lineCache);
     }
-    masker.run(standardInReaderSupplier(), standardOutWriter());
+    if (safe != null) {
+      System.err.println(safe);
+    }
+  }
+
+  private static void runService(MaskingService service, MaskListener listener) {
+    service.startAndWait();
+    try {
+      getUninterruptibly(service.submit(standardInSupplier(), standardOut(), listener));
+    } catch (ExecutionException e) {
+      e.getCause().printStackTrace();
+      System.exit(1);
+    } finally {
+      service.stopAndWait();
+    }
+  }
+
+  private static void usage() {
+    System.err.println("Usage: mask.sh [-m [threads]] [--index file]"
+        + " [--json-scan key,...] [--json-skip key,...] [--detect luhn|iban,...]"
+        + " [--safe-keys key,...] [--safe-shapes uuid|hex|datetime,...] [--line-cache lines]"
+        + " [--changed-only] [--sparse | --overlapped] [--shards workers file]"
+        + " [--checkpointed input output journal [--checkpoint-interval bytes]]"
+        + " [--framed fixed32|varint] [--jfr slow-line-micros]");
+    System.exit(1);
+  }
+
+  /**
+   * Traces to Flight Recorder, reporting lines that take at least the given number of
+   * microseconds to mask. Events are only recorded while a recording is running, such as one
+   * started with {@code -XX:StartFlightRecording}.
+   */
+  private static void installJfrTracer(long slowLineMicros) {
+    JfrMaskTracer tracer = JfrMaskTracer.create();
+    if (tracer == null) {
+      System.err.println("Flight Recorder isn't available on this JVM");
+      System.exit(1);
+    }
+    MaskTracing.install(tracer, slowLineMicros, TimeUnit.MICROSECONDS);
+  }
+
+  private static List<String> patterns(String arg) {
+    return Lists.newArrayList(Splitter.on(',').omitEmptyStrings().trimResults().split(arg));
+  }
+
+  private static void addShapes(SafeTokens.Builder safeTokens, List<String> shapes) {
+    for (String shape : shapes) {
+      if ("uuid".equals(shape)) {
+        safeTokens.uuids();
+      } else if ("hex".equals(shape)) {
+        safeTokens.hexHashes(HEX_HASH_LENGTH);
+      } else if ("datetime".equals(shape)) {
+        safeTokens.isoDateTimes();
+      } else {
+        usage();
+      }
+    }
+  }
+
+  private static RecordFraming framing(String arg) {
+    if ("fixed32".equals(arg))
+      return RecordFraming.FIXED_32;
+    if ("varint".equals(arg))
+      return RecordFraming.VARINT;
+    usage();
+    return null;
+  }
+
+  private static List<NumberDetector> detectors(String arg) {
+    List<NumberDetector> detectors = Lists.newArrayList();
+    for (String name : patterns(arg)) {
+      if ("luhn".equals(name)) {
+        detectors.add(NumberDetectors.luhn());
+      } else if ("iban".equals(name)) {
+        detectors.add(NumberDetectors.iban());
+      } else {
+        usage();
+      }
+    }
+    if (detectors.isEmpty())
+      usage();
+    return detectors;
+  }
+
+  /**
+   * Returns a listener that dispatches alerts to the {@link MaskAlertHandler}s available through
+   * {@link ServiceLoader}, or null if there are none.
+   */
+  private static MaskListener alertListener(String stream) {
+    final List<MaskAlertHandler> handlers =
+        Lists.newArrayList(ServiceLoader.load(MaskAlertHandler.class));
+    if (handlers.isEmpty())
+      return null;
+
+    final AlertDispatcher dispatcher = AlertDispatcher.start(new MaskAlertHandler() {
+      @Override public void alert(MaskAlert alert) {
+        for (MaskAlertHandler handler : handlers) {
+          handler.alert(alert);
+        }
+      }
+    }, ALERT_QUEUE_CAPACITY, MAX_ALERTS_PER_SECOND);
+
+    return MaskListeners.combine(dispatcher.listenerFor(stream), new MaskListener() {
+      @Override public void masked(long offset, long line, int column, int length) {
+      }
+
+      @Override public void finished() {
+        dispatcher.close();
+      }
+    });
   }
 
-  private static BufferedWriter standardOutWriter() {
-    return new BufferedWriter(new OutputStreamWriter(System.out, Charsets.US_ASCII));
+  /**
+   * Standard out as a raw stream. Output is written in whole chunks, so it needs no buffering.
+   */
+  private static OutputStream standardOut() {
+    return new FileOutputStream(FileDescriptor.out);
   }
 
-  private static InputSupplier<InputStreamReader> standardInReaderSupplier() {
-    return CharStreams.newReaderSupplier(
-        new InputSupplier<InputStream>() {
-          public InputStream getInput() throws IOException {
-            return System.in;
-          }
-        }, Charsets.US_ASCII);
+  private static InputSupplier<InputStream> standardInSupplier() {
+    return new InputSupplier<InputStream>() {
+      public InputStream getInput() throws IOException {
+        return new FileInputStream(FileDescriptor.in);
+      }
+    };
   }
 }
@@ -0,0 +1,71 @@
+package com.cgdecker.luhnybin;
+
+/**
+ * An alert that one or more spans were masked in a stream. Detections in the same stream that
+ * happen close together are coalesced into a single alert. An alert never contains any of the
+ * masked input.
+ */
+public final class MaskAlert {
+
+  private final String stream;
+  private final long firstLine;
+  private final long lastLine;
+  private final long offset;
+  private final int length;
+  private final int detections;
+  private final long dropped;
+
+  MaskAlert(String stream, long firstLine, long lastLine, long offset, int length, int detections,
+      long dropped) {
+    this.stream = stream;
+    this.firstLine = firstLine;
+    this.lastLine = lastLine;
+    this.offset = offset;
+    this.length = length;
+    this.detections = detections;
+    this.dropped = dropped;
+  }
+
+  /** The name of the stream the spans were masked in. */
+  public String stream() {
+    return stream;
+  }
+
+  /** The line number of the first masked span. */
+  public long firstLine() {
+    return firstLine;
+  }
+
+  /** The line number of the last masked span. */
+  public long lastLine() {
+    return lastLine;
+  }
+
+  /** The byte offset of the first masked span in the stream. */
+  public long offset() {
+    return offset;
+  }
+
+  /** The length in bytes of the first masked span. */
+  public int length() {
+    return length;
+  }
+
+  /** The number of masked spans this alert covers. */
+  public int detections() {
+    return detections;
+  }
+
+  /**
+   * The number of detections (in any stream) that were dropped because the alert queue was full
+   * since the previous alert was dispatched.
+   */
+  public long dropped() {
+    return dropped;
+  }
+
+  @Override public String toString() {
+    return detections + " masked span(s) in " + stream + " at lines " + firstLine + "-" + lastLine
+        + (dropped > 0 ? " (" + dropped + " dropped)" : "");
+  }
+}
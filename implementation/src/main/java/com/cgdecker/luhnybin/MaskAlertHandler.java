@@ -0,0 +1,18 @@
+package com.cgdecker.luhnybin;
+
+/**
+ * Service interface for being alerted when possible credit card numbers are masked, for example to
+ * page an engineer. Handlers are called from the dispatcher thread of an {@link AlertDispatcher},
+ * never from the threads doing the masking, so a slow handler only delays other alerts.
+ *
+ * <p>{@link Main} loads implementations listed in
+ * {@code META-INF/services/com.cgdecker.luhnybin.MaskAlertHandler} using
+ * {@link java.util.ServiceLoader}; such implementations need a public no-argument constructor.
+ */
+public interface MaskAlertHandler {
+
+  /**
+   * Handles the given alert.
+   */
+  void alert(MaskAlert alert);
+}
@@ -0,0 +1,244 @@
+package com.cgdecker.luhnybin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static com.google.common.util.concurrent.Uninterruptibles.putUninterruptibly;
+import static com.google.common.util.concurrent.Uninterruptibles.takeUninterruptibly;
+
+/**
+ * A compact binary index of the spans masked in an input, written alongside the masked output so
+ * that tools can seek straight to each masked number without rescanning the output.
+ *
+ * <p>The format is the 4 bytes {@code "LBIX"} and a version byte, followed by one record per
+ * masked span. Each record is four unsigned varints (7 bits per byte, least significant group
+ * first): the byte offset of the span minus the offset of the previous span, the line number minus
+ * the line number of the previous span, the column and the length. The first record's deltas are
+ * relative to offset 0 and line 0.
+ */
+public final class MaskIndex {
+
+  private static final byte[] MAGIC = {'L', 'B', 'I', 'X'};
+  private static final int VERSION = 1;
+
+  private MaskIndex() {}
+
+  /**
+   * Returns a listener that writes an index of the spans it is given to the given stream. Records
+   * are encoded on the calling thread but written on a separate thread, so writing never holds up
+   * masking. The stream is closed once the listener is {@linkplain MaskListener#finished()
+   * finished}.
+   */
+  public static MaskListener newWriter(OutputStream out) {
+    IndexWriter writer = new IndexWriter(out);
+    writer.start();
+    return writer;
+  }
+
+  /**
+   * A masked span read from an index.
+   */
+  public static final class Entry {
+
+    private final long offset;
+    private final long line;
+    private final int column;
+    private final int length;
+
+    Entry(long offset, long line, int column, int length) {
+      this.offset = offset;
+      this.line = line;
+      this.column = column;
+      this.length = length;
+    }
+
+    /** The 0-based byte offset of the span in the input. */
+    public long offset() {
+      return offset;
+    }
+
+    /** The 1-based line number of the span. */
+    public long line() {
+      return line;
+    }
+
+    /** The 1-based byte column of the span in its line. */
+    public int column() {
+      return column;
+    }
+
+    /** The length of the span in bytes. */
+    public int length() {
+      return length;
+    }
+
+    @Override public boolean equals(Object obj) {
+      if (obj instanceof Entry) {
+        Entry other = (Entry) obj;
+        return offset == other.offset && line == other.line && column == other.column
+            && length == other.length;
+      }
+      return false;
+    }
+
+    @Override public int hashCode() {
+      return Arrays.hashCode(new long[] {offset, line, column, length});
+    }
+
+    @Override public String toString() {
+      return "offset " + offset + " (line " + line + ", column " + column + "), length " + length;
+    }
+  }
+
+  /**
+   * Reads the entries of an index in order.
+   */
+  public static final class Reader implements Closeable {
+
+    private final InputStream in;
+
+    private long offset;
+    private long line;
+
+    /**
+     * Creates a reader for the given stream, reading and checking the index header.
+     */
+    public Reader(InputStream in) throws IOException {
+      this.in = new BufferedInputStream(in);
+      byte[] header = new byte[MAGIC.length + 1];
+      for (int i = 0; i < header.length; i++) {
+        int b = this.in.read();
+        if (b == -1)
+          throw new EOFException("Truncated mask index header");
+        header[i] = (byte) b;
+      }
+      if (!Arrays.equals(MAGIC, Arrays.copyOf(header, MAGIC.length)))
+        throw new IOException("Not a mask index");
+      if (header[MAGIC.length] != VERSION)
+        throw new IOException("Unsupported mask index version: " + header[MAGIC.length]);
+    }
+
+    /**
+     * Returns the next entry, or null if there are no more.
+     */
+    public Entry next() throws IOException {
+      int first = in.read();
+      if (first == -1)
+        return null;
+
+      offset += readVarint(first);
+      line += readVarint(in.read());
+      int column = (int) readVarint(in.read());
+      int length = (int) readVarint(in.read());
+      return new Entry(offset, line, column, length);
+    }
+
+    private long readVarint(int b) throws IOException {
+      long result = 0;
+      int shift = 0;
+      while (true) {
+        if (b == -1)
+          throw new EOFException("Truncated mask index record");
+        result |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0)
+          return result;
+        shift += 7;
+        b = in.read();
+      }
+    }
+
+    @Override public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  private static final class IndexWriter implements MaskListener {
+
+    private static final byte[] POISON = new byte[0];
+
+    private final OutputStream out;
+    private final BlockingQueue<byte[]> records = new LinkedBlockingQueue<byte[]>();
+    private final Thread thread;
+
+    private long lastOffset;
+    private long lastLine;
+
+    /** Set if the writing thread fails, after which records are no longer queued. */
+    private volatile boolean failed;
+
+    IndexWriter(OutputStream out) {
+      this.out = new BufferedOutputStream(out);
+      this.thread = new Thread(new Runnable() {
+        @Override public void run() {
+          writeRecords();
+        }
+      }, "mask-index-writer");
+    }
+
+    void start() {
+      putUninterruptibly(records, header());
+      thread.start();
+    }
+
+    private static byte[] header() {
+      byte[] header = Arrays.copyOf(MAGIC, MAGIC.length + 1);
+      header[MAGIC.length] = VERSION;
+      return header;
+    }
+
+    @Override public void masked(long offset, long line, int column, int length) {
+      if (failed)
+        return;
+
+      byte[] buffer = new byte[40];
+      int pos = writeVarint(buffer, 0, offset - lastOffset);
+      pos = writeVarint(buffer, pos, line - lastLine);
+      pos = writeVarint(buffer, pos, column);
+      pos = writeVarint(buffer, pos, length);
+      lastOffset = offset;
+      lastLine = line;
+      putUninterruptibly(records, Arrays.copyOf(buffer, pos));
+    }
+
+    private static int writeVarint(byte[] buffer, int pos, long value) {
+      while ((value & ~0x7FL) != 0) {
+        buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[pos++] = (byte) value;
+      return pos;
+    }
+
+    @Override public void finished() {
+      putUninterruptibly(records, POISON);
+    }
+
+    private void writeRecords() {
+      try {
+        try {
+          byte[] record;
+          while ((record = takeUninterruptibly(records)) != POISON) {
+            out.write(record);
+            if (records.isEmpty()) {
+              out.flush();
+            }
+          }
+        } finally {
+          out.close();
+        }
+      } catch (IOException e) {
+        failed = true;
+        records.clear();
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package com.cgdecker.luhnybin;
+
+/**
+ * Receives the location of each span of input that a {@link LuhnMasker} masks. Spans are reported
+ * in input order from a single thread, though not necessarily the thread the masking happened on,
+ * so implementations should return quickly and hand off any slow work. No input content is
+ * reported.
+ *
+ * <p>Spans are only reported when masking raw bytes.
+ */
+public interface MaskListener {
+
+  /**
+   * Called for each masked span of input. Overlapping and adjacent masked numbers are reported as
+   * a single span.
+   *
+   * @param offset the 0-based byte offset of the first masked digit in the input
+   * @param line the 1-based number of the line the span is on
+   * @param column the 1-based byte column of the first masked digit in its line
+   * @param length the length in bytes of the span, including any separators between its digits
+   */
+  void masked(long offset, long line, int column, int length);
+
+  /**
+   * Called once when the masker is done with the input, after all spans have been reported.
+   */
+  void finished();
+}
@@ -0,0 +1,41 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Static utility methods for {@link MaskListener}s.
+ */
+public final class MaskListeners {
+
+  private MaskListeners() {}
+
+  /**
+   * Returns a listener that passes each call on to each of the given listeners, in order.
+   */
+  public static MaskListener combine(Iterable<? extends MaskListener> listeners) {
+    final ImmutableList<MaskListener> copy = ImmutableList.copyOf(listeners);
+    if (copy.size() == 1)
+      return copy.get(0);
+
+    return new MaskListener() {
+      @Override public void masked(long offset, long line, int column, int length) {
+        for (MaskListener listener : copy) {
+          listener.masked(offset, line, column, length);
+        }
+      }
+
+      @Override public void finished() {
+        for (MaskListener listener : copy) {
+          listener.finished();
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns a listener that passes each call on to each of the given listeners, in order.
+   */
+  public static MaskListener combine(MaskListener... listeners) {
+    return combine(ImmutableList.copyOf(listeners));
+  }
+}
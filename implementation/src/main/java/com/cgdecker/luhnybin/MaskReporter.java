@@ -0,0 +1,42 @@
+package com.cgdecker.luhnybin;
+
+/**
+ * Reports the spans masked in each {@link LineChunk} of an input to a {@link MaskListener},
+ * translating chunk-relative positions into positions in the whole input. Chunks must be passed in
+ * input order.
+ */
+final class MaskReporter {
+
+  private final MaskListener listener;
+
+  private long offset;
+  private long line;
+
+  MaskReporter(MaskListener listener) {
+    this(listener, 0, 1);
+  }
+
+  /**
+   * Creates a reporter for chunks starting at the given byte offset and 1-based line of the input.
+   */
+  MaskReporter(MaskListener listener, long offset, long line) {
+    this.listener = listener;
+    this.offset = offset;
+    this.line = line;
+  }
+
+  void report(LineChunk chunk) {
+    MaskSpans spans = chunk.spans;
+    for (int i = 0; i < spans.size(); i++) {
+      int start = spans.start(i);
+      listener.masked(offset + start, line + spans.line(i), start - spans.lineStart(i) + 1,
+          spans.end(i) - start);
+    }
+    offset += chunk.length;
+    line += chunk.lineFeeds;
+  }
+
+  void finished() {
+    listener.finished();
+  }
+}
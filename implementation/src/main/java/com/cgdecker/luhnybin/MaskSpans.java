@@ -0,0 +1,123 @@
+package com.cgdecker.luhnybin;
+
+/**
+ * The spans of a buffer that were masked, in order. Overlapping or adjacent spans are merged, so
+ * each span is a maximal run of masked text from its first masked digit to its last.
+ */
+final class MaskSpans {
+
+  private int[] starts = new int[8];
+  private int[] ends = new int[8];
+  private int[] lines = new int[8];
+  private int[] lineStarts = new int[8];
+  private int size;
+
+  /**
+   * Returns the number of spans.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the index of the first masked character of the span at the given index.
+   */
+  int start(int span) {
+    return starts[span];
+  }
+
+  /**
+   * Returns the index just past the last masked character of the span at the given index.
+   */
+  int end(int span) {
+    return ends[span];
+  }
+
+  /**
+   * Returns the 0-based line, relative to the start of the buffer, that the span at the given
+   * index starts on. Only valid after {@link #locate}.
+   */
+  int line(int span) {
+    return lines[span];
+  }
+
+  /**
+   * Returns the index of the start of the line the span at the given index starts on. Only valid
+   * after {@link #locate}.
+   */
+  int lineStart(int span) {
+    return lineStarts[span];
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  /**
+   * Adds the span from {@code start} (inclusive) to {@code end} (exclusive). Spans must be added
+   * in order of their end index; a span that overlaps or touches spans already added is merged
+   * with them.
+   */
+  void add(int start, int end) {
+    while (size > 0 && start <= ends[size - 1]) {
+      size--;
+      start = Math.min(start, starts[size]);
+      end = Math.max(end, ends[size]);
+    }
+
+    if (size == starts.length) {
+      starts = grow(starts);
+      ends = grow(ends);
+      lines = grow(lines);
+      lineStarts = grow(lineStarts);
+    }
+    starts[size] = start;
+    ends[size] = end;
+    size++;
+  }
+
+  /**
+   * Finds the line each span starts on in the given buffer, which the spans were recorded against,
+   * and returns the total number of line feeds in it.
+   */
+  int locate(byte[] buffer, int length) {
+    int lineFeeds = 0;
+    int lineStart = 0;
+    int span = 0;
+    for (int i = 0; i < length; i++) {
+      while (span < size && starts[span] == i) {
+        lines[span] = lineFeeds;
+        lineStarts[span] = lineStart;
+        span++;
+      }
+      if (buffer[i] == '\n') {
+        lineFeeds++;
+        lineStart = i + 1;
+      }
+    }
+    return lineFeeds;
+  }
+
+  /**
+   * Like {@link #locate}, for spans recorded against the payloads of records rather than lines:
+   * finds the record each span is in, given the start and end of each payload in pairs, and
+   * returns the number of records. Each record counts as a line that starts at its payload.
+   */
+  int locateRecords(int[] payloads, int records) {
+    int record = 0;
+    for (int span = 0; span < size; span++) {
+      while (payloads[2 * record + 1] <= starts[span]) {
+        record++;
+      }
+      lines[span] = record;
+      lineStarts[span] = payloads[2 * record];
+    }
+    return records;
+  }
+
+  private static int[] grow(int[] array) {
+    int[] result = new int[array.length * 2];
+    System.arraycopy(array, 0, result, 0, array.length);
+    return result;
+  }
+}
@@ -0,0 +1,36 @@
+package com.cgdecker.luhnybin;
+
+/**
+ * Receives diagnostic events about slow masking, for finding the lines and pipeline stages behind
+ * latency spikes. Install one with {@link MaskTracing#install}. Events never include any content
+ * from the input.
+ *
+ * <p>Methods are called from whichever thread the event happened on, possibly many at once, and
+ * should return quickly. {@link JfrMaskTracer} commits a Flight Recorder event for each call.
+ */
+public interface MaskTracer {
+
+  /**
+   * Called when masking a single line took at least the installed threshold. Lines of raw input
+   * that can't contain anything to mask are skipped rather than masked, so they're never reported.
+   *
+   * @param nanos the time masking the line took
+   * @param length the length of the line in chars or bytes, not including the line feed
+   * @param digitRuns the number of runs of 14 or more digits (with spaces and hyphens) in the
+   *     line, each of which had to be checked
+   * @param matches the number of spans that were masked
+   */
+  void slowLine(long nanos, int length, int digitRuns, int matches);
+
+  /**
+   * Called when a multithreaded masker's reading thread was blocked because too many lines were
+   * already waiting to be masked or written.
+   */
+  void readerBlocked(long nanos);
+
+  /**
+   * Called when a multithreaded masker's writing thread was blocked waiting for the next line to
+   * be masked.
+   */
+  void writerBlocked(long nanos);
+}
@@ -0,0 +1,133 @@
+package com.cgdecker.luhnybin;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Installs the {@link MaskTracer} that maskers report slow lines and blocked pipeline stages to.
+ * With no tracer installed, which is the default, the cost is a single volatile read per line or
+ * chunk; maskers only time lines while a tracer is installed.
+ */
+public final class MaskTracing {
+
+  private static volatile MaskTracer tracer;
+  private static volatile long slowLineNanos;
+
+  private MaskTracing() {}
+
+  /**
+   * Installs the given tracer, replacing any existing one. Lines that take at least the given time
+   * to mask are reported to it.
+   */
+  public static void install(MaskTracer tracer, long slowLineThreshold, TimeUnit unit) {
+    checkNotNull(tracer);
+    checkArgument(slowLineThreshold >= 0, "slowLineThreshold must not be negative");
+    slowLineNanos = unit.toNanos(slowLineThreshold);
+    MaskTracing.tracer = tracer;
+  }
+
+  /**
+   * Removes the installed tracer, if any.
+   */
+  public static void uninstall() {
+    tracer = null;
+  }
+
+  /**
+   * Returns the installed tracer, or null if there is none.
+   */
+  static MaskTracer tracer() {
+    return tracer;
+  }
+
+  /**
+   * Masks the given chars like {@link LuhnLineMasker#call()}, timing the line.
+   */
+  static void mask(MaskTracer tracer, char[] line) {
+    MaskSpans spans = new MaskSpans();
+    long start = System.nanoTime();
+    LuhnLineMasker.mask(line, 0, line.length, null, spans);
+    long nanos = System.nanoTime() - start;
+    if (nanos >= slowLineNanos) {
+      tracer.slowLine(nanos, line.length, digitRuns(line, 0, line.length), spans.size());
+    }
+  }
+
+  /**
+   * Masks the given range like {@link LuhnLineMasker#mask(byte[], int, int, MaskSpans)}, but one
+   * line at a time so that each line can be timed.
+   */
+  static void mask(MaskTracer tracer, byte[] buffer, int offset, int length, MaskSpans spans) {
+    if (spans == null) {
+      spans = new MaskSpans();
+    }
+    int end = offset + length;
+    int lineStart = offset;
+    while (lineStart < end) {
+      int lineEnd = lineStart;
+      while (lineEnd < end && buffer[lineEnd] != '\n') {
+        lineEnd++;
+      }
+
+      int spansBefore = spans.size();
+      long start = System.nanoTime();
+      LuhnLineMasker.mask(buffer, lineStart, lineEnd - lineStart, spans);
+      lineMasked(tracer, System.nanoTime() - start, buffer, lineStart, lineEnd,
+          spans.size() - spansBefore);
+      lineStart = lineEnd + 1;
+    }
+  }
+
+  /**
+   * Reports the given line, which has been masked, to the tracer if masking it took at least the
+   * installed threshold. For maskers that time lines themselves.
+   */
+  static void lineMasked(MaskTracer tracer, long nanos, byte[] buffer, int start, int end,
+      int matches) {
+    if (nanos >= slowLineNanos) {
+      tracer.slowLine(nanos, end - start, digitRuns(buffer, start, end), matches);
+    }
+  }
+
+  /**
+   * Counts the runs of 14 or more digits, spaces and hyphens in the given range of a line that has
+   * already been masked. Masking replaces digits with {@code 'X'}, so it counts as a digit here;
+   * this can only overcount for lines with a literal {@code 'X'} next to a run of digits.
+   */
+  private static int digitRuns(char[] line, int start, int end) {
+    int runs = 0;
+    int digits = 0;
+    for (int i = start; i < end; i++) {
+      char c = line[i];
+      if (('0' <= c && c <= '9') || c == 'X') {
+        digits++;
+      } else if (c != ' ' && c != '-') {
+        if (digits >= 14)
+          runs++;
+        digits = 0;
+      }
+    }
+    return digits >= 14 ? runs + 1 : runs;
+  }
+
+  /**
+   * Byte version of {@link #digitRuns(char[], int, int)}.
+   */
+  private static int digitRuns(byte[] line, int start, int end) {
+    int runs = 0;
+    int digits = 0;
+    for (int i = start; i < end; i++) {
+      byte b = line[i];
+      if (('0' <= b && b <= '9') || b == 'X') {
+        digits++;
+      } else if (b != ' ' && b != '-') {
+        if (digits >= 14)
+          runs++;
+        digits = 0;
+      }
+    }
+    return digits >= 14 ? runs + 1 : runs;
+  }
+}
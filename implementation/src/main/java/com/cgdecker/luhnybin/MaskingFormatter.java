@@ -0,0 +1,40 @@
+package com.cgdecker.luhnybin;
+
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link Formatter} that masks possible credit card numbers in the output of another formatter.
+ * Masking uses {@link LuhnTextMasker}, so records with nothing to mask cost a scan of the formatted
+ * text and no allocation.
+ */
+public final class MaskingFormatter extends Formatter {
+
+  /**
+   * Makes the given handler mask the output of its current formatter.
+   */
+  public static void maskOutputOf(Handler handler) {
+    handler.setFormatter(new MaskingFormatter(handler.getFormatter()));
+  }
+
+  private final Formatter delegate;
+
+  public MaskingFormatter(Formatter delegate) {
+    this.delegate = checkNotNull(delegate);
+  }
+
+  @Override public String format(LogRecord record) {
+    return LuhnTextMasker.mask(delegate.format(record));
+  }
+
+  @Override public String getHead(Handler handler) {
+    return LuhnTextMasker.mask(delegate.getHead(handler));
+  }
+
+  @Override public String getTail(Handler handler) {
+    return LuhnTextMasker.mask(delegate.getTail(handler));
+  }
+}
@@ -0,0 +1,351 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.io.CharStreams;
+import com.google.common.io.InputSupplier;
+import com.google.common.io.LineProcessor;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import static com.google.common.util.concurrent.Uninterruptibles.putUninterruptibly;
+import static com.google.common.util.concurrent.Uninterruptibles.takeUninterruptibly;
+
+/**
+ * Masks input by reading it on one thread, masking lines or chunks of it on a pool of worker
+ * threads and writing the results in order on another thread. The executors are supplied by the
+ * caller, so one pipeline can be shared by any number of runs, including concurrent ones.
+ *
+ * <p>The reading thread checks each line or chunk for anything that could need masking first, and
+ * passes those with nothing straight to the writing thread, so only the input that actually needs
+ * checking pays for the handoff to and from the workers. Within a chunk that goes to the workers,
+ * lines with nothing that could need masking are left as they are and only the rest are masked.
+ */
+final class MaskingPipeline {
+
+  /** The maximum number of lines or chunks a run may have in flight. */
+  private static final int QUEUE_SIZE = 200;
+
+  /**
+   * The number of chunks of raw input a run may have in flight; each starts out at
+   * {@link LuhnMaskers#CHUNK_SIZE} bytes and is reused for the rest of the run and by later runs.
+   */
+  private static final int CHUNK_POOL_SIZE = 32;
+
+  /** The number of idle chunks kept for reuse by later runs, for each kind of chunk. */
+  private static final int MAX_FREE_CHUNKS = 4 * CHUNK_POOL_SIZE;
+
+  private static final Future<Object> POISON = Futures.<Object>immediateFuture(null);
+
+  private final BlockingQueue<LineChunk> freeChunks =
+      new ArrayBlockingQueue<LineChunk>(MAX_FREE_CHUNKS);
+  private final BlockingQueue<LineChunk> freeTrackedChunks =
+      new ArrayBlockingQueue<LineChunk>(MAX_FREE_CHUNKS);
+
+  private final ExecutorService workers;
+  private final Executor io;
+  private final RangeMasker rangeMasker;
+  private final boolean changedLinesOnly;
+
+  /**
+   * @param workers the executor masking is done on
+   * @param io the executor each run's reading and writing loops are run on; it must be able to run
+   *     both loops of every concurrent run at the same time
+   * @param changedLinesOnly whether to write only the changed lines of raw input, as described
+   *     in {@link LuhnMaskers.Builder#changedLinesOnly}
+   */
+  MaskingPipeline(ExecutorService workers, Executor io, RangeMasker rangeMasker,
+      boolean changedLinesOnly) {
+    this.workers = workers;
+    this.io = io;
+    this.rangeMasker = rangeMasker;
+    this.changedLinesOnly = changedLinesOnly;
+  }
+
+  /**
+   * Starts masking lines read from the given supplier's reader to the given writer, returning a
+   * future that completes when all output has been written or fails with the first failure.
+   */
+  ListenableFuture<Void> start(final InputSupplier<? extends Reader> inSupplier,
+      final Writer out) {
+    return new Run<char[]>() {
+      @Override void readAll() throws IOException {
+        CharStreams.readLines(inSupplier, new LineProcessor<Void>() {
+          @Override public boolean processLine(String line) {
+            return LuhnLineMasker.hasPossibleNumber(line)
+                ? submit(new LuhnLineMasker(line))
+                : pass(line.toCharArray());
+          }
+
+          @Override public Void getResult() {
+            return null;
+          }
+        });
+      }
+
+      @Override void write(char[] line) throws IOException {
+        out.write(line);
+        out.write('\n');
+        out.flush();
+      }
+    }.start();
+  }
+
+  /**
+   * Starts masking raw bytes read from the given supplier's stream to the given stream, reporting
+   * masked spans to the given listener if it isn't null. Returns a future that completes when all
+   * output has been written or fails with the first failure.
+   */
+  ListenableFuture<Void> start(InputSupplier<? extends InputStream> inSupplier,
+      OutputStream out, MaskListener listener) {
+    return start(inSupplier, out, listener, null);
+  }
+
+  /**
+   * Like {@link #start(InputSupplier, OutputStream, MaskListener)}, but for a stream of records
+   * with the given framing rather than lines if {@code framing} isn't null. Each chunk of records
+   * is masked as one unit of work.
+   */
+  ListenableFuture<Void> start(final InputSupplier<? extends InputStream> inSupplier,
+      final OutputStream out, MaskListener listener, final RecordFraming framing) {
+    final MaskReporter reporter = listener == null ? null : new MaskReporter(listener);
+    final ChunkWriter writer = ChunkWriter.newWriter(out, changedLinesOnly);
+    boolean trackSpans = reporter != null || changedLinesOnly;
+    final LineChunkPool pool = new LineChunkPool(CHUNK_POOL_SIZE, LuhnMaskers.CHUNK_SIZE,
+        trackSpans, trackSpans ? freeTrackedChunks : freeChunks);
+    return new Run<LineChunk>() {
+      @Override void readAll() throws IOException {
+        InputStream in = inSupplier.getInput();
+        try {
+          ChunkReader reader = framing == null
+              ? new LineChunkReader(in)
+              : new FrameChunkReader(in, framing);
+          while (true) {
+            final LineChunk chunk = take(pool);
+            if (!reader.next(chunk)) {
+              pool.release(chunk);
+              break;
+            }
+            boolean accepted = !chunk.needsMasking(rangeMasker)
+                ? pass(chunk)
+                : submit(new Callable<LineChunk>() {
+                  @Override public LineChunk call() {
+                    chunk.mask(rangeMasker);
+                    return chunk;
+                  }
+                });
+            if (!accepted) {
+              pool.release(chunk);
+              break;
+            }
+          }
+        } finally {
+          in.close();
+        }
+      }
+
+      @Override void write(LineChunk chunk) throws IOException {
+        writer.write(chunk);
+        if (reporter != null) {
+          reporter.report(chunk);
+        }
+      }
+
+      @Override void recycle(LineChunk chunk) {
+        pool.release(chunk);
+      }
+
+      @Override void finished() {
+        if (reporter != null) {
+          reporter.finished();
+        }
+      }
+    }.start();
+  }
+
+  /**
+   * A single run through the pipeline. The reading loop submits each unit of work (or passes on its
+   * result directly if there's nothing to do) and queues its future; the writing loop takes the
+   * futures in order and writes their results. If anything fails, reading stops and remaining
+   * results are discarded. The run's future only completes once the writing loop is done with the
+   * output, failing with the first failure if there was one.
+   */
+  private abstract class Run<T> {
+
+    private final SettableFuture<Void> result = SettableFuture.create();
+    private final BlockingQueue<Future<T>> queue = new ArrayBlockingQueue<Future<T>>(QUEUE_SIZE);
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    /**
+     * Reads all input, passing each unit of work to {@link #submit}.
+     */
+    abstract void readAll() throws IOException;
+
+    /**
+     * Writes the result of a unit of work.
+     */
+    abstract void write(T result) throws IOException;
+
+    /**
+     * Called on the writing thread once the result of a unit of work is no longer needed, after
+     * it has been written or discarded. The result is null if the unit of work didn't complete
+     * normally.
+     */
+    void recycle(T result) {
+    }
+
+    /**
+     * Takes a chunk from the given pool, reporting the time spent waiting for one if it has to
+     * block.
+     */
+    LineChunk take(LineChunkPool pool) {
+      LineChunk chunk = pool.poll();
+      if (chunk == null) {
+        MaskTracer tracer = MaskTracing.tracer();
+        long start = tracer == null ? 0 : System.nanoTime();
+        chunk = pool.take();
+        if (tracer != null) {
+          tracer.readerBlocked(System.nanoTime() - start);
+        }
+      }
+      return chunk;
+    }
+
+    /**
+     * Called on the writing thread when the run is over, whether or not it succeeded.
+     */
+    void finished() {
+    }
+
+    /**
+     * Submits the given task to the workers, returning false (without submitting it) if the run
+     * has failed and reading should stop.
+     */
+    boolean submit(Callable<T> task) {
+      if (failed())
+        return false;
+      enqueue(workers.submit(task));
+      return true;
+    }
+
+    /**
+     * Passes the given result, which needed no masking, straight to the writing loop in order
+     * without going through the workers. Returns false (without passing it) if the run has failed
+     * and reading should stop.
+     */
+    boolean pass(T result) {
+      if (failed())
+        return false;
+      enqueue(Futures.immediateFuture(result));
+      return true;
+    }
+
+    private void enqueue(Future<T> future) {
+      if (!queue.offer(future)) {
+        MaskTracer tracer = MaskTracing.tracer();
+        long start = tracer == null ? 0 : System.nanoTime();
+        putUninterruptibly(queue, future);
+        if (tracer != null) {
+          tracer.readerBlocked(System.nanoTime() - start);
+        }
+      }
+    }
+
+    ListenableFuture<Void> start() {
+      io.execute(new Runnable() {
+        @Override public void run() {
+          read();
+        }
+      });
+      io.execute(new Runnable() {
+        @Override public void run() {
+          write();
+        }
+      });
+      return result;
+    }
+
+    private void read() {
+      try {
+        readAll();
+      } catch (Throwable e) {
+        fail(e);
+      } finally {
+        putUninterruptibly(queue, poison());
+      }
+    }
+
+    private void write() {
+      try {
+        Future<T> future;
+        while ((future = takeUninterruptibly(queue)) != poison()) {
+          if (failed()) {
+            // keep taking so the reader is never left blocked on a full queue or pool
+            future.cancel(false);
+            recycle(null);
+            continue;
+          }
+          T result = null;
+          try {
+            MaskTracer tracer = future.isDone() ? null : MaskTracing.tracer();
+            if (tracer != null) {
+              long start = System.nanoTime();
+              getUninterruptibly(future);
+              tracer.writerBlocked(System.nanoTime() - start);
+            }
+            result = getUninterruptibly(future);
+            write(result);
+          } catch (ExecutionException e) {
+            fail(e.getCause());
+          } catch (Throwable e) {
+            fail(e);
+          } finally {
+            recycle(result);
+          }
+        }
+      } finally {
+        try {
+          finished();
+        } catch (Throwable e) {
+          fail(e);
+        }
+        Throwable e = failure.get();
+        if (e == null) {
+          result.set(null);
+        } else {
+          result.setException(e);
+        }
+      }
+    }
+
+    /**
+     * Records the given failure, unless there already was one, for the writing loop to report.
+     */
+    private void fail(Throwable e) {
+      failure.compareAndSet(null, e);
+    }
+
+    private boolean failed() {
+      return failure.get() != null;
+    }
+
+    @SuppressWarnings("unchecked") // POISON is never read as a T
+    private Future<T> poison() {
+      return (Future<T>) (Future<?>) POISON;
+    }
+  }
+}
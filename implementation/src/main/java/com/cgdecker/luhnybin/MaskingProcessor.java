@@ -0,0 +1,299 @@
+package com.cgdecker.luhnybin;
+
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A <a href="http://www.reactive-streams.org/">Reactive Streams</a> processor that masks a stream
+ * of raw input bytes, for embedding in asynchronous pipelines. On Java 9 and later,
+ * {@code org.reactivestreams.FlowAdapters} converts it to a
+ * {@code java.util.concurrent.Flow.Processor}.
+ *
+ * <p>Input buffers may split lines anywhere. Each output buffer holds the masked form of one or
+ * more complete lines (the final line of the input is emitted when the input completes, whether
+ * or not it ends with a line feed), in input order. Input is requested from upstream in batches,
+ * and only while the single downstream subscriber has outstanding demand and everything
+ * previously requested has been consumed, so memory use is bounded no matter how fast the
+ * publisher is.
+ *
+ * <p>All masking and all signals to the subscriber happen on the given executor, one task at a
+ * time, except for {@code onSubscribe} (and the {@code onError} refusing a second subscriber),
+ * which happen on the thread calling {@link #subscribe}. If the executor rejects a task, input is
+ * cancelled and the subscriber gets {@code onError} with the rejection on the thread that was
+ * scheduling it, since the executor won't run anything more.
+ */
+public final class MaskingProcessor implements Processor<ByteBuffer, ByteBuffer> {
+
+  /** The number of input buffers requested from upstream at a time. */
+  static final int BATCH_SIZE = 16;
+
+  private final Executor executor;
+  private final RangeMasker rangeMasker;
+  /** May be null. */
+  private final MaskReporter reporter;
+
+  private final Queue<byte[]> inbox = new ConcurrentLinkedQueue<byte[]>();
+  private final AtomicLong requested = new AtomicLong();
+  private final AtomicInteger wip = new AtomicInteger();
+  private final AtomicReference<Subscription> upstream = new AtomicReference<Subscription>();
+  private final AtomicReference<Subscriber<? super ByteBuffer>> downstream =
+      new AtomicReference<Subscriber<? super ByteBuffer>>();
+
+  private volatile boolean subscribed;
+  private volatile boolean cancelled;
+  private volatile boolean upstreamDone;
+  private volatile Throwable error;
+
+  private final Runnable drainTask = new Runnable() {
+    @Override public void run() {
+      drain();
+    }
+  };
+
+  // only accessed while draining
+  private final Queue<ByteBuffer> ready = new ArrayDeque<ByteBuffer>();
+  private byte[] pending = new byte[0];
+  private int pendingLength;
+  private long upstreamOutstanding;
+  private boolean terminated;
+
+  MaskingProcessor(Executor executor, RangeMasker rangeMasker, MaskListener listener) {
+    this.executor = checkNotNull(executor);
+    this.rangeMasker = rangeMasker;
+    this.reporter = listener == null ? null : new MaskReporter(listener);
+  }
+
+  @Override public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+    checkNotNull(subscriber);
+    if (downstream.compareAndSet(null, subscriber)) {
+      subscriber.onSubscribe(new DownstreamSubscription());
+      subscribed = true;
+      schedule();
+    } else {
+      subscriber.onSubscribe(new Subscription() {
+        @Override public void request(long n) {}
+        @Override public void cancel() {}
+      });
+      subscriber.onError(new IllegalStateException("MaskingProcessor allows only one subscriber"));
+    }
+  }
+
+  @Override public void onSubscribe(Subscription subscription) {
+    checkNotNull(subscription);
+    if (!upstream.compareAndSet(null, subscription) || cancelled) {
+      subscription.cancel();
+      return;
+    }
+    schedule();
+  }
+
+  @Override public void onNext(ByteBuffer buffer) {
+    checkNotNull(buffer);
+    // copy now: the publisher may reuse the buffer once this returns
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    inbox.offer(bytes);
+    schedule();
+  }
+
+  @Override public void onError(Throwable throwable) {
+    checkNotNull(throwable);
+    error = throwable;
+    upstreamDone = true;
+    schedule();
+  }
+
+  @Override public void onComplete() {
+    upstreamDone = true;
+    schedule();
+  }
+
+  private void schedule() {
+    if (wip.getAndIncrement() == 0) {
+      try {
+        executor.execute(drainTask);
+      } catch (RejectedExecutionException e) {
+        // nothing more can be masked; fail the subscriber here, as the only drain running. If it
+        // hasn't subscribed yet, this happens again when it does.
+        if (error == null) {
+          error = e;
+        }
+        cancelUpstream();
+        inbox.clear();
+        drain();
+      }
+    }
+  }
+
+  private void drain() {
+    int missed = 1;
+    while (true) {
+      drainOnce();
+      missed = wip.addAndGet(-missed);
+      if (missed == 0)
+        return;
+    }
+  }
+
+  private void drainOnce() {
+    if (terminated)
+      return;
+    if (cancelled) {
+      terminate();
+      return;
+    }
+    if (!subscribed)
+      return;
+
+    Subscriber<? super ByteBuffer> subscriber = downstream.get();
+    if (error != null) {
+      terminate();
+      subscriber.onError(error);
+      return;
+    }
+
+    try {
+      while (true) {
+        while (!ready.isEmpty() && requested.get() > 0) {
+          if (requested.get() != Long.MAX_VALUE) {
+            requested.decrementAndGet();
+          }
+          subscriber.onNext(ready.poll());
+          if (cancelled)
+            return;
+        }
+        if (!ready.isEmpty())
+          break;
+
+        boolean done = upstreamDone;
+        byte[] input = inbox.poll();
+        if (input != null) {
+          upstreamOutstanding--;
+          process(input);
+        } else if (done && pendingLength > 0) {
+          emitPending();
+        } else if (done) {
+          terminate();
+          subscriber.onComplete();
+          return;
+        } else {
+          break;
+        }
+      }
+    } catch (RuntimeException e) {
+      terminate();
+      subscriber.onError(e);
+      return;
+    }
+
+    Subscription subscription = upstream.get();
+    if (subscription != null && ready.isEmpty() && upstreamOutstanding == 0
+        && requested.get() > 0) {
+      upstreamOutstanding = BATCH_SIZE;
+      subscription.request(BATCH_SIZE);
+    }
+  }
+
+  /**
+   * Adds the complete lines of the pending partial line plus the given input to the ready queue,
+   * keeping any trailing partial line pending.
+   */
+  private void process(byte[] input) {
+    int lastLineFeed = input.length - 1;
+    while (lastLineFeed >= 0 && input[lastLineFeed] != '\n') {
+      lastLineFeed--;
+    }
+
+    if (lastLineFeed == -1) {
+      if (pending.length - pendingLength < input.length) {
+        byte[] grown = new byte[Math.max(pending.length * 2, pendingLength + input.length)];
+        System.arraycopy(pending, 0, grown, 0, pendingLength);
+        pending = grown;
+      }
+      System.arraycopy(input, 0, pending, pendingLength, input.length);
+      pendingLength += input.length;
+      return;
+    }
+
+    int length = pendingLength + lastLineFeed + 1;
+    byte[] lines = new byte[length];
+    System.arraycopy(pending, 0, lines, 0, pendingLength);
+    System.arraycopy(input, 0, lines, pendingLength, lastLineFeed + 1);
+
+    pendingLength = input.length - lastLineFeed - 1;
+    if (pending.length < pendingLength) {
+      pending = new byte[pendingLength];
+    }
+    System.arraycopy(input, lastLineFeed + 1, pending, 0, pendingLength);
+
+    mask(lines, length);
+  }
+
+  private void emitPending() {
+    byte[] lines = new byte[pendingLength];
+    System.arraycopy(pending, 0, lines, 0, pendingLength);
+    pendingLength = 0;
+    mask(lines, lines.length);
+  }
+
+  private void mask(byte[] lines, int length) {
+    LineChunk chunk = new LineChunk(lines, length, reporter != null);
+    chunk.mask(rangeMasker);
+    if (reporter != null) {
+      reporter.report(chunk);
+    }
+    ready.add(ByteBuffer.wrap(lines, 0, length));
+  }
+
+  private void terminate() {
+    terminated = true;
+    cancelUpstream();
+    inbox.clear();
+    ready.clear();
+    if (reporter != null) {
+      reporter.finished();
+    }
+  }
+
+  private void cancelUpstream() {
+    Subscription subscription = upstream.get();
+    if (subscription != null && !upstreamDone) {
+      subscription.cancel();
+    }
+  }
+
+  private final class DownstreamSubscription implements Subscription {
+
+    @Override public void request(long n) {
+      if (n <= 0) {
+        error = new IllegalArgumentException("Requested " + n + " items; must be positive");
+      } else {
+        long current;
+        long next;
+        do {
+          current = requested.get();
+          next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while (!requested.compareAndSet(current, next));
+      }
+      schedule();
+    }
+
+    @Override public void cancel() {
+      cancelled = true;
+      schedule();
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.io.InputSupplier;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * A long-lived masking service that shares one pool of worker threads across any number of runs.
+ * Each call to {@code submit} starts a run and returns a future that completes when all of the
+ * run's output has been written, or fails with the first exception the run encountered. Stopping
+ * the service rejects new runs, waits for those in progress to finish and then shuts the pools
+ * down.
+ *
+ * <p>The service is also a {@link RawLuhnMasker} whose {@code run} methods block until the run is
+ * done and throw if it failed.
+ */
+public final class MaskingService extends AbstractIdleService implements RawLuhnMasker {
+
+  private final int processingThreads;
+  private final RangeMasker rangeMasker;
+  private final boolean changedLinesOnly;
+
+  private final Object lock = new Object();
+  private int activeRuns;
+  private boolean accepting;
+
+  private ExecutorService workers;
+  private ExecutorService io;
+  private MaskingPipeline pipeline;
+
+  MaskingService(int processingThreads, RangeMasker rangeMasker, boolean changedLinesOnly) {
+    this.processingThreads = processingThreads;
+    this.rangeMasker = rangeMasker;
+    this.changedLinesOnly = changedLinesOnly;
+  }
+
+  @Override protected void startUp() {
+    workers = Executors.newFixedThreadPool(processingThreads,
+        new ThreadFactoryBuilder().setNameFormat("luhn-worker-%d").build());
+    io = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("luhn-io-%d").build());
+    pipeline = new MaskingPipeline(workers, io, rangeMasker, changedLinesOnly);
+    synchronized (lock) {
+      accepting = true;
+    }
+  }
+
+  @Override protected void shutDown() throws InterruptedException {
+    synchronized (lock) {
+      accepting = false;
+      while (activeRuns > 0) {
+        lock.wait();
+      }
+    }
+    workers.shutdown();
+    io.shutdown();
+    workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    io.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Starts masking raw bytes from the given supplier's stream to the given stream.
+   *
+   * @throws IllegalStateException if the service isn't running
+   */
+  public ListenableFuture<Void> submit(InputSupplier<? extends InputStream> inSupplier,
+      OutputStream out) {
+    return submit(inSupplier, out, null);
+  }
+
+  /**
+   * Starts masking raw bytes from the given supplier's stream to the given stream, reporting
+   * masked spans to the given listener (if not null) from the run's writing thread.
+   *
+   * @throws IllegalStateException if the service isn't running
+   */
+  public ListenableFuture<Void> submit(InputSupplier<? extends InputStream> inSupplier,
+      OutputStream out, MaskListener listener) {
+    acquire();
+    return release(pipeline.start(inSupplier, out, listener));
+  }
+
+  /**
+   * Starts masking lines from the given supplier's reader to the given writer.
+   *
+   * @throws IllegalStateException if the service isn't running
+   */
+  public ListenableFuture<Void> submitLines(InputSupplier<? extends Reader> inSupplier,
+      Writer out) {
+    acquire();
+    return release(pipeline.start(inSupplier, out));
+  }
+
+  @Override public void run(InputSupplier<? extends Reader> inSupplier, Writer out) {
+    await(submitLines(inSupplier, out));
+  }
+
+  @Override public void run(InputSupplier<? extends InputStream> inSupplier, OutputStream out) {
+    await(submit(inSupplier, out));
+  }
+
+  private void acquire() {
+    synchronized (lock) {
+      checkState(accepting, "service is not running: %s", state());
+      activeRuns++;
+    }
+  }
+
+  private ListenableFuture<Void> release(ListenableFuture<Void> run) {
+    run.addListener(new Runnable() {
+      @Override public void run() {
+        synchronized (lock) {
+          activeRuns--;
+          lock.notifyAll();
+        }
+      }
+    }, MoreExecutors.sameThreadExecutor());
+    return run;
+  }
+
+  private static void await(ListenableFuture<Void> run) {
+    try {
+      getUninterruptibly(run);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+}
@@ -0,0 +1,367 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.util.concurrent.Uninterruptibles.putUninterruptibly;
+import static com.google.common.util.concurrent.Uninterruptibles.takeUninterruptibly;
+
+/**
+ * Masks many independent streams of raw input on one shared pool of worker threads. Input is
+ * written to a {@link Stream} by the caller; each stream's masked output is written to its own
+ * output stream in input order.
+ *
+ * <p>Streams with complete lines to mask wait their turn in a single run queue. Scheduling is
+ * deficit round robin: each turn adds the stream's weight times {@value #QUANTUM} bytes to its
+ * allowance and masks as many whole lines as fit in it, so a stream with weight 2 gets about twice
+ * the throughput of a stream with weight 1 when both are busy, and no stream waits more than one
+ * round for its turn however much input the others have. Only one worker handles a stream at a
+ * time, which keeps its output in order; a single stream is therefore never masked faster than
+ * one thread can manage.
+ *
+ * <p>Each stream buffers at most about {@value #MAX_PENDING} bytes of unmasked input; writes to a
+ * stream that is that far behind block until it catches up, so a noisy stream slows down its own
+ * producer rather than using up memory. A write to a stream whose buffered input is a single
+ * unfinished line that long fails, since it can't catch up until the line ends.
+ */
+public final class MultiplexedMasker extends AbstractIdleService {
+
+  /** The bytes a stream with weight 1 may mask per turn. */
+  static final int QUANTUM = 16 * 1024;
+
+  /**
+   * The unmasked bytes a stream may buffer before writes to it block, and so the longest line it
+   * can mask.
+   */
+  static final int MAX_PENDING = 1024 * 1024;
+
+  private final int threads;
+  private final RangeMasker rangeMasker;
+  private final BlockingQueue<Stream> runQueue = new LinkedBlockingQueue<Stream>();
+  private final Stream poison = new Stream(new ByteArrayOutputStream(), 1, null);
+
+  private final Object lock = new Object();
+  private int openStreams;
+  private boolean accepting;
+
+  private ExecutorService workers;
+
+  MultiplexedMasker(int threads, RangeMasker rangeMasker) {
+    this.threads = threads;
+    this.rangeMasker = rangeMasker;
+  }
+
+  @Override protected void startUp() {
+    workers = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setNameFormat("luhn-mux-%d").build());
+    for (int i = 0; i < threads; i++) {
+      workers.execute(new Runnable() {
+        @Override public void run() {
+          Stream stream;
+          while ((stream = takeUninterruptibly(runQueue)) != poison) {
+            stream.turn();
+          }
+        }
+      });
+    }
+    synchronized (lock) {
+      accepting = true;
+    }
+  }
+
+  @Override protected void shutDown() throws InterruptedException {
+    synchronized (lock) {
+      accepting = false;
+      while (openStreams > 0) {
+        lock.wait();
+      }
+    }
+    for (int i = 0; i < threads; i++) {
+      putUninterruptibly(runQueue, poison);
+    }
+    workers.shutdown();
+    workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Opens a stream with weight 1 whose masked output is written to the given stream.
+   *
+   * @throws IllegalStateException if the masker isn't running
+   */
+  public Stream open(OutputStream out) {
+    return open(out, 1, null);
+  }
+
+  /**
+   * Opens a stream whose masked output is written to the given stream, reporting masked spans to
+   * the given listener if it isn't null. The listener is called from worker threads, but never
+   * concurrently for one stream.
+   *
+   * @param weight the stream's share of the workers relative to other busy streams
+   * @throws IllegalStateException if the masker isn't running
+   */
+  public Stream open(OutputStream out, int weight, MaskListener listener) {
+    checkNotNull(out);
+    checkArgument(weight > 0, "weight must be positive");
+    synchronized (lock) {
+      checkState(accepting, "masker is not running: %s", state());
+      openStreams++;
+    }
+    return new Stream(out, weight, listener);
+  }
+
+  private void streamFinished() {
+    synchronized (lock) {
+      openStreams--;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * One input stream. Raw input written to it is masked and written to its output stream; closing
+   * it masks any final line that doesn't end with a line feed and completes {@link #done()}. The
+   * underlying output stream is flushed after each turn but never closed.
+   *
+   * <p>Writes may come from any thread, but a stream isn't meant to be written by several threads
+   * at once.
+   */
+  public final class Stream extends OutputStream {
+
+    private final OutputStream out;
+    private final int quantum;
+    private final MaskReporter reporter;
+    private final SettableFuture<Void> done = SettableFuture.create();
+
+    /**
+     * Unmasked input, the {@code length} bytes from {@code start}; the first {@code complete} of
+     * them are whole lines. Guarded by this.
+     */
+    private byte[] pending = new byte[QUANTUM];
+    private int start;
+    private int length;
+    private int complete;
+    private boolean closed;
+    private boolean scheduled;
+    private volatile Throwable failure;
+
+    /** Only touched by the worker taking this stream's turn. */
+    private int deficit;
+    private final LineChunk chunk;
+
+    private Stream(OutputStream out, int weight, MaskListener listener) {
+      this.out = out;
+      this.quantum = weight * QUANTUM;
+      this.reporter = listener == null ? null : new MaskReporter(listener);
+      this.chunk = new LineChunk(0, reporter != null);
+    }
+
+    /**
+     * Returns a future that completes once this stream has been closed and all of its output
+     * written, or fails with the first exception encountered while masking or writing it.
+     */
+    public ListenableFuture<Void> done() {
+      return done;
+    }
+
+    @Override public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      checkPositionIndexes(off, off + len, b.length);
+      boolean schedule = false;
+      synchronized (this) {
+        while (length >= MAX_PENDING && failure == null && !closed) {
+          if (complete == 0)
+            throw new IOException("line longer than " + MAX_PENDING + " bytes");
+          // a stream with complete lines is always scheduled, so a turn will take some
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for the stream to catch up");
+          }
+        }
+        checkOpen();
+
+        makeRoom(len);
+        System.arraycopy(b, off, pending, start + length, len);
+        length += len;
+        for (int i = length - 1; i >= length - len; i--) {
+          if (pending[start + i] == '\n') {
+            complete = i + 1;
+            break;
+          }
+        }
+
+        if (complete > 0 && !scheduled) {
+          scheduled = schedule = true;
+        }
+      }
+      if (schedule) {
+        putUninterruptibly(runQueue, this);
+      }
+    }
+
+    @Override public void close() throws IOException {
+      boolean schedule = false;
+      synchronized (this) {
+        if (closed)
+          return;
+        closed = true;
+        if (!scheduled) {
+          scheduled = schedule = true;
+        }
+      }
+      if (schedule) {
+        putUninterruptibly(runQueue, this);
+      }
+      if (failure != null) {
+        throw new IOException("masking failed", failure);
+      }
+    }
+
+    /**
+     * Makes room for {@code len} more bytes after the pending input, moving it to the start of the
+     * array only when that frees at least half of it, so input is copied a bounded number of times
+     * on average however far behind the stream is.
+     */
+    private void makeRoom(int len) {
+      if (start + length + len <= pending.length)
+        return;
+      int needed = length + len;
+      byte[] target = needed > pending.length / 2
+          ? new byte[Math.max(pending.length * 2, needed)]
+          : pending;
+      System.arraycopy(pending, start, target, 0, length);
+      pending = target;
+      start = 0;
+    }
+
+    private void checkOpen() throws IOException {
+      if (failure != null)
+        throw new IOException("masking failed", failure);
+      if (closed)
+        throw new IOException("stream closed");
+    }
+
+    /**
+     * Takes this stream's turn on a worker thread: masks and writes as many whole lines as its
+     * allowance covers, then either requeues it or, if it has no more complete lines, leaves it
+     * to be scheduled again by the next write.
+     */
+    private void turn() {
+      boolean idle;
+      boolean finish = false;
+      synchronized (this) {
+        int available = closed ? length : complete;
+        idle = failure != null || available == 0;
+        if (idle) {
+          scheduled = false;
+          deficit = 0;
+          finish = closed;
+          notifyAll();
+        } else {
+          deficit += quantum;
+          int cut = cut(available);
+          if (cut > 0) {
+            deficit -= cut;
+            take(cut);
+            notifyAll();
+          }
+        }
+      }
+
+      if (idle) {
+        // nothing to do until the next write or close schedules this stream again
+        if (finish) {
+          finish();
+        }
+        return;
+      }
+
+      if (chunk.length > 0) {
+        try {
+          chunk.mask(rangeMasker);
+          out.write(chunk.bytes, 0, chunk.length);
+          out.flush();
+          if (reporter != null) {
+            reporter.report(chunk);
+          }
+        } catch (Throwable e) {
+          synchronized (this) {
+            failure = e;
+            start = length = complete = 0;
+            notifyAll();
+          }
+          done.setException(e);
+        }
+        chunk.length = 0;
+      }
+
+      // requeue at the back so every other waiting stream gets a turn first
+      putUninterruptibly(runQueue, this);
+    }
+
+    /**
+     * Returns the end of the last line in the first {@code available} bytes of pending input that
+     * fits in the current deficit, or 0 if even the first line doesn't fit yet.
+     */
+    private int cut(int available) {
+      if (available <= deficit)
+        return available;
+      for (int i = deficit - 1; i >= 0; i--) {
+        if (pending[start + i] == '\n')
+          return i + 1;
+      }
+      return 0;
+    }
+
+    private void take(int cut) {
+      if (chunk.bytes.length < cut) {
+        chunk.bytes = new byte[Math.max(cut, quantum)];
+      }
+      System.arraycopy(pending, start, chunk.bytes, 0, cut);
+      chunk.length = cut;
+      // the rest stays where it is until the next write needs the room
+      start = length == cut ? 0 : start + cut;
+      length -= cut;
+      complete = Math.max(complete - cut, 0);
+    }
+
+    private void finish() {
+      try {
+        if (reporter != null) {
+          reporter.finished();
+        }
+      } catch (Throwable e) {
+        synchronized (this) {
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+      if (failure != null) {
+        done.setException(failure);
+      } else {
+        done.set(null);
+      }
+      streamFinished();
+    }
+  }
+}
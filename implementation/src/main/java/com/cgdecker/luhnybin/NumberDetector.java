@@ -0,0 +1,55 @@
+package com.cgdecker.luhnybin;
+
+/**
+ * Finds numbers to mask, such as credit card numbers or IBANs, in raw ASCII-compatible text. Set
+ * the detectors a masker uses with {@link LuhnMaskers.Builder#detectors}; {@link NumberDetectors}
+ * has the built-in ones.
+ *
+ * <p>A masker using several detectors scans each line once, splitting it into runs of ASCII
+ * letters, digits and the separators of any detector, and passes each run to each detector whose
+ * minimum length the run meets. Most runs in typical text are too short for any detector, so
+ * adding detectors adds little to the cost of scanning. Whatever any detector matches is masked
+ * by replacing its letters and digits with {@code 'X'}.
+ *
+ * <p>Detectors are called from many threads at once, so any state they need while looking at a
+ * run must be local to the call (or to the thread).
+ */
+public interface NumberDetector {
+
+  /**
+   * Returns whether the given byte may separate the letters and digits of a number this detector
+   * finds. Must be false for letters, digits and line feeds.
+   */
+  boolean isSeparator(byte b);
+
+  /**
+   * Returns whether this detector's numbers may contain letters as well as digits.
+   */
+  boolean allowsLetters();
+
+  /**
+   * Returns the fewest digits (or letters and digits, if {@linkplain #allowsLetters allowed}) a
+   * number this detector finds may have. Runs with fewer aren't passed to {@link #detect}.
+   */
+  int minLength();
+
+  /**
+   * Finds the numbers in the given range of the given buffer, adding the range of each (from its
+   * first letter or digit to its last) to {@code matches}. The range is a maximal run of letters,
+   * digits and separators that starts and ends with a letter or digit; it may include separators
+   * of other detectors, which should be treated as ending a number.
+   */
+  void detect(byte[] buffer, int start, int end, Matches matches);
+
+  /**
+   * Collects the matches a detector finds.
+   */
+  interface Matches {
+
+    /**
+     * Adds a match from {@code start} (inclusive) to {@code end} (exclusive). Matches may be added
+     * in any order and may overlap.
+     */
+    void add(int start, int end);
+  }
+}
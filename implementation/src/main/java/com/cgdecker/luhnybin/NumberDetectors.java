@@ -0,0 +1,208 @@
+package com.cgdecker.luhnybin;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The built-in {@link NumberDetector}s.
+ */
+public final class NumberDetectors {
+
+  private NumberDetectors() {}
+
+  private static final NumberDetector LUHN = luhn(14, 16, " -");
+  private static final NumberDetector IBAN = new IbanDetector();
+
+  /**
+   * Returns a detector for credit card numbers: 14 to 16 digits, possibly separated by spaces or
+   * dashes, that pass the Luhn check. Finds exactly what the default masker does.
+   */
+  public static NumberDetector luhn() {
+    return LUHN;
+  }
+
+  /**
+   * Returns a detector for numbers of {@code minDigits} to {@code maxDigits} digits, possibly
+   * separated by any of the given separator characters, that pass the Luhn check. Like the default
+   * masker, any sequence of digits that has such a number ending at its last digit is matched from
+   * the first digit of the longest one.
+   */
+  public static NumberDetector luhn(int minDigits, int maxDigits, String separators) {
+    checkArgument(minDigits > 1 && minDigits <= maxDigits,
+        "invalid lengths: %s to %s", minDigits, maxDigits);
+    return new LuhnDetector(minDigits, maxDigits, separators);
+  }
+
+  /**
+   * Returns a detector for International Bank Account Numbers: a two letter country code, two
+   * check digits and up to 30 letters and digits, 15 to 34 characters in all, possibly in groups
+   * separated by single spaces, that pass the ISO 7064 mod 97 check. Only uppercase letters are
+   * matched, and the longest valid number starting at a country code is masked.
+   */
+  public static NumberDetector iban() {
+    return IBAN;
+  }
+
+  private static boolean isDigit(byte b) {
+    return '0' <= b && b <= '9';
+  }
+
+  private static boolean isUpperCase(byte b) {
+    return 'A' <= b && b <= 'Z';
+  }
+
+  private static final class LuhnDetector implements NumberDetector {
+
+    private final ThreadLocal<LuhnDigitBuffer> digitBuffers = new ThreadLocal<LuhnDigitBuffer>() {
+      @Override protected LuhnDigitBuffer initialValue() {
+        return new LuhnDigitBuffer(32);
+      }
+    };
+
+    private final int minDigits;
+    private final int maxDigits;
+    private final String separators;
+
+    LuhnDetector(int minDigits, int maxDigits, String separators) {
+      this.minDigits = minDigits;
+      this.maxDigits = maxDigits;
+      this.separators = separators;
+    }
+
+    @Override public boolean isSeparator(byte b) {
+      return b > 0 && b != '\n' && separators.indexOf(b) != -1;
+    }
+
+    @Override public boolean allowsLetters() {
+      return false;
+    }
+
+    @Override public int minLength() {
+      return minDigits;
+    }
+
+    @Override public void detect(byte[] buffer, int start, int end, Matches matches) {
+      LuhnDigitBuffer digits = null;
+      int pos = start;
+      while (pos < end) {
+        while (pos < end && !isDigit(buffer[pos])) {
+          pos++;
+        }
+
+        // count the digits in this sequence, then check them if there are enough
+        int sequenceStart = pos;
+        int count = 0;
+        for (; pos < end; pos++) {
+          byte b = buffer[pos];
+          if (isDigit(b)) {
+            count++;
+          } else if (!isSeparator(b)) {
+            break;
+          }
+        }
+        if (count < minDigits)
+          continue;
+
+        if (digits == null) {
+          digits = digitBuffers.get();
+        }
+        digits.reset(count, maxDigits);
+        for (int i = sequenceStart; i < pos; i++) {
+          if (isDigit(buffer[i])) {
+            digits.add(buffer[i] - '0', i);
+            int luhnyStart = digits.luhnyStart(minDigits);
+            if (luhnyStart != -1) {
+              matches.add(luhnyStart, i + 1);
+            }
+          }
+        }
+      }
+    }
+
+    @Override public String toString() {
+      return "luhn(" + minDigits + ".." + maxDigits + ")";
+    }
+  }
+
+  private static final class IbanDetector implements NumberDetector {
+
+    private static final int MIN_LENGTH = 15;
+    private static final int MAX_LENGTH = 34;
+
+    @Override public boolean isSeparator(byte b) {
+      return b == ' ';
+    }
+
+    @Override public boolean allowsLetters() {
+      return true;
+    }
+
+    @Override public int minLength() {
+      return MIN_LENGTH;
+    }
+
+    @Override public void detect(byte[] buffer, int start, int end, Matches matches) {
+      for (int pos = start; pos + 4 <= end; pos++) {
+        if ((pos == start || !DetectingRangeMasker.isAlphanumeric(buffer[pos - 1]))
+            && isUpperCase(buffer[pos]) && isUpperCase(buffer[pos + 1])
+            && isDigit(buffer[pos + 2]) && isDigit(buffer[pos + 3])) {
+          int matchEnd = longestValid(buffer, pos, end);
+          if (matchEnd != -1) {
+            matches.add(pos, matchEnd);
+            pos = matchEnd;
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the end of the longest valid IBAN starting at {@code start}, or -1 if there is none.
+     * A number may only end at the end of a group.
+     */
+    private static int longestValid(byte[] buffer, int start, int end) {
+      // the check moves the first four characters to the end, so their remainder is combined last
+      int head = 0;
+      int headScale = 1;
+      for (int i = start; i < start + 4; i++) {
+        head = append(head, buffer[i]);
+        headScale = (headScale * (isDigit(buffer[i]) ? 10 : 100)) % 97;
+      }
+
+      int longest = -1;
+      int remainder = 0;
+      int length = 4;
+      for (int i = start + 4; i < end && length < MAX_LENGTH; i++) {
+        byte b = buffer[i];
+        if (b == ' ') {
+          // only single spaces between groups
+          if (i + 1 == end || buffer[i + 1] == ' ')
+            break;
+          continue;
+        }
+        if (!isDigit(b) && !isUpperCase(b))
+          break;
+
+        remainder = append(remainder, b);
+        length++;
+        boolean groupEnd = i + 1 == end || !DetectingRangeMasker.isAlphanumeric(buffer[i + 1]);
+        if (groupEnd && length >= MIN_LENGTH && (remainder * headScale + head) % 97 == 1) {
+          longest = i + 1;
+        }
+      }
+      return longest;
+    }
+
+    /**
+     * Returns the remainder mod 97 of the number with the given remainder followed by the digits of
+     * the given character (two digits for a letter, A being 10).
+     */
+    private static int append(int remainder, byte b) {
+      return isDigit(b)
+          ? (remainder * 10 + (b - '0')) % 97
+          : (remainder * 100 + (b - 'A' + 10)) % 97;
+    }
+
+    @Override public String toString() {
+      return "iban";
+    }
+  }
+}
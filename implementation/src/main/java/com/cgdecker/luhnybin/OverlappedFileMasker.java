@@ -0,0 +1,214 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Masks a file (or any stream) with reading, masking and writing overlapped: a reading thread
+ * fills one buffer while the calling thread masks the buffer before it and a writing thread writes
+ * the one before that. The three buffers are passed around in a ring, so nothing is allocated per
+ * buffer, and throughput approaches that of the slowest of the three steps rather than their sum.
+ *
+ * <p>Each buffer holds complete lines. A line cut off at the end of a read is carried over to the
+ * start of the next buffer by the reading thread, and a buffer grows if a single line doesn't fit
+ * in it.
+ */
+public final class OverlappedFileMasker {
+
+  /** The size of each of the three buffers. */
+  static final int BUFFER_SIZE = 1024 * 1024;
+
+  private static final int BUFFERS = 3;
+
+  /** Marks the end of the input in the queues. */
+  private static final LineChunk END = new LineChunk(0, false);
+
+  private static final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+      .setNameFormat("luhn-file-io-%d")
+      .setDaemon(true)
+      .build();
+
+  /** May be null. */
+  private final MaskListener listener;
+  private final RangeMasker rangeMasker;
+  private final boolean changedLinesOnly;
+  private final int bufferSize;
+
+  OverlappedFileMasker(MaskListener listener, RangeMasker rangeMasker, boolean changedLinesOnly) {
+    this(listener, rangeMasker, changedLinesOnly, BUFFER_SIZE);
+  }
+
+  OverlappedFileMasker(MaskListener listener, RangeMasker rangeMasker, boolean changedLinesOnly,
+      int bufferSize) {
+    checkArgument(bufferSize > 0, "bufferSize must be positive");
+    this.listener = listener;
+    this.rangeMasker = rangeMasker;
+    this.changedLinesOnly = changedLinesOnly;
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * Masks the given input file to the given output file, replacing it if it exists.
+   */
+  public void mask(File input, File output) throws IOException {
+    FileInputStream in = new FileInputStream(input);
+    try {
+      FileOutputStream out = new FileOutputStream(output);
+      try {
+        mask(in, out);
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Masks the given stream to the given stream, masking on the calling thread and returning once
+   * all output is written. Neither stream is closed. The streams are used directly, so they
+   * shouldn't be buffered.
+   */
+  public void mask(InputStream in, OutputStream out) throws IOException {
+    boolean trackSpans = listener != null || changedLinesOnly;
+    BlockingQueue<LineChunk> free = new ArrayBlockingQueue<LineChunk>(BUFFERS);
+    BlockingQueue<LineChunk> read = new ArrayBlockingQueue<LineChunk>(BUFFERS + 1);
+    BlockingQueue<LineChunk> masked = new ArrayBlockingQueue<LineChunk>(BUFFERS + 1);
+    for (int i = 0; i < BUFFERS; i++) {
+      free.add(new LineChunk(bufferSize, trackSpans));
+    }
+
+    ExecutorService io = Executors.newFixedThreadPool(2, threadFactory);
+    try {
+      Future<Void> reading = io.submit(new Reader(in, free, read));
+      Future<Void> writing = io.submit(new Writer(out, masked, free));
+
+      while (true) {
+        LineChunk chunk = read.take();
+        if (chunk != END) {
+          chunk.mask(rangeMasker);
+        }
+        masked.put(chunk);
+        if (chunk == END)
+          break;
+      }
+
+      getIo(writing);
+      getIo(reading);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } finally {
+      // stops the reading and writing threads if masking failed
+      io.shutdownNow();
+    }
+  }
+
+  /**
+   * Waits for the given I/O task, rethrowing its failure.
+   */
+  private static void getIo(Future<Void> future) throws IOException, InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Fills free buffers with lines of input. Always ends by queueing {@link #END}, even on failure.
+   */
+  private static final class Reader implements Callable<Void> {
+
+    private final InputStream in;
+    private final BlockingQueue<LineChunk> free;
+    private final BlockingQueue<LineChunk> read;
+
+    Reader(InputStream in, BlockingQueue<LineChunk> free, BlockingQueue<LineChunk> read) {
+      this.in = in;
+      this.free = free;
+      this.read = read;
+    }
+
+    @Override public Void call() throws IOException, InterruptedException {
+      try {
+        LineChunkReader reader = new LineChunkReader(in);
+        while (true) {
+          LineChunk chunk = free.take();
+          if (!reader.next(chunk))
+            return null;
+          read.put(chunk);
+        }
+      } finally {
+        read.put(END);
+      }
+    }
+  }
+
+  /**
+   * Writes masked buffers in order and returns them to the free list. After a failure it keeps
+   * returning buffers without writing them until {@link #END}, so the other threads never wait on
+   * it, then rethrows the failure.
+   */
+  private final class Writer implements Callable<Void> {
+
+    private final ChunkWriter writer;
+    private final BlockingQueue<LineChunk> masked;
+    private final BlockingQueue<LineChunk> free;
+
+    Writer(OutputStream out, BlockingQueue<LineChunk> masked, BlockingQueue<LineChunk> free) {
+      this.writer = ChunkWriter.newWriter(out, changedLinesOnly);
+      this.masked = masked;
+      this.free = free;
+    }
+
+    @Override public Void call() throws IOException, InterruptedException {
+      MaskReporter reporter = listener == null ? null : new MaskReporter(listener);
+      IOException failure = null;
+      try {
+        while (true) {
+          LineChunk chunk = masked.take();
+          if (chunk == END)
+            break;
+          if (failure == null) {
+            try {
+              writer.write(chunk);
+              if (reporter != null) {
+                reporter.report(chunk);
+              }
+            } catch (IOException e) {
+              failure = e;
+            }
+          }
+          free.put(chunk);
+        }
+      } finally {
+        if (reporter != null) {
+          reporter.finished();
+        }
+      }
+      if (failure != null)
+        throw failure;
+      return null;
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package com.cgdecker.luhnybin;
+
+/**
+ * Masks possible credit card numbers in a range of raw bytes in place. The range is made up of
+ * complete lines.
+ */
+interface RangeMasker {
+
+  /**
+   * Scans and masks the whole range.
+   */
+  RangeMasker ALL = new RangeMasker() {
+    @Override public void mask(byte[] buffer, int offset, int length, MaskSpans spans) {
+      MaskTracer tracer = MaskTracing.tracer();
+      if (tracer == null) {
+        LuhnLineMasker.mask(buffer, offset, length, spans);
+      } else {
+        MaskTracing.mask(tracer, buffer, offset, length, spans);
+      }
+    }
+
+    @Override public boolean mayMask(byte[] buffer, int start, int end) {
+      return LuhnLineMasker.hasPossibleNumber(buffer, start, end);
+    }
+  };
+
+  /**
+   * Like {@link #ALL}, but never traced, for maskers that trace whole lines themselves.
+   */
+  RangeMasker ALL_UNTRACED = new RangeMasker() {
+    @Override public void mask(byte[] buffer, int offset, int length, MaskSpans spans) {
+      LuhnLineMasker.mask(buffer, offset, length, spans);
+    }
+
+    @Override public boolean mayMask(byte[] buffer, int start, int end) {
+      return LuhnLineMasker.hasPossibleNumber(buffer, start, end);
+    }
+  };
+
+  /**
+   * Masks the given range of the given buffer, adding masked spans to {@code spans} if it is not
+   * null. Implementations must be safe to call from multiple threads at once.
+   */
+  void mask(byte[] buffer, int offset, int length, MaskSpans spans);
+
+  /**
+   * Returns whether masking the given range of the given buffer might change anything. A cheap
+   * check that may return true for ranges that turn out to need no masking, but never false for a
+   * range that does.
+   */
+  boolean mayMask(byte[] buffer, int start, int end);
+}
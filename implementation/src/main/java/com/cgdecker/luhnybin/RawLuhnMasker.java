@@ -0,0 +1,21 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.io.InputSupplier;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A {@link LuhnMasker} that can also mask raw bytes without decoding them. The maskers built by
+ * {@link LuhnMaskers} are all raw maskers.
+ */
+public interface RawLuhnMasker extends LuhnMasker {
+
+  /**
+   * Reads raw bytes from the {@link InputStream} supplied by the given supplier and writes them to
+   * the given {@link OutputStream} with possible credit card numbers masked. The input is not
+   * decoded: any ASCII-compatible encoding such as UTF-8 or ISO-8859-1 passes through unchanged
+   * apart from the masked digits, and line terminators are preserved exactly.
+   */
+  void run(InputSupplier<? extends InputStream> inSupplier, OutputStream out);
+}
@@ -0,0 +1,17 @@
+package com.cgdecker.luhnybin;
+
+/**
+ * How the records of a stream of length-prefixed records are framed. Each record is a header
+ * giving the length of its payload in bytes, followed by the payload.
+ */
+public enum RecordFraming {
+
+  /** A 4-byte big-endian length, which must not be negative. */
+  FIXED_32,
+
+  /**
+   * An unsigned varint length of up to 5 bytes, 7 bits per byte, least significant group first,
+   * as in Protocol Buffers' delimited streams.
+   */
+  VARINT
+}
@@ -0,0 +1,66 @@
+package com.cgdecker.luhnybin;
+
+/**
+ * Masks ranges with another masker, skipping the {@link SafeTokens} in them. The other masker is
+ * given the ranges between safe tokens, which may be parts of lines, so it must not depend on
+ * seeing whole lines.
+ */
+final class SafeTokenMasker implements RangeMasker {
+
+  private static final ThreadLocal<MaskSpans> safeSpans = new ThreadLocal<MaskSpans>() {
+    @Override protected MaskSpans initialValue() {
+      return new MaskSpans();
+    }
+  };
+
+  private final RangeMasker delegate;
+  private final SafeTokens tokens;
+
+  SafeTokenMasker(RangeMasker delegate, SafeTokens tokens) {
+    this.delegate = delegate;
+    this.tokens = tokens;
+  }
+
+  @Override public void mask(byte[] buffer, int offset, int length, MaskSpans spans) {
+    int end = offset + length;
+    MaskSpans safe = safeSpans.get();
+    safe.clear();
+    tokens.find(buffer, offset, end, safe);
+    if (safe.size() == 0) {
+      delegate.mask(buffer, offset, length, spans);
+      return;
+    }
+    maskOutside(delegate, buffer, offset, end, safe, 0, spans);
+  }
+
+  /**
+   * Masks the parts of the given range outside the given safe spans with {@code delegate},
+   * starting the search for safe spans overlapping the range at index {@code from}. Returns the
+   * index to start from for a later range, which is the first safe span that doesn't end before
+   * this range does.
+   */
+  static int maskOutside(RangeMasker delegate, byte[] buffer, int start, int end, MaskSpans safe,
+      int from, MaskSpans spans) {
+    int i = from;
+    while (i < safe.size() && safe.end(i) <= start) {
+      i++;
+    }
+    int pos = start;
+    for (; i < safe.size() && safe.start(i) < end; i++) {
+      if (safe.start(i) > pos) {
+        delegate.mask(buffer, pos, safe.start(i) - pos, spans);
+      }
+      pos = Math.max(pos, safe.end(i));
+      if (pos >= end)
+        return i;
+    }
+    if (pos < end) {
+      delegate.mask(buffer, pos, end - pos, spans);
+    }
+    return i;
+  }
+
+  @Override public boolean mayMask(byte[] buffer, int start, int end) {
+    return delegate.mayMask(buffer, start, end);
+  }
+}
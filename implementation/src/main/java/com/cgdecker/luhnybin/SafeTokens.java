@@ -0,0 +1,425 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Tokens that are known never to hold a number that needs masking, such as timestamps after a
+ * {@code ts=} key, UUIDs or hex hashes. Set them with {@link LuhnMaskers.Builder#safeTokens}; the
+ * masker then skips them entirely, which both saves the Luhn checks on their digits and keeps
+ * digits in them from ever being masked by chance.
+ *
+ * <p>Safe tokens are found by one pass over the input: the configured keys are compiled into a
+ * single Aho-Corasick automaton, and the configured shapes are only tried where a token starts
+ * with a hex digit. Each safe token ends any run of digits, as if it were a letter. Compare
+ * {@link #skippedDigitCount()} with {@link #scannedByteCount()} to see how much work is saved.
+ */
+public final class SafeTokens {
+
+  private static final int UUID_LENGTH = 36;
+
+  private final Automaton keys;
+  private final boolean uuids;
+  private final int hexLength;
+  private final boolean dateTimes;
+  private final boolean shapes;
+
+  private final AtomicLong scannedBytes = new AtomicLong();
+  private final AtomicLong tokens = new AtomicLong();
+  private final AtomicLong skippedBytes = new AtomicLong();
+  private final AtomicLong skippedDigits = new AtomicLong();
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private SafeTokens(Builder builder) {
+    this.keys = builder.keys.isEmpty() ? null : new Automaton(builder.keys);
+    this.uuids = builder.uuids;
+    this.hexLength = builder.hexLength;
+    this.dateTimes = builder.dateTimes;
+    this.shapes = uuids || hexLength > 0 || dateTimes;
+  }
+
+  /**
+   * Returns the number of bytes searched for safe tokens.
+   */
+  public long scannedByteCount() {
+    return scannedBytes.get();
+  }
+
+  /**
+   * Returns the number of safe tokens found.
+   */
+  public long tokenCount() {
+    return tokens.get();
+  }
+
+  /**
+   * Returns the number of bytes in safe tokens, which were never scanned for numbers.
+   */
+  public long skippedByteCount() {
+    return skippedBytes.get();
+  }
+
+  /**
+   * Returns the number of digits in safe tokens, each of which would otherwise have been added to
+   * a Luhn check.
+   */
+  public long skippedDigitCount() {
+    return skippedDigits.get();
+  }
+
+  @Override public String toString() {
+    return String.format(
+        "SafeTokens{tokens=%d, skippedBytes=%d, skippedDigits=%d, scannedBytes=%d}",
+        tokenCount(), skippedByteCount(), skippedDigitCount(), scannedByteCount());
+  }
+
+  /**
+   * Adds the safe tokens in the given range of the given buffer to {@code safe}, in order, and
+   * counts them.
+   */
+  void find(byte[] buffer, int start, int end, MaskSpans safe) {
+    int found = safe.size();
+    int state = 0;
+    for (int i = start; i < end; i++) {
+      byte b = buffer[i];
+      if (shapes && isHex(b) && (i == start || !isAlphanumeric(buffer[i - 1]))) {
+        int shapeEnd = shapeEnd(buffer, i, end);
+        if (shapeEnd != -1) {
+          safe.add(i, shapeEnd);
+          i = shapeEnd - 1;
+          state = 0;
+          continue;
+        }
+      }
+
+      if (keys != null) {
+        state = keys.next(state, b);
+        int valueEnd = keys.valueEnd(state, buffer, start, i + 1, end);
+        if (valueEnd != -1) {
+          safe.add(i + 1, valueEnd);
+          i = valueEnd - 1;
+          state = 0;
+        }
+      }
+    }
+
+    long bytes = 0;
+    long digits = 0;
+    for (int s = found; s < safe.size(); s++) {
+      bytes += safe.end(s) - safe.start(s);
+      for (int i = safe.start(s); i < safe.end(s); i++) {
+        if (isDigit(buffer[i])) {
+          digits++;
+        }
+      }
+    }
+    scannedBytes.addAndGet(end - start);
+    if (safe.size() > found) {
+      tokens.addAndGet(safe.size() - found);
+      skippedBytes.addAndGet(bytes);
+      skippedDigits.addAndGet(digits);
+    }
+  }
+
+  /**
+   * Returns the end of the safe token of one of the configured shapes starting at {@code start},
+   * or -1 if there is none.
+   */
+  private int shapeEnd(byte[] buffer, int start, int end) {
+    int tokenEnd;
+    if (uuids && (tokenEnd = uuidEnd(buffer, start, end)) != -1)
+      return tokenEnd;
+    if (hexLength > 0 && (tokenEnd = hexEnd(buffer, start, end)) != -1)
+      return tokenEnd;
+    if (dateTimes && (tokenEnd = dateTimeEnd(buffer, start, end)) != -1)
+      return tokenEnd;
+    return -1;
+  }
+
+  private static int uuidEnd(byte[] buffer, int start, int end) {
+    if (end - start < UUID_LENGTH)
+      return -1;
+    for (int i = 0; i < UUID_LENGTH; i++) {
+      byte b = buffer[start + i];
+      boolean dash = i == 8 || i == 13 || i == 18 || i == 23;
+      if (dash ? b != '-' : !isHex(b))
+        return -1;
+    }
+    return tokenEnd(buffer, start + UUID_LENGTH, end);
+  }
+
+  private int hexEnd(byte[] buffer, int start, int end) {
+    // an all-digit token isn't a hash; it could be a card number
+    boolean letters = false;
+    int i = start;
+    for (; i < end && isHex(buffer[i]); i++) {
+      letters |= !isDigit(buffer[i]);
+    }
+    return letters && i - start >= hexLength ? tokenEnd(buffer, i, end) : -1;
+  }
+
+  /**
+   * Matches an ISO-8601 date and time: {@code yyyy-MM-dd}, {@code T} or a space, {@code HH:mm},
+   * then optionally seconds, a fraction of a second and a zone offset or {@code Z}.
+   */
+  private static int dateTimeEnd(byte[] buffer, int start, int end) {
+    int i = digits(buffer, start, end, 4);
+    i = digits(buffer, literal(buffer, i, end, '-'), end, 2);
+    i = digits(buffer, literal(buffer, i, end, '-'), end, 2);
+    if (i == -1 || i == end || (buffer[i] != 'T' && buffer[i] != ' '))
+      return -1;
+    i = digits(buffer, i + 1, end, 2);
+    i = digits(buffer, literal(buffer, i, end, ':'), end, 2);
+    if (i == -1)
+      return -1;
+
+    int seconds = digits(buffer, literal(buffer, i, end, ':'), end, 2);
+    if (seconds != -1) {
+      i = seconds;
+      if (i < end && (buffer[i] == '.' || buffer[i] == ',')
+          && i + 1 < end && isDigit(buffer[i + 1])) {
+        for (i++; i < end && isDigit(buffer[i]); i++) {}
+      }
+    }
+    if (i < end && buffer[i] == 'Z') {
+      i++;
+    } else if (i < end && (buffer[i] == '+' || buffer[i] == '-')) {
+      int zone = digits(buffer, i + 1, end, 2);
+      if (zone != -1) {
+        int minutes = digits(buffer, literal(buffer, zone, end, ':'), end, 2);
+        i = minutes != -1 ? minutes : zone;
+      }
+    }
+    return tokenEnd(buffer, i, end);
+  }
+
+  /**
+   * Returns the index after {@code count} digits at {@code pos}, or -1 if they aren't there (or
+   * {@code pos} is -1).
+   */
+  private static int digits(byte[] buffer, int pos, int end, int count) {
+    if (pos == -1 || end - pos < count)
+      return -1;
+    for (int i = pos; i < pos + count; i++) {
+      if (!isDigit(buffer[i]))
+        return -1;
+    }
+    return pos + count;
+  }
+
+  private static int literal(byte[] buffer, int pos, int end, char c) {
+    return pos == -1 || pos == end || buffer[pos] != c ? -1 : pos + 1;
+  }
+
+  /**
+   * Returns {@code pos} if a token can end there, or -1 if it's followed by more letters or digits.
+   */
+  private static int tokenEnd(byte[] buffer, int pos, int end) {
+    return pos < end && isAlphanumeric(buffer[pos]) ? -1 : pos;
+  }
+
+  private static boolean isDigit(byte b) {
+    return '0' <= b && b <= '9';
+  }
+
+  private static boolean isHex(byte b) {
+    return isDigit(b) || ('a' <= b && b <= 'f') || ('A' <= b && b <= 'F');
+  }
+
+  private static boolean isAlphanumeric(byte b) {
+    return DetectingRangeMasker.isAlphanumeric(b);
+  }
+
+  /**
+   * Returns whether a byte ends the value after a key.
+   */
+  private static boolean isValueEnd(byte b) {
+    switch (b) {
+      case ' ': case '\t': case '\r': case '\n':
+      case ',': case ';': case '&': case '"': case '\'':
+      case ')': case ']': case '}': case '>':
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Builder for {@link SafeTokens}.
+   */
+  public static final class Builder {
+
+    private final List<byte[]> keys = Lists.newArrayList();
+    private boolean uuids;
+    private int hexLength;
+    private boolean dateTimes;
+
+    private Builder() {}
+
+    /**
+     * Makes the value following the given key safe, such as {@code ts=} or {@code "id":}. The key
+     * must start a token (it can't follow a letter or digit), and its value runs to the next space,
+     * comma, semicolon, ampersand, quote or closing bracket.
+     */
+    public Builder key(String key) {
+      checkArgument(!key.isEmpty(), "empty key");
+      keys.add(key.getBytes(Charsets.UTF_8));
+      return this;
+    }
+
+    /**
+     * Makes UUIDs in their usual 8-4-4-4-12 hex digit form safe.
+     */
+    public Builder uuids() {
+      this.uuids = true;
+      return this;
+    }
+
+    /**
+     * Makes tokens of at least the given number of hex digits safe, as long as they contain at
+     * least one letter.
+     */
+    public Builder hexHashes(int minLength) {
+      checkArgument(minLength > 0, "minLength must be positive");
+      this.hexLength = minLength;
+      return this;
+    }
+
+    /**
+     * Makes ISO-8601 dates with times, such as {@code 2011-11-14T12:30:00.123Z} or
+     * {@code 2011-11-14 12:30}, safe.
+     */
+    public Builder isoDateTimes() {
+      this.dateTimes = true;
+      return this;
+    }
+
+    public SafeTokens build() {
+      return new SafeTokens(this);
+    }
+  }
+
+  /**
+   * An Aho-Corasick automaton over the keys, with the failure transitions folded into a full
+   * transition table so each byte costs one lookup.
+   */
+  private static final class Automaton {
+
+    private final int[] next;
+    /** For each state, the lengths of the keys ending there, longest first, or null if none. */
+    private final int[][] matches;
+
+    Automaton(List<byte[]> keys) {
+      int maxStates = 1;
+      for (byte[] key : keys) {
+        maxStates += key.length;
+      }
+      int[] next = new int[maxStates * 256];
+      int[][] matches = new int[maxStates][];
+      int states = 1;
+
+      // build the trie, with -1 for missing transitions
+      Arrays.fill(next, -1);
+      for (byte[] key : keys) {
+        int state = 0;
+        for (byte b : key) {
+          int transition = state * 256 + (b & 0xFF);
+          if (next[transition] == -1) {
+            next[transition] = states++;
+          }
+          state = next[transition];
+        }
+        matches[state] = add(matches[state], key.length);
+      }
+
+      // fill in failure transitions breadth first, inheriting the matches of each failure state
+      int[] failure = new int[states];
+      int[] queue = new int[states];
+      int head = 0;
+      int tail = 0;
+      for (int b = 0; b < 256; b++) {
+        if (next[b] == -1) {
+          next[b] = 0;
+        } else {
+          queue[tail++] = next[b];
+        }
+      }
+      while (head < tail) {
+        int state = queue[head++];
+        for (int length : orEmpty(matches[failure[state]])) {
+          matches[state] = add(matches[state], length);
+        }
+        for (int b = 0; b < 256; b++) {
+          int transition = state * 256 + b;
+          int fallback = next[failure[state] * 256 + b];
+          if (next[transition] == -1) {
+            next[transition] = fallback;
+          } else {
+            failure[next[transition]] = fallback;
+            queue[tail++] = next[transition];
+          }
+        }
+      }
+
+      this.next = Arrays.copyOf(next, states * 256);
+      this.matches = Arrays.copyOf(matches, states);
+    }
+
+    int next(int state, byte b) {
+      return next[state * 256 + (b & 0xFF)];
+    }
+
+    /**
+     * If a key that starts a token ends at {@code keyEnd} (the automaton being in the given state
+     * there) and is followed by a value, returns the end of the value. Otherwise returns -1.
+     */
+    int valueEnd(int state, byte[] buffer, int start, int keyEnd, int end) {
+      int[] lengths = matches[state];
+      if (lengths == null)
+        return -1;
+      for (int length : lengths) {
+        int keyStart = keyEnd - length;
+        if (keyStart == start || !isAlphanumeric(buffer[keyStart - 1])) {
+          int valueEnd = keyEnd;
+          while (valueEnd < end && !isValueEnd(buffer[valueEnd])) {
+            valueEnd++;
+          }
+          return valueEnd > keyEnd ? valueEnd : -1;
+        }
+      }
+      return -1;
+    }
+
+    private static int[] orEmpty(int[] lengths) {
+      return lengths == null ? new int[0] : lengths;
+    }
+
+    private static int[] add(int[] lengths, int length) {
+      if (lengths == null)
+        return new int[] {length};
+      for (int existing : lengths) {
+        if (existing == length)
+          return lengths;
+      }
+      int[] result = Arrays.copyOf(lengths, lengths.length + 1);
+      result[lengths.length] = length;
+      Arrays.sort(result);
+      // longest first
+      for (int i = 0; i < result.length / 2; i++) {
+        int swap = result[i];
+        result[i] = result[result.length - 1 - i];
+        result[result.length - 1 - i] = swap;
+      }
+      return result;
+    }
+  }
+}
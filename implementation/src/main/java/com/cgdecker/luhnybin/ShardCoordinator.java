@@ -0,0 +1,314 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * Masks a large file using several worker processes on the local machine. The file is split into
+ * byte ranges that each end at a line feed, so that no possible card number is split between two
+ * ranges. Each range is piped into a worker process's standard input and the worker's output is
+ * written to a temporary file; the temporary files are then copied to the output in order as soon
+ * as each one is complete. A worker that exits abnormally has its range masked again by a new
+ * worker, up to {@value #MAX_ATTEMPTS} times.
+ *
+ * <p>Separate processes each get their own heap, garbage collector and memory allocation, which
+ * the operating system can spread across NUMA nodes; one JVM tops out well before that.
+ */
+public final class ShardCoordinator {
+
+  private static final Logger logger = Logger.getLogger(ShardCoordinator.class.getName());
+
+  /** The number of times a range is attempted before the whole run fails. */
+  static final int MAX_ATTEMPTS = 3;
+
+  /** Ranges per worker, so that a slow range doesn't leave the other workers idle at the end. */
+  private static final int RANGES_PER_WORKER = 4;
+
+  private final int workers;
+  private final List<String> workerCommand;
+
+  /**
+   * Creates a coordinator that runs the given number of worker JVMs, each running {@link Main}
+   * with the given arguments on the same classpath as this JVM.
+   */
+  public static ShardCoordinator create(int workers, List<String> mainArgs) {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+        + "java";
+    List<String> command = new ArrayList<String>();
+    command.add(java);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(Main.class.getName());
+    command.addAll(mainArgs);
+    return new ShardCoordinator(workers, command);
+  }
+
+  /**
+   * Creates a coordinator that runs the given number of copies of the given command at once. The
+   * command must copy its standard input to its standard output, masked.
+   */
+  ShardCoordinator(int workers, List<String> workerCommand) {
+    checkArgument(workers > 0, "workers must be positive");
+    this.workers = workers;
+    this.workerCommand = ImmutableList.copyOf(workerCommand);
+  }
+
+  /**
+   * Masks the given file to the given stream, returning when all output has been written.
+   *
+   * @throws IOException if reading the input or writing the output fails, or a range fails on
+   *     every attempt
+   */
+  public void run(File input, OutputStream out) throws IOException {
+    List<Range> ranges = split(input, workers * RANGES_PER_WORKER);
+    ExecutorService executor = Executors.newFixedThreadPool(workers,
+        new ThreadFactoryBuilder().setNameFormat("luhn-shard-%d").build());
+    List<Future<File>> outputs = new ArrayList<Future<File>>();
+    try {
+      for (Range range : ranges) {
+        outputs.add(executor.submit(new RangeTask(input, range)));
+      }
+      for (Future<File> output : outputs) {
+        File file = getOutput(output);
+        try {
+          Files.copy(file, out);
+          out.flush();
+        } finally {
+          file.delete();
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      for (Future<File> output : outputs) {
+        deleteIfDone(output);
+      }
+    }
+  }
+
+  private static File getOutput(Future<File> output) throws IOException {
+    try {
+      return getUninterruptibly(output);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private static void deleteIfDone(Future<File> output) {
+    if (output.isDone() && !output.isCancelled()) {
+      try {
+        output.get().delete();
+      } catch (Exception e) {
+        // failed ranges have no output to delete
+      }
+    }
+  }
+
+  /**
+   * Splits the given file into about {@code count} ranges of about equal size, each ending just
+   * after a line feed (except for the last, which ends at the end of the file). Returns fewer
+   * ranges if lines are long compared to the file.
+   */
+  static List<Range> split(File file, int count) throws IOException {
+    List<Range> ranges = new ArrayList<Range>();
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      long length = raf.length();
+      long target = Math.max(length / count, 1);
+      long start = 0;
+      byte[] buffer = new byte[8192];
+      while (start < length) {
+        long end = Math.min(start + target, length);
+        if (end < length) {
+          end = nextLineStart(raf, end - 1, length, buffer);
+        }
+        ranges.add(new Range(start, end));
+        start = end;
+      }
+    } finally {
+      raf.close();
+    }
+    return ranges;
+  }
+
+  /**
+   * Returns the position just after the first line feed at or after {@code from}, or
+   * {@code length} if there is none.
+   */
+  private static long nextLineStart(RandomAccessFile raf, long from, long length, byte[] buffer)
+      throws IOException {
+    long pos = from;
+    raf.seek(pos);
+    while (pos < length) {
+      int read = raf.read(buffer, 0, (int) Math.min(buffer.length, length - pos));
+      if (read == -1)
+        break;
+      for (int i = 0; i < read; i++) {
+        if (buffer[i] == '\n')
+          return pos + i + 1;
+      }
+      pos += read;
+    }
+    return length;
+  }
+
+  /**
+   * A range of bytes in the input file.
+   */
+  static final class Range {
+    final long start;
+    final long end;
+
+    Range(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override public String toString() {
+      return "[" + start + ", " + end + ")";
+    }
+  }
+
+  /**
+   * Masks one range with a worker process, retrying with a new worker if one fails. Returns the
+   * temporary file holding the range's masked output.
+   */
+  private final class RangeTask implements Callable<File> {
+
+    private final File input;
+    private final Range range;
+
+    RangeTask(File input, Range range) {
+      this.input = input;
+      this.range = range;
+    }
+
+    @Override public File call() throws Exception {
+      File output = File.createTempFile("luhn-shard", ".out");
+      for (int attempt = 1; ; attempt++) {
+        try {
+          int exitValue = runWorker(output);
+          if (exitValue == 0)
+            return output;
+          if (attempt == MAX_ATTEMPTS) {
+            output.delete();
+            throw new IOException("worker for range " + range + " exited with " + exitValue
+                + " on all " + MAX_ATTEMPTS + " attempts");
+          }
+          logger.log(Level.WARNING, "Worker for range {0} exited with {1}; retrying",
+              new Object[] {range, exitValue});
+        } catch (IOException e) {
+          if (attempt == MAX_ATTEMPTS) {
+            output.delete();
+            throw e;
+          }
+          logger.log(Level.WARNING, "Worker for range " + range + " failed; retrying", e);
+        }
+      }
+    }
+
+    /**
+     * Runs a worker on this range, writing its output to the given file, and returns its exit
+     * value.
+     */
+    private int runWorker(File output) throws IOException, InterruptedException {
+      final Process process = new ProcessBuilder(workerCommand).start();
+      try {
+        Thread feeder = pump(new RangeInput(input, range), process.getOutputStream(), "input");
+        Thread errors = pump(process.getErrorStream(), System.err, "errors");
+
+        OutputStream out = new FileOutputStream(output);
+        try {
+          ByteStreams.copy(process.getInputStream(), out);
+        } finally {
+          out.close();
+        }
+
+        int exitValue = process.waitFor();
+        feeder.join();
+        errors.join();
+        return exitValue;
+      } finally {
+        process.destroy();
+      }
+    }
+
+    private Thread pump(final InputStream from, final OutputStream to, String name) {
+      Thread thread = new Thread(new Runnable() {
+        @Override public void run() {
+          try {
+            ByteStreams.copy(from, to);
+          } catch (IOException e) {
+            // the worker died; its exit value reports the failure
+          } finally {
+            try {
+              from.close();
+              if (to != System.err) {
+                to.close();
+              }
+            } catch (IOException ignored) {
+            }
+          }
+        }
+      }, Thread.currentThread().getName() + "-" + name);
+      thread.start();
+      return thread;
+    }
+  }
+
+  /**
+   * An input stream over a range of a file.
+   */
+  private static final class RangeInput extends InputStream {
+
+    private final RandomAccessFile file;
+    private long remaining;
+
+    RangeInput(File input, Range range) throws IOException {
+      this.file = new RandomAccessFile(input, "r");
+      this.file.seek(range.start);
+      this.remaining = range.end - range.start;
+    }
+
+    @Override public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0)
+        return -1;
+      int read = file.read(b, off, (int) Math.min(len, remaining));
+      if (read > 0) {
+        remaining -= read;
+      }
+      return read;
+    }
+
+    @Override public void close() throws IOException {
+      file.close();
+    }
+  }
+}
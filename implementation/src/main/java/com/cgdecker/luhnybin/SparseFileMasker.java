@@ -0,0 +1,154 @@
+package com.cgdecker.luhnybin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Masks a file by copying it to the output with {@link FileChannel#transferTo}, which lets the
+ * kernel copy the unchanged bytes without them passing through the JVM, and writing only the
+ * masked spans from the masked chunk. The input still has to be read in order to be scanned; what
+ * this saves is writing it back out. Masking is done by the same {@link RangeMasker} as every
+ * other masker, so the output is byte for byte what they would write.
+ *
+ * <p>Unchanged regions shorter than {@value #MIN_TRANSFER} bytes are written from the chunk along
+ * with the spans around them, since a system call for each small region costs more than copying
+ * it, while longer ones are transferred whole even when they span many chunks. The mode pays off
+ * for files where masked spans are far apart; where they are a few kilobytes apart or closer,
+ * writing every chunk as other maskers do is faster.
+ */
+public final class SparseFileMasker {
+
+  /** The shortest unchanged region that is copied with {@code transferTo}. */
+  static final int MIN_TRANSFER = 4096;
+
+  /** May be null. */
+  private final MaskListener listener;
+  private final RangeMasker rangeMasker;
+
+  SparseFileMasker(MaskListener listener, RangeMasker rangeMasker) {
+    this.listener = listener;
+    this.rangeMasker = rangeMasker;
+  }
+
+  /**
+   * Masks the given input file to the given output file, replacing it if it exists.
+   */
+  public void mask(File input, File output) throws IOException {
+    FileInputStream in = new FileInputStream(input);
+    try {
+      FileOutputStream out = new FileOutputStream(output);
+      try {
+        // reading through the stream avoids the extra copy a channel makes for heap buffers
+        mask(in, in.getChannel(), 0, out.getChannel());
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Masks the given file channel from its current position to its end, writing the result to the
+   * given channel. Neither channel is closed.
+   */
+  public void mask(FileChannel in, WritableByteChannel out) throws IOException {
+    mask(Channels.newInputStream(in), in, in.position(), out);
+  }
+
+  /**
+   * Masks the given stream, which reads the given channel from the given position on.
+   */
+  private void mask(InputStream stream, FileChannel in, long base, WritableByteChannel out)
+      throws IOException {
+    MaskReporter reporter = listener == null ? null : new MaskReporter(listener);
+    try {
+      LineChunkReader reader = new LineChunkReader(stream);
+      LineChunk chunk = new LineChunk(LuhnMaskers.CHUNK_SIZE, true);
+
+      long chunkStart = base;
+      long done = base;
+      while (reader.next(chunk)) {
+        chunk.mask(rangeMasker);
+        done = write(in, chunkStart, chunk, out, done);
+        if (reporter != null) {
+          reporter.report(chunk);
+        }
+        chunkStart += chunk.length;
+      }
+      transferFully(in, done, chunkStart - done, out);
+    } finally {
+      if (reporter != null) {
+        reporter.finished();
+      }
+    }
+  }
+
+  /**
+   * Writes the given masked chunk, which starts at the given position in the input file, given
+   * that output has been written for the input up to {@code done}. Returns the new value of
+   * {@code done}: an unchanged region at the end of the chunk that is long enough to transfer is
+   * left for the next call, so that unchanged regions spanning several chunks are transferred at
+   * once.
+   */
+  private static long write(FileChannel in, long chunkStart, LineChunk chunk,
+      WritableByteChannel out, long done) throws IOException {
+    MaskSpans spans = chunk.spans;
+    // the start of the bytes to be written from the chunk itself, or -1 if there are none yet;
+    // whenever this is set, done is in the chunk
+    int bufferFrom = -1;
+    for (int i = 0; i < spans.size(); i++) {
+      long start = chunkStart + spans.start(i);
+      if (start - done >= MIN_TRANSFER) {
+        if (bufferFrom >= 0) {
+          writeFully(out, chunk.bytes, bufferFrom, (int) (done - chunkStart));
+          bufferFrom = -1;
+        }
+        transferFully(in, done, start - done, out);
+        done = start;
+      }
+      if (bufferFrom < 0) {
+        bufferFrom = (int) (done - chunkStart);
+      }
+      done = chunkStart + spans.end(i);
+    }
+
+    long end = chunkStart + chunk.length;
+    if (end - done < MIN_TRANSFER) {
+      if (bufferFrom < 0) {
+        bufferFrom = (int) (done - chunkStart);
+      }
+      done = end;
+    }
+    if (bufferFrom >= 0) {
+      writeFully(out, chunk.bytes, bufferFrom, (int) (done - chunkStart));
+    }
+    return done;
+  }
+
+  private static void writeFully(WritableByteChannel out, byte[] bytes, int start, int end)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, start, end - start);
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+
+  private static void transferFully(FileChannel in, long position, long count,
+      WritableByteChannel out) throws IOException {
+    while (count > 0) {
+      long transferred = in.transferTo(position, count, out);
+      if (transferred <= 0)
+        throw new IOException("input file was truncated while being masked");
+      position += transferred;
+      count -= transferred;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Sets;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveExecutorTest {
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final AdaptiveExecutor executor = new AdaptiveExecutor(3, ticker);
+
+  @After public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test public void switchesToWorkersGrowsAndSwitchesBack() throws Exception {
+    // masking that takes all of the submitting thread's time moves masking to 2 workers
+    assertSame(Thread.currentThread(), runOn(new Runnable() {
+      @Override public void run() {
+        ticker.advance(300, TimeUnit.MILLISECONDS);
+      }
+    }));
+    assertEquals(2, executor.threads());
+
+    // a task still waiting for a worker at the end of an interval adds one
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(3);
+    final CountDownLatch finished = new CountDownLatch(4);
+    final Set<Thread> workers = Sets.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    Runnable blocked = new Runnable() {
+      @Override public void run() {
+        workers.add(Thread.currentThread());
+        started.countDown();
+        awaitUninterruptibly(release);
+        finished.countDown();
+      }
+    };
+    for (int i = 0; i < 3; i++) {
+      executor.execute(blocked);
+    }
+    assertEquals(2, executor.threads());
+    ticker.advance(200, TimeUnit.MILLISECONDS);
+    executor.execute(blocked);
+    assertEquals(3, executor.threads());
+    // and the added worker picks it up
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertEquals(3, workers.size());
+    assertFalse(workers.contains(Thread.currentThread()));
+
+    // once idle, masking moves back to the submitting thread
+    release.countDown();
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 10 && executor.threads() != 0; i++) {
+      ticker.advance(200, TimeUnit.MILLISECONDS);
+      runOn(new Runnable() {
+        @Override public void run() {
+        }
+      });
+    }
+    assertEquals(0, executor.threads());
+    assertSame(Thread.currentThread(), runOn(new Runnable() {
+      @Override public void run() {
+      }
+    }));
+  }
+
+  /**
+   * Executes the given task and returns the thread it ran on, waiting for it if needed.
+   */
+  private Thread runOn(final Runnable task) throws InterruptedException {
+    final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+    final CountDownLatch done = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override public void run() {
+        task.run();
+        thread.set(Thread.currentThread());
+        done.countDown();
+      }
+    });
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    return thread.get();
+  }
+
+  /** Read by the workers as well as the test's thread. */
+  private static final class FakeTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    void advance(long time, TimeUnit unit) {
+      nanos.addAndGet(unit.toNanos(time));
+    }
+
+    @Override public long read() {
+      return nanos.get();
+    }
+  }
+}
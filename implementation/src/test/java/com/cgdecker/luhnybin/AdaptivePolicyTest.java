@@ -0,0 +1,58 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class AdaptivePolicyTest {
+
+  private static final long SECOND = 1000000000L;
+
+  private final AdaptivePolicy policy = new AdaptivePolicy(8);
+
+  @Test public void staysInlineWhileMaskingIsCheap() {
+    assertEquals(0, policy.threads(0, SECOND, SECOND / 10, 0));
+    assertEquals(0, policy.threads(0, SECOND, SECOND / 2, 0));
+  }
+
+  @Test public void goesParallelWhenMaskingHoldsUpReading() {
+    assertEquals(2, policy.threads(0, SECOND, SECOND * 9 / 10, 0));
+  }
+
+  @Test public void growsWhileChunksWait() {
+    // 2 threads fully busy need 3 threads at 75%, and work is waiting anyway
+    assertEquals(3, policy.threads(2, SECOND, 2 * SECOND, 10));
+    assertEquals(4, policy.threads(3, SECOND, SECOND, 1));
+  }
+
+  @Test public void neverExceedsMax() {
+    assertEquals(8, policy.threads(8, SECOND, 8 * SECOND, 100));
+    assertEquals(8, policy.threads(6, SECOND, 20 * SECOND, 5));
+  }
+
+  @Test public void shrinksOneThreadAtATime() {
+    assertEquals(5, policy.threads(6, SECOND, SECOND, 0));
+    assertEquals(1, policy.threads(1, SECOND, SECOND / 2, 0));
+  }
+
+  @Test public void returnsInlineWhenIdle() {
+    assertEquals(0, policy.threads(4, SECOND, SECOND / 10, 0));
+    // but not while work is waiting for a worker
+    assertEquals(5, policy.threads(4, SECOND, SECOND / 10, 3));
+  }
+
+  @Test public void adaptiveMaskerMatchesBasicMasker() throws Exception {
+    byte[] input = MaskerBenchmark.corpus(20000, new Random(3));
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    LuhnMaskers.newBasicMasker().run(ByteStreams.newInputStreamSupplier(input), expected);
+    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    LuhnMaskers.builder().adaptive(4).build().run(
+        ByteStreams.newInputStreamSupplier(input), actual);
+    assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+  }
+}
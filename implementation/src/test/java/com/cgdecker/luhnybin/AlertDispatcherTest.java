@@ -0,0 +1,108 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AlertDispatcherTest {
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final RecordingHandler handler = new RecordingHandler();
+
+  @Test public void coalescesDetectionsPerStream() {
+    AlertDispatcher dispatcher = new AlertDispatcher(handler, 16, 10, ticker);
+    MaskListener a = dispatcher.listenerFor("a");
+    MaskListener b = dispatcher.listenerFor("b");
+
+    a.masked(100, 3, 1, 16);
+    b.masked(5, 1, 6, 19);
+    a.masked(200, 7, 1, 14);
+    assertTrue(dispatcher.dispatch(false));
+
+    assertEquals(2, handler.alerts.size());
+    MaskAlert alertA = handler.alerts.get(0);
+    assertEquals("a", alertA.stream());
+    assertEquals(3, alertA.firstLine());
+    assertEquals(7, alertA.lastLine());
+    assertEquals(100, alertA.offset());
+    assertEquals(16, alertA.length());
+    assertEquals(2, alertA.detections());
+    assertEquals("b", handler.alerts.get(1).stream());
+    assertEquals(1, handler.alerts.get(1).detections());
+
+    assertFalse(dispatcher.dispatch(false));
+  }
+
+  @Test public void rateLimitsAlerts() {
+    AlertDispatcher dispatcher = new AlertDispatcher(handler, 16, 1, ticker);
+    MaskListener listener = dispatcher.listenerFor("in");
+
+    listener.masked(0, 1, 1, 16);
+    dispatcher.dispatch(false);
+    listener.masked(20, 2, 1, 16);
+    listener.masked(40, 3, 1, 16);
+    dispatcher.dispatch(false);
+    assertEquals(1, handler.alerts.size());
+
+    ticker.advance(1, TimeUnit.SECONDS);
+    dispatcher.dispatch(false);
+    assertEquals(2, handler.alerts.size());
+    assertEquals(2, handler.alerts.get(1).detections());
+    assertEquals(2, handler.alerts.get(1).firstLine());
+    assertEquals(3, handler.alerts.get(1).lastLine());
+  }
+
+  @Test public void dropsAndCountsDetectionsWhenQueueIsFull() {
+    AlertDispatcher dispatcher = new AlertDispatcher(handler, 4, 10, ticker);
+    MaskListener listener = dispatcher.listenerFor("in");
+
+    for (int i = 0; i < 10; i++) {
+      listener.masked(i * 20, i + 1, 1, 16);
+    }
+    assertEquals(6, dispatcher.droppedCount());
+
+    dispatcher.dispatch(false);
+    assertEquals(1, handler.alerts.size());
+    assertEquals(4, handler.alerts.get(0).detections());
+    assertEquals(6, handler.alerts.get(0).dropped());
+
+    listener.masked(500, 30, 1, 16);
+    dispatcher.dispatch(false);
+    assertEquals(0, handler.alerts.get(1).dropped());
+  }
+
+  @Test public void closeDispatchesQueuedDetections() {
+    AlertDispatcher dispatcher = AlertDispatcher.start(handler, 16, 1);
+    MaskListener listener = dispatcher.listenerFor("in");
+    listener.masked(0, 1, 1, 16);
+    dispatcher.close();
+    assertEquals(1, handler.alerts.size());
+  }
+
+  private static final class RecordingHandler implements MaskAlertHandler {
+    final List<MaskAlert> alerts = new ArrayList<MaskAlert>();
+
+    @Override public synchronized void alert(MaskAlert alert) {
+      alerts.add(alert);
+    }
+  }
+
+  private static final class FakeTicker extends Ticker {
+    private long nanos;
+
+    void advance(long time, TimeUnit unit) {
+      nanos += unit.toNanos(time);
+    }
+
+    @Override public long read() {
+      return nanos;
+    }
+  }
+}
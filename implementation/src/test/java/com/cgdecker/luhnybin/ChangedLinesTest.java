@@ -0,0 +1,64 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChangedLinesTest {
+
+  private static final String INPUT = "no card here\n"
+      + "caf\u00e9 7230 3161 3748 4124 and 56613959932537\r\n"
+      + Strings.repeat("0", 100) + "\n"
+      + "nothing\n"
+      + "end 6853371389452376";
+
+  private static final String EXPECTED =
+      "2\t13\tcaf\u00e9 XXXX XXXX XXXX XXXX and XXXXXXXXXXXXXX\r\n"
+      + "3\t59\t" + Strings.repeat("X", 100) + "\n"
+      + "5\t168\tend XXXXXXXXXXXXXXXX\n";
+
+  @Test public void basicMasker() throws Exception {
+    assertEquals(EXPECTED, mask(LuhnMaskers.builder().changedLinesOnly().build()));
+  }
+
+  @Test public void multithreadedService() throws Exception {
+    MaskingService service =
+        LuhnMaskers.builder().changedLinesOnly().multithreaded(2).buildService();
+    service.startAndWait();
+    try {
+      assertEquals(EXPECTED, mask(service));
+    } finally {
+      service.stopAndWait();
+    }
+  }
+
+  @Test public void offsetsAndLinesCarryAcrossChunks() throws Exception {
+    StringBuilder input = new StringBuilder();
+    StringBuilder expected = new StringBuilder();
+    int offset = 0;
+    for (int i = 1; i <= 20000; i++) {
+      String line = i % 1000 == 0 ? "card 4111 1111 1111 1111" : "line " + i;
+      if (i % 1000 == 0) {
+        expected.append(i).append('\t').append(offset).append("\tcard XXXX XXXX XXXX XXXX\n");
+      }
+      input.append(line).append('\n');
+      offset += line.length() + 1;
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LuhnMaskers.builder().changedLinesOnly().build().run(
+        ByteStreams.newInputStreamSupplier(input.toString().getBytes(Charsets.US_ASCII)), out);
+    assertEquals(expected.toString(), out.toString("US-ASCII"));
+  }
+
+  private static String mask(RawLuhnMasker masker) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    masker.run(ByteStreams.newInputStreamSupplier(INPUT.getBytes(Charsets.UTF_8)), out);
+    return out.toString("UTF-8");
+  }
+}
@@ -0,0 +1,177 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CheckpointedFileMaskerTest {
+
+  private static final long INTERVAL = 100000;
+
+  private File input;
+  private File output;
+  private File journal;
+  private byte[] bytes;
+
+  @Before public void setUp() throws IOException {
+    input = File.createTempFile("checkpointed", ".in");
+    output = File.createTempFile("checkpointed", ".out");
+    journal = File.createTempFile("checkpointed", ".journal");
+    journal.delete();
+    bytes = MaskerBenchmark.corpus(20000, new Random(49));
+    Files.write(bytes, input);
+  }
+
+  @After public void tearDown() {
+    input.delete();
+    output.delete();
+    journal.delete();
+  }
+
+  @Test public void matchesStreamMasker() throws IOException {
+    masker(null).mask(input, output, journal);
+    assertArrayEquals(streamMasked(bytes), Files.toByteArray(output));
+    // a checkpoint after each interval (rounded up to a chunk) and one at the end
+    int records = (int) ((journal.length() - CheckpointJournal.HEADER_SIZE)
+        / CheckpointJournal.RECORD_SIZE);
+    assertTrue(records > bytes.length / (2 * INTERVAL));
+    assertTrue(inputOffset(0) >= INTERVAL);
+    assertEquals(bytes.length, inputOffset(records - 1));
+  }
+
+  @Test public void resumesFromLastCheckpoint() throws IOException {
+    List<Long> allSpans = Lists.newArrayList();
+    List<String> all = Lists.newArrayList();
+    masker(recorder(all, allSpans)).mask(input, output, journal);
+
+    // as if killed after the second checkpoint, partway through writing the third
+    long journalLength = CheckpointJournal.HEADER_SIZE + 2 * CheckpointJournal.RECORD_SIZE;
+    truncate(journal, journalLength + 10);
+    long resumeOffset = inputOffset(1);
+    RandomAccessFile out = new RandomAccessFile(output, "rw");
+    try {
+      out.seek(resumeOffset + 1000);
+      out.write("partial garbage".getBytes("US-ASCII"));
+      out.setLength(resumeOffset + 5000);
+    } finally {
+      out.close();
+    }
+
+    List<Long> resumedSpans = Lists.newArrayList();
+    List<String> resumed = Lists.newArrayList();
+    masker(recorder(resumed, resumedSpans)).mask(input, output, journal);
+    assertArrayEquals(streamMasked(bytes), Files.toByteArray(output));
+
+    assertTrue(resumedSpans.get(0) >= resumeOffset);
+    int firstResumed = allSpans.indexOf(resumedSpans.get(0));
+    assertEquals(all.subList(firstResumed, all.size()), resumed);
+  }
+
+  @Test public void finishedJobIsNotRerun() throws IOException {
+    masker(null).mask(input, output, journal);
+    long journalLength = journal.length();
+
+    List<Long> spans = Lists.newArrayList();
+    masker(recorder(Lists.<String>newArrayList(), spans)).mask(input, output, journal);
+    assertEquals(0, spans.size());
+    assertEquals(journalLength, journal.length());
+    assertArrayEquals(streamMasked(bytes), Files.toByteArray(output));
+  }
+
+  @Test public void changedOutputIsNotResumed() throws IOException {
+    masker(null).mask(input, output, journal);
+    RandomAccessFile out = new RandomAccessFile(output, "rw");
+    try {
+      out.seek(output.length() - 10);
+      out.write('!');
+    } finally {
+      out.close();
+    }
+
+    try {
+      masker(null).mask(input, output, journal);
+      fail();
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage().contains("doesn't match"));
+    }
+  }
+
+  @Test public void changedInputIsNotResumed() throws IOException {
+    masker(null).mask(input, output, journal);
+    Files.write("4111 1111 1111 1111\n".getBytes("US-ASCII"), input);
+
+    try {
+      masker(null).mask(input, output, journal);
+      fail();
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage().contains("different input"));
+    }
+  }
+
+  @Test public void emptyInput() throws IOException {
+    Files.write(new byte[0], input);
+    masker(null).mask(input, output, journal);
+    masker(null).mask(input, output, journal);
+    assertEquals(0, output.length());
+    assertEquals(CheckpointJournal.HEADER_SIZE + CheckpointJournal.RECORD_SIZE, journal.length());
+  }
+
+  private static CheckpointedFileMasker masker(MaskListener listener) {
+    return new CheckpointedFileMasker(listener, RangeMasker.ALL, INTERVAL);
+  }
+
+  /**
+   * Returns the input offset of the given checkpoint in the journal.
+   */
+  private long inputOffset(int checkpoint) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(journal, "r");
+    try {
+      file.seek(CheckpointJournal.HEADER_SIZE + checkpoint * CheckpointJournal.RECORD_SIZE);
+      return file.readLong();
+    } finally {
+      file.close();
+    }
+  }
+
+  private static void truncate(File file, long length) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(length);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static byte[] streamMasked(byte[] bytes) {
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    LuhnMaskers.newBasicMasker().run(ByteStreams.newInputStreamSupplier(bytes), expected);
+    return expected.toByteArray();
+  }
+
+  private static MaskListener recorder(final List<String> spans, final List<Long> offsets) {
+    return new MaskListener() {
+      @Override public void masked(long offset, long line, int column, int length) {
+        spans.add(offset + "/" + line + "/" + column + "/" + length);
+        offsets.add(offset);
+      }
+
+      @Override public void finished() {
+      }
+    };
+  }
+}
@@ -0,0 +1,178 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class FramedRecordMaskerTest {
+
+  @Test public void masksEachPayloadAsALine() throws IOException {
+    List<String> records = Arrays.asList(
+        "a 4111 1111 1111 1111 b",
+        "multi-line\n4111111111111111\nrecord",
+        "",
+        "no card 1234");
+    for (RecordFraming framing : RecordFraming.values()) {
+      assertArrayEquals(expected(framing, records),
+          mask(LuhnMaskers.builder(), framing, frame(framing, records)));
+    }
+  }
+
+  @Test public void numbersDontSpanRecords() throws IOException {
+    List<String> records = Arrays.asList("4111 1111", "1111 1111");
+    byte[] framed = frame(RecordFraming.VARINT, records);
+    assertArrayEquals(framed, mask(LuhnMaskers.builder(), RecordFraming.VARINT, framed));
+  }
+
+  @Test public void framingBytesPassThrough() throws IOException {
+    // a payload of 49 bytes has the length header 0, 0, 0, '1', which would make the payload's 15
+    // digits a 16-digit number that passes the Luhn check if it were masked along with them
+    String payload = "906828836075983" + Strings.repeat(" ", 34);
+    byte[] framed = frame(RecordFraming.FIXED_32, Arrays.asList(payload));
+    assertEquals('1', framed[3]);
+    assertArrayEquals(framed, mask(LuhnMaskers.builder(), RecordFraming.FIXED_32, framed));
+  }
+
+  @Test public void parallelBatchesMatchSingleThread() throws IOException {
+    Random random = new Random(50);
+    List<String> records = Arrays.asList(new String[5000]);
+    for (int i = 0; i < records.size(); i++) {
+      String text = new String(MaskerBenchmark.corpus(1 + random.nextInt(5), random),
+          Charsets.UTF_8);
+      // some records bigger than a chunk, so that chunks have to grow
+      records.set(i, i % 1000 == 999 ? Strings.repeat(text, 2000) : text);
+    }
+    for (RecordFraming framing : RecordFraming.values()) {
+      byte[] framed = frame(framing, records);
+      byte[] expected = expected(framing, records);
+      assertArrayEquals(expected, mask(LuhnMaskers.builder(), framing, framed));
+      assertArrayEquals(expected,
+          mask(LuhnMaskers.builder().multithreaded(2), framing, framed));
+      assertArrayEquals(expected,
+          mask(LuhnMaskers.builder(), framing, new TrickleInputStream(framed, 7)));
+    }
+  }
+
+  @Test public void reportsRecordNumbersAndColumns() throws IOException {
+    final StringBuilder spans = new StringBuilder();
+    MaskListener listener = new MaskListener() {
+      @Override public void masked(long offset, long line, int column, int length) {
+        spans.append(offset).append('/').append(line).append('/').append(column).append('/')
+            .append(length).append(' ');
+      }
+
+      @Override public void finished() {
+        spans.append("finished");
+      }
+    };
+    List<String> records = Arrays.asList("no card", "a\n4111111111111111", "4111111111111111");
+    mask(LuhnMaskers.builder().listener(listener), RecordFraming.VARINT,
+        frame(RecordFraming.VARINT, records));
+    assertEquals("11/2/3/16 28/3/1/16 finished", spans.toString());
+  }
+
+  @Test public void truncatedLastRecordIsStillMasked() throws IOException {
+    List<String> records = Arrays.asList("first", "a 4111 1111 1111 1111 b");
+    byte[] framed = frame(RecordFraming.FIXED_32, records);
+    byte[] expected = expected(RecordFraming.FIXED_32, records);
+    int cut = framed.length - " b".length();
+    assertArrayEquals(Arrays.copyOf(expected, cut), mask(LuhnMaskers.builder(),
+        RecordFraming.FIXED_32, Arrays.copyOf(framed, cut)));
+
+    // only part of a header is left as it is
+    byte[] partialHeader = Arrays.copyOf(frame(RecordFraming.FIXED_32, records), 9 + 2);
+    assertArrayEquals(partialHeader,
+        mask(LuhnMaskers.builder(), RecordFraming.FIXED_32, partialHeader));
+  }
+
+  @Test public void malformedVarintFails() {
+    byte[] framed = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1, 'a'};
+    try {
+      mask(LuhnMaskers.builder(), RecordFraming.VARINT, framed);
+      fail();
+    } catch (IOException expected) {
+      assertEquals("Malformed record length at offset 0", expected.getMessage());
+    }
+  }
+
+  private static byte[] mask(LuhnMaskers.Builder builder, RecordFraming framing, byte[] input)
+      throws IOException {
+    return mask(builder, framing, new ByteArrayInputStream(input));
+  }
+
+  private static byte[] mask(LuhnMaskers.Builder builder, RecordFraming framing,
+      InputStream input) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    builder.buildFramedMasker(framing).mask(input, out);
+    return out.toByteArray();
+  }
+
+  private static byte[] frame(RecordFraming framing, List<String> records) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (String record : records) {
+      byte[] payload = record.getBytes(Charsets.UTF_8);
+      writeHeader(framing, payload.length, out);
+      out.write(payload, 0, payload.length);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Frames the given records with each payload masked on its own, as a line.
+   */
+  private static byte[] expected(RecordFraming framing, List<String> records) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (String record : records) {
+      byte[] payload = record.getBytes(Charsets.UTF_8);
+      LuhnLineMasker.mask(payload, 0, payload.length);
+      writeHeader(framing, payload.length, out);
+      out.write(payload, 0, payload.length);
+    }
+    return out.toByteArray();
+  }
+
+  private static void writeHeader(RecordFraming framing, int length, ByteArrayOutputStream out) {
+    if (framing == RecordFraming.FIXED_32) {
+      out.write(length >>> 24);
+      out.write(length >>> 16);
+      out.write(length >>> 8);
+      out.write(length);
+    } else {
+      while ((length & ~0x7F) != 0) {
+        out.write((length & 0x7F) | 0x80);
+        length >>>= 7;
+      }
+      out.write(length);
+    }
+  }
+
+  /**
+   * Returns at most a few bytes from each read, so that headers and payloads are split across
+   * reads.
+   */
+  private static final class TrickleInputStream extends ByteArrayInputStream {
+
+    private final int maxRead;
+
+    TrickleInputStream(byte[] bytes, int maxRead) {
+      super(bytes);
+      this.maxRead = maxRead;
+    }
+
+    @Override public synchronized int read(byte[] b, int off, int len) {
+      return super.read(b, off, Math.min(len, maxRead));
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+public class JfrMaskTracerTest {
+
+  @Test public void eventsAreRecorded() throws Exception {
+    assumeTrue(hasFlightRecorder());
+    JfrMaskTracer tracer = JfrMaskTracer.create();
+
+    // the recording API is used reflectively too, since it may not be there to compile against
+    Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+    Object recording = recordingClass.newInstance();
+    recordingClass.getMethod("start").invoke(recording);
+    tracer.slowLine(5000, 40, 2, 1);
+    tracer.readerBlocked(7000);
+    tracer.writerBlocked(9000);
+    recordingClass.getMethod("stop").invoke(recording);
+
+    File file = File.createTempFile("tracer", ".jfr");
+    try {
+      Object path = File.class.getMethod("toPath").invoke(file);
+      Class<?> pathClass = Class.forName("java.nio.file.Path");
+      recordingClass.getMethod("dump", pathClass).invoke(recording, path);
+      recordingClass.getMethod("close").invoke(recording);
+
+      List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+          .getMethod("readAllEvents", pathClass).invoke(null, path);
+      List<String> recorded = Lists.newArrayList();
+      for (Object event : events) {
+        Object type = event.getClass().getMethod("getEventType").invoke(event);
+        String name = (String) type.getClass().getMethod("getName").invoke(type);
+        if (name.startsWith("com.cgdecker.luhnybin.")) {
+          recorded.add(name.substring("com.cgdecker.luhnybin.".length()) + fields(event, name));
+        }
+      }
+      assertEquals(Arrays.asList("SlowLine 5000/40/2/1", "ReaderBlocked 7000",
+          "WriterBlocked 9000"), recorded);
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test public void unavailableWithoutFlightRecorder() {
+    assumeTrue(!hasFlightRecorder());
+    assertNull(JfrMaskTracer.create());
+  }
+
+  private static String fields(Object event, String name) throws Exception {
+    Method getLong = event.getClass().getMethod("getLong", String.class);
+    Method getInt = event.getClass().getMethod("getInt", String.class);
+    if (name.endsWith("SlowLine")) {
+      return " " + getLong.invoke(event, "maskTime") + "/" + getInt.invoke(event, "length") + "/"
+          + getInt.invoke(event, "digitRuns") + "/" + getInt.invoke(event, "matches");
+    }
+    return " " + getLong.invoke(event, "blockedTime");
+  }
+
+  private static boolean hasFlightRecorder() {
+    try {
+      Class.forName("jdk.jfr.EventFactory");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JsonLineMaskerTest {
+
+  private static final JsonFields SKIP_TIMES = JsonFields.allExcept(ImmutableList.of("ts", "*_id"));
+
+  @Test public void scansStringAndNumberValues() {
+    assertMask(SKIP_TIMES,
+        "{\"msg\": \"card 7230 3161 3748 4124\", \"n\": 6853371389452376, \"ok\": true}",
+        "{\"msg\": \"card XXXX XXXX XXXX XXXX\", \"n\": XXXXXXXXXXXXXXXX, \"ok\": true}");
+  }
+
+  @Test public void skipsSafeKeys() {
+    assertMask(SKIP_TIMES,
+        "{\"ts\":56613959932537,\"request_id\":\"6853371389452376\",\"x\":[56613959932537]}",
+        "{\"ts\":56613959932537,\"request_id\":\"6853371389452376\",\"x\":[XXXXXXXXXXXXXX]}");
+  }
+
+  @Test public void onlyScansMatchingKeys() {
+    JsonFields fields = JsonFields.only(ImmutableList.of("card*"), ImmutableList.<String>of());
+    assertMask(fields,
+        "{\"card\":{\"cardNumber\":\"6853371389452376\"},\"other\":\"6853371389452376\"}",
+        "{\"card\":{\"cardNumber\":\"XXXXXXXXXXXXXXXX\"},\"other\":\"6853371389452376\"}");
+  }
+
+  @Test public void nestedValuesInheritTheirObjectsKey() {
+    JsonFields fields = JsonFields.only(ImmutableList.of("card"), ImmutableList.of("*_id"));
+    assertMask(fields,
+        "{\"card\":{\"number\":\"4111111111111111\",\"token_id\":\"4111111111111111\","
+            + "\"prev\":[{\"number\":6853371389452376}]},\"number\":\"4111111111111111\"}",
+        "{\"card\":{\"number\":\"XXXXXXXXXXXXXXXX\",\"token_id\":\"4111111111111111\","
+            + "\"prev\":[{\"number\":XXXXXXXXXXXXXXXX}]},\"number\":\"4111111111111111\"}");
+    // everything under a safe key is skipped, even keys that would otherwise be scanned
+    assertMask(SKIP_TIMES,
+        "{\"ts\":{\"unix\":56613959932537},\"x\":{\"y\":56613959932537}}",
+        "{\"ts\":{\"unix\":56613959932537},\"x\":{\"y\":XXXXXXXXXXXXXX}}");
+  }
+
+  @Test public void neverScansKeys() {
+    assertMask(SKIP_TIMES,
+        "{\"6853371389452376\":1}",
+        "{\"6853371389452376\":1}");
+  }
+
+  @Test public void scansWholeLineIfNotJson() {
+    assertMask(SKIP_TIMES,
+        "ts=56613959932537 {\"ts\":56613959932537}\n{\"ts\":56613959932537, broken\r\n[1]",
+        "ts=XXXXXXXXXXXXXX {\"ts\":XXXXXXXXXXXXXX}\n{\"ts\":XXXXXXXXXXXXXX, broken\r\n[1]");
+  }
+
+  @Test public void reportsSpansOnceForLateSyntaxError() {
+    // valid JSON up to the error, so the value has been parsed before the line is scanned in full
+    byte[] buffer = bytes("{\"card\":\"4111111111111111\", \"n\": [6853371389452376, broken");
+    MaskSpans spans = new MaskSpans();
+    new JsonLineMasker(SKIP_TIMES).mask(buffer, 0, buffer.length, spans);
+    assertEquals("{\"card\":\"XXXXXXXXXXXXXXXX\", \"n\": [XXXXXXXXXXXXXXXX, broken",
+        new String(buffer, Charsets.UTF_8));
+    assertEquals(2, spans.size());
+    assertEquals(9, spans.start(0));
+    assertEquals(25, spans.end(0));
+  }
+
+  @Test public void preservesEscapesAndWhitespace() {
+    assertMask(SKIP_TIMES,
+        " { \"a\\\"b\" : [ \"\\\"56613959932537\\\\\" , null ] }\r",
+        " { \"a\\\"b\" : [ \"\\\"XXXXXXXXXXXXXX\\\\\" , null ] }\r");
+  }
+
+  @Test public void keyPatterns() {
+    byte[] key = "latency_ms".getBytes(Charsets.UTF_8);
+    assertTrue(JsonFields.matches(bytes("*_ms"), key, 0, key.length));
+    assertTrue(JsonFields.matches(bytes("lat*"), key, 0, key.length));
+    assertTrue(JsonFields.matches(bytes("*ten*"), key, 0, key.length));
+    assertTrue(JsonFields.matches(bytes("latency_ms"), key, 0, key.length));
+    assertFalse(JsonFields.matches(bytes("latency"), key, 0, key.length));
+    assertFalse(JsonFields.matches(bytes("*_s"), key, 0, key.length));
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(Charsets.UTF_8);
+  }
+
+  private static void assertMask(JsonFields fields, String in, String expectedOut) {
+    byte[] buffer = bytes(in);
+    new JsonLineMasker(fields).mask(buffer, 0, buffer.length, null);
+    assertEquals(expectedOut, new String(buffer, Charsets.UTF_8));
+  }
+}
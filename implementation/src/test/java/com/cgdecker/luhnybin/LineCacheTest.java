@@ -0,0 +1,133 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LineCacheTest {
+
+  private static final String REPEATED = "health check ok 2012-01-01 12:00:00\n"
+      + "retrying card 4111 1111 1111 1111 (attempt 3)\n"
+      + "request id 20120101120000123 done\n";
+
+  @Test public void cachedLinesAreMaskedTheSame() throws Exception {
+    byte[] input = MaskerBenchmark.corpus(5000, new Random(11));
+    LineCache cache = LineCache.create(1024);
+    assertEquals(mask(LuhnMaskers.builder(), input),
+        mask(LuhnMaskers.builder().lineCache(cache), input));
+  }
+
+  @Test public void repeatedLinesHit() throws Exception {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      builder.append(REPEATED);
+    }
+    byte[] input = builder.toString().getBytes(Charsets.UTF_8);
+    LineCache cache = LineCache.create(1024);
+
+    MaskingService service = LuhnMaskers.builder().lineCache(cache).multithreaded(2).buildService();
+    service.startAndWait();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    service.run(ByteStreams.newInputStreamSupplier(input), out);
+    service.stopAndWait();
+
+    assertEquals(mask(LuhnMaskers.builder(), input), out.toString("UTF-8"));
+    // the health check line has no run of 14 digits, so it's never looked up, and the card line
+    // is masked, so it's never cached
+    assertEquals(101, cache.missCount());
+    assertEquals(99, cache.hitCount());
+    assertEquals(0, cache.evictionCount());
+  }
+
+  @Test public void cachedSpansAreReported() throws Exception {
+    byte[] input = (REPEATED + REPEATED).getBytes(Charsets.UTF_8);
+    String expected = "50/2/15/19 166/5/15/19 ";
+    assertEquals(expected, spans(LuhnMaskers.builder(), input));
+    assertEquals(expected, spans(LuhnMaskers.builder().lineCache(LineCache.create(16)), input));
+  }
+
+  @Test public void leastRecentlyUsedLinesAreEvicted() throws Exception {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      builder.append("id 20120101120000123 attempt ").append(i).append('\n');
+    }
+    byte[] input = builder.toString().getBytes(Charsets.UTF_8);
+    LineCache cache = LineCache.create(64);
+    assertEquals(mask(LuhnMaskers.builder(), input),
+        mask(LuhnMaskers.builder().lineCache(cache), input));
+    assertEquals(1000, cache.missCount());
+    assertTrue(cache.evictionCount() >= 1000 - 64);
+  }
+
+  @Test public void repeatedMalformedJsonIsMaskedEveryTime() throws Exception {
+    byte[] input = ("{\"card\":\"4111111111111111\", broken\n"
+        + "{\"card\":\"4111111111111111\", broken\n").getBytes(Charsets.UTF_8);
+    JsonFields fields = JsonFields.allExcept(ImmutableList.of("ts"));
+    String masked = mask(LuhnMaskers.builder().jsonFields(fields), input);
+    assertEquals("{\"card\":\"XXXXXXXXXXXXXXXX\", broken\n"
+        + "{\"card\":\"XXXXXXXXXXXXXXXX\", broken\n", masked);
+    assertEquals(masked,
+        mask(LuhnMaskers.builder().jsonFields(fields).lineCache(LineCache.create(64)), input));
+  }
+
+  @Test public void maskedLinesArentCached() throws Exception {
+    byte[] input = "card 4111111111111111\ncard 4111111111111111\n".getBytes(Charsets.UTF_8);
+    LineCache cache = LineCache.create(16);
+    assertEquals("card XXXXXXXXXXXXXXXX\ncard XXXXXXXXXXXXXXXX\n",
+        mask(LuhnMaskers.builder().lineCache(cache), input));
+    assertEquals(2, cache.missCount());
+    assertEquals(0, cache.hitCount());
+  }
+
+  @Test public void linesWithUnreportedChangesArentCached() {
+    // masks every digit but reports nothing, so a cached line would be left in the clear
+    RangeMasker unreported = new RangeMasker() {
+      @Override public void mask(byte[] buffer, int offset, int length, MaskSpans spans) {
+        for (int i = offset; i < offset + length; i++) {
+          if (buffer[i] >= '0' && buffer[i] <= '9') {
+            buffer[i] = 'X';
+          }
+        }
+      }
+
+      @Override public boolean mayMask(byte[] buffer, int start, int end) {
+        return true;
+      }
+    };
+    LineCache cache = LineCache.create(16);
+    RangeMasker masker = new CachingRangeMasker(unreported, cache);
+    for (int i = 0; i < 2; i++) {
+      byte[] line = "card 4111111111111111".getBytes(Charsets.UTF_8);
+      masker.mask(line, 0, line.length, new MaskSpans());
+      assertEquals("card XXXXXXXXXXXXXXXX", new String(line, Charsets.UTF_8));
+    }
+    assertEquals(0, cache.hitCount());
+  }
+
+  private static String spans(LuhnMaskers.Builder builder, byte[] input) {
+    final StringBuilder masked = new StringBuilder();
+    builder.listener(new MaskListener() {
+      @Override public void masked(long offset, long line, int column, int length) {
+        masked.append(offset).append('/').append(line).append('/').append(column).append('/')
+            .append(length).append(' ');
+      }
+
+      @Override public void finished() {
+      }
+    }).build().run(ByteStreams.newInputStreamSupplier(input), new ByteArrayOutputStream());
+    return masked.toString();
+  }
+
+  private static String mask(LuhnMaskers.Builder builder, byte[] input) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    builder.build().run(ByteStreams.newInputStreamSupplier(input), out);
+    return out.toString("UTF-8");
+  }
+}
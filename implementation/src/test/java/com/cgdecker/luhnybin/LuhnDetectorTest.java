@@ -0,0 +1,63 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LuhnDetectorTest {
+
+  @Test public void containsCard() {
+    assertTrue(LuhnDetector.containsCard("java.lang.FakeException: 7230 3161 3748 4124 is a card"));
+    assertFalse(LuhnDetector.containsCard("4111 1111 1111 111 doesn't have enough digits."));
+    assertFalse(LuhnDetector.containsCard("99929316122852072"));
+
+    byte[] bytes = "caf\u00e9 6853371389452376!".getBytes(Charsets.UTF_8);
+    assertTrue(LuhnDetector.containsCard(bytes, 0, bytes.length));
+    assertFalse(LuhnDetector.containsCard(bytes, 0, 10));
+  }
+
+  @Test public void firstMatch() {
+    assertEquals(new LuhnDetector.Match(25, 19),
+        LuhnDetector.firstMatch("java.lang.FakeException: 7230 3161 3748 4124 is a card"));
+    assertEquals(new LuhnDetector.Match(3, 16), LuhnDetector.firstMatch("9875610591081018250321"));
+    assertNull(LuhnDetector.firstMatch("no card"));
+
+    byte[] bytes = "x 56613959932537 abc 56613959932537".getBytes(Charsets.UTF_8);
+    assertEquals(new LuhnDetector.Match(21, 14), LuhnDetector.firstMatch(bytes, 5, 30));
+  }
+
+  @Test public void allMatches() {
+    Iterator<LuhnDetector.Match> matches =
+        LuhnDetector.matches("56613959932537x56613959932537 and 1256613959932537");
+    assertEquals(ImmutableList.of(
+        new LuhnDetector.Match(0, 14),
+        new LuhnDetector.Match(15, 14),
+        new LuhnDetector.Match(36, 14)),
+        ImmutableList.copyOf(matches));
+
+    assertEquals(1000 - 13,
+        ImmutableList.copyOf(LuhnDetector.matches(Strings.repeat("0", 1000))).size());
+  }
+
+  @Test public void agreesWithMasker() {
+    Random random = new Random(7);
+    for (int i = 0; i < 2000; i++) {
+      StringBuilder line = new StringBuilder();
+      for (int j = random.nextInt(60); j > 0; j--) {
+        line.append(random.nextInt(15) == 0 ? ' ' : (char) ('0' + random.nextInt(10)));
+      }
+      String text = line.toString();
+      boolean masked = !LuhnTextMasker.mask(text).equals(text);
+      assertEquals(text, masked, LuhnDetector.containsCard(text));
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LuhnTextMaskerTest {
+
+  @Test public void returnsSameStringIfNothingMasked() {
+    String text = "request 1234567890123 took 12ms; " + Strings.repeat("1", 13);
+    assertSame(text, LuhnTextMasker.mask(text));
+
+    StringBuilder builder = new StringBuilder(text);
+    assertSame(builder, LuhnTextMasker.mask(builder));
+  }
+
+  @Test public void masksStrings() {
+    assertEquals("java.lang.FakeException: XXXX XXXX XXXX XXXX is a card #.",
+        LuhnTextMasker.mask("java.lang.FakeException: 7230 3161 3748 4124 is a card #."));
+    assertEquals("987XXXXXXXXXXXXXXXX321", LuhnTextMasker.mask("9875610591081018250321"));
+    assertEquals(Strings.repeat("X", 1000), LuhnTextMasker.mask(Strings.repeat("0", 1000)));
+  }
+
+  @Test public void masksBuilderInPlace() {
+    StringBuilder builder = new StringBuilder("a 1256613959932537 b");
+    assertTrue(LuhnTextMasker.maskInPlace(builder));
+    assertEquals("a 12XXXXXXXXXXXXXX b", builder.toString());
+    assertFalse(LuhnTextMasker.maskInPlace(builder));
+  }
+
+  @Test public void matchesLineMasker() throws IOException {
+    Random random = new Random(42);
+    for (int i = 0; i < 2000; i++) {
+      String line = randomLine(random);
+      assertEquals(line, new String(LuhnLineMasker.mask(line)), LuhnTextMasker.mask(line));
+    }
+  }
+
+  @Test public void formatterMasksOutput() {
+    MaskingFormatter formatter = new MaskingFormatter(new Formatter() {
+      @Override public String format(LogRecord record) {
+        return formatMessage(record) + "\n";
+      }
+    });
+    LogRecord record = new LogRecord(Level.WARNING, "charging {0}");
+    record.setParameters(new Object[] {"6853-3713-8945-2376"});
+    assertEquals("charging XXXX-XXXX-XXXX-XXXX\n", formatter.format(record));
+  }
+
+  /**
+   * Builds a line of digits, separators and letters dense enough in digits to hit plenty of valid
+   * and overlapping numbers.
+   */
+  private static String randomLine(Random random) {
+    StringBuilder line = new StringBuilder();
+    int length = random.nextInt(80);
+    for (int i = 0; i < length; i++) {
+      int kind = random.nextInt(20);
+      if (kind == 0) {
+        line.append(' ');
+      } else if (kind == 1) {
+        line.append('-');
+      } else if (kind == 2) {
+        line.append('a');
+      } else {
+        line.append((char) ('0' + random.nextInt(10)));
+      }
+    }
+    return line.toString();
+  }
+}
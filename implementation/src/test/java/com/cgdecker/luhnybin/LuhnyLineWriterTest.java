@@ -15,6 +15,8 @@ import static org.junit.Assert.assertEquals;
  */
 public class LuhnyLineWriterTest {
 
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
   @Test public void testValid14DigitNumber() throws IOException {
     assertMask("56613959932537", "XXXXXXXXXXXXXX");
   }
@@ -54,6 +56,26 @@ public class LuhnyLineWriterTest {
         "6312638493661363789472853119005759533684587544905521619973644932068188360230935532527154743335848839828851725990500810593000543831317039087810708642627656248593831467340319746493667735850698061656232601253373883359630621836093141133991929057879765926391300406046612472508020764791071576643968751949234096676834526277439709984870269141329285061574782953237760758295720941151514468351845775514483469687366714407861921160700515433541143929484443589677725808211529690117826740565406860603578795506374754938886883394184975357884774215036729806632553736333309563850022252781000711011148711394078414811937738780731241621683795853521771664147013018034521271169167731506107805861547087691469801680542097550235003841947219728890046861059486726595366379845969363514941276722650021497487336440464577768279961313965853790009235325434748508904052465204408049513481666570134026749562373843891353223425778914829516173676629660442526568660809351338271262538718112151213388955059832308272340118506811182287868286077699");
   }
 
+  @Test public void bytesOutsideAsciiPassThrough() {
+    assertMaskBytes("prix: 7230 3161 3748 4124 \u20ac, caf\u00e9\n\u65e5\u672c 56613959932537\r\n",
+        "prix: XXXX XXXX XXXX XXXX \u20ac, caf\u00e9\n\u65e5\u672c XXXXXXXXXXXXXX\r\n");
+  }
+
+  @Test public void basicMaskerPreservesRawBytes() throws IOException {
+    String in = "caf\u00e9 6853371389452376\r\nno card\n\u00fcber 56613959932537";
+    String expectedOut = "caf\u00e9 XXXXXXXXXXXXXXXX\r\nno card\n\u00fcber XXXXXXXXXXXXXX";
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LuhnMaskers.newBasicMasker().run(
+        ByteStreams.newInputStreamSupplier(in.getBytes(UTF_8)), out);
+    assertEquals(expectedOut, new String(out.toByteArray(), UTF_8));
+  }
+
+  private static void assertMaskBytes(String in, String expectedOut) {
+    byte[] bytes = in.getBytes(UTF_8);
+    LuhnLineMasker.mask(bytes, 0, bytes.length);
+    assertEquals(expectedOut, new String(bytes, UTF_8));
+  }
+
   private static void assertMask(String in, String expectedOut) {
     String result;
     try {
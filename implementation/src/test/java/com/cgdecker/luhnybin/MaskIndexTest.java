@@ -0,0 +1,80 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MaskIndexTest {
+
+  private static final String INPUT = "no card here\n"
+      + "caf\u00e9 7230 3161 3748 4124 and 56613959932537\r\n"
+      + Strings.repeat("0", 100) + "\n"
+      + "end 6853371389452376";
+
+  @Test public void basicMaskerIndex() throws Exception {
+    assertExpectedEntries(new IndexedRun() {
+      @Override RawLuhnMasker masker(MaskListener listener) {
+        return LuhnMaskers.builder().listener(listener).build();
+      }
+    }.index(INPUT));
+  }
+
+  @Test public void multithreadedMaskerIndex() throws Exception {
+    assertExpectedEntries(new IndexedRun() {
+      @Override RawLuhnMasker masker(MaskListener listener) {
+        return LuhnMaskers.builder().multithreaded(2).listener(listener).build();
+      }
+    }.index(INPUT));
+  }
+
+  private static void assertExpectedEntries(List<MaskIndex.Entry> entries) {
+    assertEquals(4, entries.size());
+    assertEquals(new MaskIndex.Entry(19, 2, 7, 19), entries.get(0));
+    assertEquals(new MaskIndex.Entry(43, 2, 31, 14), entries.get(1));
+    assertEquals(new MaskIndex.Entry(59, 3, 1, 100), entries.get(2));
+    assertEquals(new MaskIndex.Entry(164, 4, 5, 16), entries.get(3));
+  }
+
+  private abstract static class IndexedRun {
+
+    abstract RawLuhnMasker masker(MaskListener listener);
+
+    List<MaskIndex.Entry> index(String input) throws Exception {
+      final CountDownLatch closed = new CountDownLatch(1);
+      ByteArrayOutputStream index = new ByteArrayOutputStream() {
+        @Override public void close() {
+          closed.countDown();
+        }
+      };
+
+      masker(MaskIndex.newWriter(index)).run(
+          ByteStreams.newInputStreamSupplier(input.getBytes(Charsets.UTF_8)),
+          new ByteArrayOutputStream());
+      assertTrue(closed.await(10, TimeUnit.SECONDS));
+
+      return readAll(index.toByteArray());
+    }
+  }
+
+  private static List<MaskIndex.Entry> readAll(byte[] index) throws IOException {
+    List<MaskIndex.Entry> entries = new ArrayList<MaskIndex.Entry>();
+    MaskIndex.Reader reader = new MaskIndex.Reader(new ByteArrayInputStream(index));
+    MaskIndex.Entry entry;
+    while ((entry = reader.next()) != null) {
+      entries.add(entry);
+    }
+    return entries;
+  }
+}
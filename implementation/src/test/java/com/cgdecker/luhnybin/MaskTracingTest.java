@@ -0,0 +1,83 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MaskTracingTest {
+
+  private final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+
+  private final MaskTracer tracer = new MaskTracer() {
+    @Override public void slowLine(long nanos, int length, int digitRuns, int matches) {
+      assertTrue(nanos >= 0);
+      lines.add(length + "/" + digitRuns + "/" + matches);
+    }
+
+    @Override public void readerBlocked(long nanos) {
+    }
+
+    @Override public void writerBlocked(long nanos) {
+    }
+  };
+
+  @After public void tearDown() {
+    MaskTracing.uninstall();
+  }
+
+  @Test public void reportsEveryMaskedLineAtZeroThreshold() throws Exception {
+    MaskTracing.install(tracer, 0, TimeUnit.NANOSECONDS);
+    String input = "no card\n"
+        + "4111 1111 1111 1111 and 56613959932537\n"
+        + "12345678901234\n";
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LuhnMaskers.newBasicMasker().run(
+        ByteStreams.newInputStreamSupplier(input.getBytes(Charsets.UTF_8)), out);
+
+    assertEquals("no card\n"
+        + "XXXX XXXX XXXX XXXX and XXXXXXXXXXXXXX\n"
+        + "12345678901234\n", out.toString("UTF-8"));
+    // the first line has no run of digits, so it's never masked
+    assertEquals(Arrays.asList("38/2/2", "14/1/0"), lines);
+  }
+
+  @Test public void charLines() throws Exception {
+    MaskTracing.install(tracer, 0, TimeUnit.NANOSECONDS);
+    assertEquals("XXXXXXXXXXXXXX", new String(LuhnLineMasker.mask("56613959932537")));
+    assertEquals(Arrays.asList("14/1/1"), lines);
+  }
+
+  @Test public void jsonLinesAreReportedWhole() throws Exception {
+    MaskTracing.install(tracer, 0, TimeUnit.NANOSECONDS);
+    String input = "{\"ts\":1,\"card\":\"4111111111111111\"}\n"
+        + "ts 1 card 4111111111111111\n";
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LuhnMaskers.builder().jsonFields(JsonFields.allExcept(ImmutableList.of("ts"))).build().run(
+        ByteStreams.newInputStreamSupplier(input.getBytes(Charsets.UTF_8)), out);
+
+    assertEquals("{\"ts\":1,\"card\":\"XXXXXXXXXXXXXXXX\"}\n"
+        + "ts 1 card XXXXXXXXXXXXXXXX\n", out.toString("UTF-8"));
+    // once per line, not once per value
+    assertEquals(Arrays.asList("34/1/1", "26/1/1"), lines);
+  }
+
+  @Test public void nothingReportedUnderThreshold() throws Exception {
+    MaskTracing.install(tracer, 1, TimeUnit.HOURS);
+    LuhnLineMasker.mask("4111 1111 1111 1111");
+    assertEquals(0, lines.size());
+  }
+}
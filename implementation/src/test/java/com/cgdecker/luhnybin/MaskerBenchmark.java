@@ -0,0 +1,322 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Stopwatch;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rough throughput benchmarks for the maskers. Not a test; run the main method with the test
+ * classpath.
+ */
+public class MaskerBenchmark {
+
+  private static final int WARMUP_RUNS = 5;
+  private static final int RUNS = 10;
+
+  public static void main(String[] args) {
+    byte[] corpus = corpus(200000, new Random(0xC0FFEE));
+    System.out.printf("Corpus: %,d bytes%n", corpus.length);
+    final MaskingService service = LuhnMaskers.builder().multithreaded(2).buildService();
+    service.startAndWait();
+
+    benchmark("decode/encode (US-ASCII reader/writer)", corpus, new Task() {
+      @Override public void run(byte[] input) {
+        LuhnMaskers.newBasicMasker().run(
+            CharStreams.newReaderSupplier(ByteStreams.newInputStreamSupplier(input),
+                Charsets.US_ASCII),
+            new BufferedWriter(new OutputStreamWriter(new NullOutputStream(), Charsets.US_ASCII)));
+      }
+    });
+
+    benchmark("raw bytes", corpus, new Task() {
+      @Override public void run(byte[] input) {
+        LuhnMaskers.newBasicMasker().run(
+            ByteStreams.newInputStreamSupplier(input), new NullOutputStream());
+      }
+    });
+
+    benchmark("raw bytes, MaskingService (2 threads)", corpus, new Task() {
+      @Override public void run(byte[] input) {
+        service.run(ByteStreams.newInputStreamSupplier(input), new NullOutputStream());
+      }
+    });
+    benchmarkServiceAllocation(corpus);
+    service.stopAndWait();
+
+    benchmarkFiles(logFile(logMessages(200000, new Random(9))));
+    benchmarkFiles(logFile(quietLogMessages(200000, new Random(9))));
+
+    String[] messages = logMessages(20000, new Random(7));
+    int threads = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+    benchmarkAllocation("LuhnLineMasker.mask(String)", messages, threads, new StringTask() {
+      @Override public String run(String message) throws IOException {
+        return new String(LuhnLineMasker.mask(message));
+      }
+    });
+    benchmarkAllocation("LuhnTextMasker.mask(String)", messages, threads, new StringTask() {
+      @Override public String run(String message) {
+        return LuhnTextMasker.mask(message);
+      }
+    });
+  }
+
+  /**
+   * Masks the given messages repeatedly on several threads at once, reporting how much each thread
+   * allocated per message. Requires a HotSpot JVM.
+   */
+  private static void benchmarkAllocation(String name, final String[] messages, int threads,
+      final StringTask task) {
+    final com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    final AtomicLong allocated = new AtomicLong();
+    final CountDownLatch done = new CountDownLatch(threads);
+
+    Stopwatch stopwatch = new Stopwatch().start();
+    for (int t = 0; t < threads; t++) {
+      new Thread(new Runnable() {
+        @Override public void run() {
+          try {
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+              maskAll(messages, task);
+            }
+            long id = Thread.currentThread().getId();
+            long before = threadBean.getThreadAllocatedBytes(id);
+            for (int i = 0; i < RUNS; i++) {
+              maskAll(messages, task);
+            }
+            allocated.addAndGet(threadBean.getThreadAllocatedBytes(id) - before);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+    Uninterruptibles.awaitUninterruptibly(done);
+    long millis = Math.max(stopwatch.elapsedMillis(), 1);
+
+    long operations = (long) messages.length * RUNS * threads;
+    System.out.printf("%-45s %,8.1f bytes/message  (%d threads, %,d ms incl. warmup)%n",
+        name, (double) allocated.get() / operations, threads, millis);
+  }
+
+  /**
+   * Compares masking a file to a file by stream copy, with overlapped I/O and by
+   * {@code transferTo}.
+   */
+  private static void benchmarkFiles(byte[] input) {
+    try {
+      final File in = File.createTempFile("benchmark", ".in");
+      final File out = File.createTempFile("benchmark", ".out");
+      try {
+        Files.write(input, in);
+        System.out.printf("Log file: %,d bytes%n", input.length);
+        benchmark("file to file, stream copy", input, new Task() {
+          @Override public void run(byte[] ignored) {
+            try {
+              OutputStream stream = new FileOutputStream(out);
+              try {
+                LuhnMaskers.newBasicMasker().run(Files.newInputStreamSupplier(in), stream);
+              } finally {
+                stream.close();
+              }
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+        benchmark("file to file, overlapped (3 buffers)", input, new Task() {
+          @Override public void run(byte[] ignored) {
+            try {
+              LuhnMaskers.builder().buildOverlappedFileMasker().mask(in, out);
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+        benchmark("file to file, sparse (transferTo)", input, new Task() {
+          @Override public void run(byte[] ignored) {
+            try {
+              LuhnMaskers.builder().buildFileMasker().mask(in, out);
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+      } finally {
+        in.delete();
+        out.delete();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns the given number of log messages, of which only one in 10,000 contains a card number.
+   */
+  private static String[] quietLogMessages(int count, Random random) {
+    String[] messages = logMessages(count, random);
+    for (int i = 0; i < messages.length; i++) {
+      if (i % 10000 != 0 && LuhnDetector.containsCard(messages[i])) {
+        messages[i] = messages[i].replaceAll("[0-9]", "7");
+      }
+    }
+    return messages;
+  }
+
+  private static byte[] logFile(String[] messages) {
+    StringBuilder builder = new StringBuilder();
+    for (String message : messages) {
+      builder.append(message).append('\n');
+    }
+    return builder.toString().getBytes(Charsets.UTF_8);
+  }
+
+  /**
+   * Masks the corpus repeatedly with a multithreaded service, reporting how much all threads
+   * together allocated per megabyte of input. Requires a HotSpot JVM.
+   */
+  private static void benchmarkServiceAllocation(byte[] input) {
+    com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    MaskingService service = LuhnMaskers.builder().multithreaded(2).buildService();
+    service.startAndWait();
+    for (int i = 0; i < WARMUP_RUNS; i++) {
+      service.run(ByteStreams.newInputStreamSupplier(input), new NullOutputStream());
+    }
+
+    long[] ids = threadBean.getAllThreadIds();
+    long before = sum(threadBean.getThreadAllocatedBytes(ids));
+    for (int i = 0; i < RUNS; i++) {
+      service.run(ByteStreams.newInputStreamSupplier(input), new NullOutputStream());
+    }
+    long allocated = sum(threadBean.getThreadAllocatedBytes(ids)) - before;
+    service.stopAndWait();
+
+    double megabytes = (double) input.length * RUNS / (1024 * 1024);
+    System.out.printf("%-45s %,8.1f bytes/MB of input%n",
+        "MaskingService allocation (all threads)", allocated / megabytes);
+  }
+
+  private static long sum(long[] values) {
+    long sum = 0;
+    for (long value : values) {
+      sum += Math.max(value, 0);
+    }
+    return sum;
+  }
+
+  private static void maskAll(String[] messages, StringTask task) throws IOException {
+    for (String message : messages) {
+      if (task.run(message) == null)
+        throw new AssertionError();
+    }
+  }
+
+  private static void benchmark(String name, byte[] input, Task task) {
+    for (int i = 0; i < WARMUP_RUNS; i++) {
+      task.run(input);
+    }
+
+    Stopwatch stopwatch = new Stopwatch().start();
+    for (int i = 0; i < RUNS; i++) {
+      task.run(input);
+    }
+    long millis = Math.max(stopwatch.elapsedMillis(), 1);
+    double megabytesPerSecond = (double) input.length * RUNS / millis / 1000;
+    System.out.printf("%-45s %,8d ms  %,8.1f MB/s%n", name, millis / RUNS, megabytesPerSecond);
+  }
+
+  /**
+   * Builds log-like input: mostly text with timestamps and ids, some non-ASCII text, and an
+   * occasional formatted credit card number.
+   */
+  static byte[] corpus(int lines, Random random) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      builder.append(1321000000000L + random.nextInt(1000000000))
+          .append(" INFO  [worker-").append(random.nextInt(16)).append("] request ")
+          .append(Math.abs(random.nextLong()))
+          .append(" completed in ").append(random.nextInt(5000)).append("ms");
+      if (random.nextInt(10) == 0) {
+        builder.append(" utilisateur: J\u00e9r\u00f4me \u65e5\u672c");
+      }
+      if (random.nextInt(100) == 0) {
+        builder.append(" card ").append(cardNumber(random));
+      }
+      builder.append('\n');
+    }
+    return builder.toString().getBytes(Charsets.UTF_8);
+  }
+
+  /**
+   * Builds typical application log messages, 1% of which contain a card number.
+   */
+  static String[] logMessages(int count, Random random) {
+    String[] messages = new String[count];
+    for (int i = 0; i < count; i++) {
+      String message = "user " + random.nextInt(100000) + " checked out order "
+          + random.nextInt(Integer.MAX_VALUE) + " in " + random.nextInt(5000) + "ms";
+      if (random.nextInt(100) == 0) {
+        message += " with card " + cardNumber(random);
+      }
+      messages[i] = message;
+    }
+    return messages;
+  }
+
+  /**
+   * Returns a random 16 digit number that passes the Luhn check, formatted with spaces.
+   */
+  static String cardNumber(Random random) {
+    int[] digits = new int[16];
+    int sum = 0;
+    for (int i = 0; i < 15; i++) {
+      digits[i] = random.nextInt(10);
+      // the check digit is last, so digits at even indices are the ones that get doubled
+      int value = i % 2 == 0 ? digits[i] * 2 : digits[i];
+      sum += value > 9 ? value - 9 : value;
+    }
+    digits[15] = (10 - sum % 10) % 10;
+
+    StringBuilder number = new StringBuilder();
+    for (int i = 0; i < 16; i++) {
+      if (i > 0 && i % 4 == 0)
+        number.append(' ');
+      number.append(digits[i]);
+    }
+    return number.toString();
+  }
+
+  private interface Task {
+    void run(byte[] input);
+  }
+
+  private interface StringTask {
+    String run(String message) throws IOException;
+  }
+
+  private static final class NullOutputStream extends OutputStream {
+    @Override public void write(int b) {
+    }
+
+    @Override public void write(byte[] b, int off, int len) {
+    }
+  }
+}
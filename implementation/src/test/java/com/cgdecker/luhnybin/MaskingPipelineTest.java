@@ -0,0 +1,233 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.InputSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.io.CharStreams.newReaderSupplier;
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MaskingPipelineTest {
+
+  private static final String INPUT = "a 4111 1111 1111 1111 b\n"
+      + "no card\n"
+      + "order 1234567890123 in 12ms\n"
+      + "56613959932537\n";
+  private static final String EXPECTED = "a XXXX XXXX XXXX XXXX b\n"
+      + "no card\n"
+      + "order 1234567890123 in 12ms\n"
+      + "XXXXXXXXXXXXXX\n";
+
+  private final AtomicInteger tasks = new AtomicInteger();
+  private ExecutorService workers;
+  private ExecutorService io;
+  private MaskingPipeline pipeline;
+
+  @Before public void setUp() {
+    workers = new ThreadPoolExecutor(2, 2, 0, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>()) {
+      @Override public void execute(Runnable task) {
+        tasks.incrementAndGet();
+        super.execute(task);
+      }
+    };
+    io = Executors.newCachedThreadPool();
+    pipeline = new MaskingPipeline(workers, io, RangeMasker.ALL, false);
+  }
+
+  @After public void tearDown() {
+    workers.shutdown();
+    io.shutdown();
+  }
+
+  @Test public void onlyCandidateLinesGoToWorkers() throws Exception {
+    StringWriter out = new StringWriter();
+    pipeline.start(newReaderSupplier(INPUT), out).get(10, TimeUnit.SECONDS);
+    assertEquals(EXPECTED, out.toString());
+    assertEquals(2, tasks.get());
+  }
+
+  @Test public void chunksWithNothingToMaskSkipWorkers() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    String input = "no card\norder 1234567890123 in 12ms\n";
+    pipeline.start(ByteStreams.newInputStreamSupplier(input.getBytes(Charsets.UTF_8)), out, null)
+        .get(10, TimeUnit.SECONDS);
+    assertEquals(input, out.toString("UTF-8"));
+    assertEquals(0, tasks.get());
+  }
+
+  @Test public void skippedChunksKeepLineNumbers() throws Exception {
+    final StringBuilder masked = new StringBuilder();
+    MaskListener listener = new MaskListener() {
+      @Override public void masked(long offset, long line, int column, int length) {
+        masked.append(offset).append('/').append(line).append('/').append(column).append('/')
+            .append(length).append(' ');
+      }
+
+      @Override public void finished() {
+      }
+    };
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    pipeline.start(oneLinePerRead(INPUT), out, listener).get(10, TimeUnit.SECONDS);
+    assertEquals(EXPECTED, out.toString("UTF-8"));
+    assertEquals("2/1/3/19 60/4/1/14 ", masked.toString());
+    assertEquals(2, tasks.get());
+  }
+
+  @Test public void onlyLinesThatMayNeedMaskingAreMasked() throws Exception {
+    final StringBuilder masked = new StringBuilder();
+    RangeMasker recording = new RangeMasker() {
+      @Override public void mask(byte[] buffer, int offset, int length, MaskSpans spans) {
+        masked.append('[').append(new String(buffer, offset, length, Charsets.UTF_8)).append(']');
+        RangeMasker.ALL.mask(buffer, offset, length, spans);
+      }
+
+      @Override public boolean mayMask(byte[] buffer, int start, int end) {
+        return RangeMasker.ALL.mayMask(buffer, start, end);
+      }
+    };
+    byte[] input = (INPUT + "a 4111 1111 1111 1111 b\n").getBytes(Charsets.UTF_8);
+    LineChunk chunk = new LineChunk(input, input.length, false);
+    chunk.mask(recording);
+    assertEquals(EXPECTED + "a XXXX XXXX XXXX XXXX b\n", new String(input, Charsets.UTF_8));
+    // consecutive lines are masked together
+    assertEquals("[a 4111 1111 1111 1111 b\n][56613959932537\na 4111 1111 1111 1111 b\n]",
+        masked.toString());
+  }
+
+  @Test public void readFailureWaitsForWriter() throws Exception {
+    final IOException failure = new IOException("read failed");
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch readFailed = new CountDownLatch(1);
+    InputSupplier<InputStream> in = new InputSupplier<InputStream>() {
+      @Override public InputStream getInput() {
+        return new InputStream() {
+          private boolean first = true;
+
+          @Override public int read() {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (first) {
+              first = false;
+              b[off] = '\n';
+              return 1;
+            }
+            // fail only once the first line is being written
+            awaitUninterruptibly(writing);
+            readFailed.countDown();
+            throw failure;
+          }
+        };
+      }
+    };
+    final CountDownLatch release = new CountDownLatch(1);
+    OutputStream out = new OutputStream() {
+      @Override public void write(int b) {
+        writing.countDown();
+        awaitUninterruptibly(release);
+      }
+
+      @Override public void write(byte[] b, int off, int len) {
+        writing.countDown();
+        awaitUninterruptibly(release);
+      }
+    };
+
+    Future<Void> run = pipeline.start(in, out, null);
+    assertTrue(readFailed.await(10, TimeUnit.SECONDS));
+    try {
+      run.get(100, TimeUnit.MILLISECONDS);
+      fail("completed while the writer was still writing");
+    } catch (TimeoutException expected) {
+    }
+    release.countDown();
+    try {
+      run.get(10, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertSame(failure, e.getCause());
+    }
+  }
+
+  @Test public void prefilterAgreesWithFullScan() {
+    Random random = new Random(48);
+    String alphabet = "0123456789 -x\n";
+    for (int n = 0; n < 20000; n++) {
+      StringBuilder line = new StringBuilder();
+      int length = random.nextInt(60);
+      for (int i = 0; i < length; i++) {
+        // mostly digits, so that runs of every length up to and past 14 turn up
+        line.append(random.nextInt(4) == 0
+            ? alphabet.charAt(10 + random.nextInt(4))
+            : alphabet.charAt(random.nextInt(10)));
+      }
+      String text = line.toString();
+      byte[] bytes = ("999" + text + "999").getBytes(Charsets.US_ASCII);
+      boolean expected = hasRun(text);
+      assertEquals(text, expected, LuhnLineMasker.hasPossibleNumber(text));
+      assertEquals(text, expected, LuhnLineMasker.hasPossibleNumber(bytes, 3, bytes.length - 3));
+    }
+  }
+
+  /**
+   * Returns a supplier of streams that return at most one line from each read, so that each line
+   * becomes a chunk of its own.
+   */
+  private static InputSupplier<InputStream> oneLinePerRead(String input) {
+    final byte[] bytes = input.getBytes(Charsets.UTF_8);
+    return new InputSupplier<InputStream>() {
+      @Override public InputStream getInput() {
+        return new ByteArrayInputStream(bytes) {
+          @Override public synchronized int read(byte[] b, int off, int len) {
+            int lineEnd = pos;
+            while (lineEnd < count && buf[lineEnd] != '\n') {
+              lineEnd++;
+            }
+            return super.read(b, off, Math.min(len, lineEnd - pos + 1));
+          }
+        };
+      }
+    };
+  }
+
+  private static boolean hasRun(String text) {
+    int digits = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (Character.isDigit(c)) {
+        if (++digits == 14)
+          return true;
+      } else if (c != ' ' && c != '-') {
+        digits = 0;
+      }
+    }
+    return false;
+  }
+}
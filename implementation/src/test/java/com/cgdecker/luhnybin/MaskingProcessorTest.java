@@ -0,0 +1,170 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MaskingProcessorTest {
+
+  @Test public void masksLinesSplitAcrossBuffers() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      MaskingProcessor processor = LuhnMaskers.builder().buildProcessor(executor);
+      ListPublisher publisher = new ListPublisher(
+          "first 6853", "3713894", "52376 line\nsecond line\nthi", "rd 5661395993253", "7");
+      CollectingSubscriber subscriber = new CollectingSubscriber(1);
+      publisher.subscribe(processor);
+      processor.subscribe(subscriber);
+
+      assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+      assertEquals(null, subscriber.error);
+      assertEquals("first XXXXXXXXXXXXXXXX line\nsecond line\nthird XXXXXXXXXXXXXX",
+          subscriber.output());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test public void onlyRequestsInputWhenThereIsDemand() {
+    MaskingProcessor processor =
+        LuhnMaskers.builder().buildProcessor(MoreExecutors.sameThreadExecutor());
+    ListPublisher publisher = new ListPublisher("a\n", "b\n", "c\n");
+    CollectingSubscriber subscriber = new CollectingSubscriber(0);
+    publisher.subscribe(processor);
+    processor.subscribe(subscriber);
+
+    assertEquals(0, publisher.requested);
+    subscriber.subscription.request(1);
+    assertEquals(MaskingProcessor.BATCH_SIZE, publisher.requested);
+    assertEquals(1, subscriber.buffers.size());
+
+    subscriber.subscription.request(5);
+    assertEquals("a\nb\nc\n", subscriber.output());
+    assertEquals(0, subscriber.done.getCount());
+  }
+
+  @Test public void propagatesUpstreamErrors() {
+    MaskingProcessor processor =
+        LuhnMaskers.builder().buildProcessor(MoreExecutors.sameThreadExecutor());
+    CollectingSubscriber subscriber = new CollectingSubscriber(1);
+    processor.subscribe(subscriber);
+    processor.onSubscribe(new Subscription() {
+      @Override public void request(long n) {}
+      @Override public void cancel() {}
+    });
+    IllegalStateException failure = new IllegalStateException();
+    processor.onError(failure);
+    assertEquals(failure, subscriber.error);
+  }
+
+  @Test public void rejectedExecutionFailsTheSubscriber() {
+    MaskingProcessor processor = LuhnMaskers.builder().buildProcessor(new Executor() {
+      @Override public void execute(Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    });
+    ListPublisher publisher = new ListPublisher("a 4111111111111111\n");
+    publisher.subscribe(processor);
+    CollectingSubscriber subscriber = new CollectingSubscriber(1);
+    processor.subscribe(subscriber);
+
+    assertTrue(subscriber.error instanceof RejectedExecutionException);
+    assertEquals(0, subscriber.done.getCount());
+    assertEquals("", subscriber.output());
+  }
+
+  /**
+   * Publishes the given strings as buffers, as they are requested, on the requesting thread.
+   */
+  private static final class ListPublisher implements Publisher<ByteBuffer> {
+    private final String[] items;
+    private int next;
+    long requested;
+
+    ListPublisher(String... items) {
+      this.items = items;
+    }
+
+    @Override public void subscribe(final Subscriber<? super ByteBuffer> subscriber) {
+      subscriber.onSubscribe(new Subscription() {
+        @Override public void request(long n) {
+          requested += n;
+          for (long i = 0; i < n && next < items.length; i++) {
+            subscriber.onNext(ByteBuffer.wrap(items[next++].getBytes(Charsets.UTF_8)));
+          }
+          if (next == items.length) {
+            next++;
+            subscriber.onComplete();
+          }
+        }
+
+        @Override public void cancel() {}
+      });
+    }
+  }
+
+  private static final class CollectingSubscriber implements Subscriber<ByteBuffer> {
+    private final long requestEach;
+    final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+    final CountDownLatch done = new CountDownLatch(1);
+    volatile Subscription subscription;
+    volatile Throwable error;
+
+    /**
+     * @param requestEach the number to request on subscribing and after each item, or 0 to leave
+     *     requesting to the test
+     */
+    CollectingSubscriber(long requestEach) {
+      this.requestEach = requestEach;
+    }
+
+    @Override public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+      if (requestEach > 0) {
+        subscription.request(requestEach);
+      }
+    }
+
+    @Override public synchronized void onNext(ByteBuffer buffer) {
+      buffers.add(buffer);
+      if (requestEach > 0) {
+        subscription.request(requestEach);
+      }
+    }
+
+    @Override public void onError(Throwable throwable) {
+      error = throwable;
+      done.countDown();
+    }
+
+    @Override public void onComplete() {
+      done.countDown();
+    }
+
+    synchronized String output() {
+      StringBuilder result = new StringBuilder();
+      for (ByteBuffer buffer : buffers) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        result.append(new String(bytes, Charsets.UTF_8));
+      }
+      return result.toString();
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.InputSupplier;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.io.CharStreams.newReaderSupplier;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MaskingServiceTest {
+
+  private static final String INPUT = "a 4111 1111 1111 1111 b\n"
+      + "no card\n"
+      + "56613959932537\n";
+  private static final String EXPECTED = "a XXXX XXXX XXXX XXXX b\n"
+      + "no card\n"
+      + "XXXXXXXXXXXXXX\n";
+
+  private MaskingService service;
+
+  @Before public void setUp() {
+    service = LuhnMaskers.builder().multithreaded(2).buildService();
+    service.startAndWait();
+  }
+
+  @After public void tearDown() {
+    service.stopAndWait();
+  }
+
+  @Test public void concurrentRunsShareTheService() throws Exception {
+    List<ByteArrayOutputStream> outs = new ArrayList<ByteArrayOutputStream>();
+    List<ListenableFuture<Void>> runs = new ArrayList<ListenableFuture<Void>>();
+    for (int i = 0; i < 10; i++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      outs.add(out);
+      runs.add(service.submit(ByteStreams.newInputStreamSupplier(bigInput()), out));
+    }
+
+    for (int i = 0; i < runs.size(); i++) {
+      runs.get(i).get(10, TimeUnit.SECONDS);
+      assertEquals(bigExpected(), outs.get(i).toString("UTF-8"));
+    }
+  }
+
+  @Test public void lineRuns() throws Exception {
+    StringWriter out = new StringWriter();
+    service.run(newReaderSupplier(INPUT), out);
+    assertEquals(EXPECTED, out.toString());
+  }
+
+  @Test public void failurePropagates() throws Exception {
+    final IOException failure = new IOException("boom");
+    ListenableFuture<Void> run = service.submit(new InputSupplier<InputStream>() {
+      @Override public InputStream getInput() throws IOException {
+        throw failure;
+      }
+    }, new ByteArrayOutputStream());
+
+    try {
+      run.get(10, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException expected) {
+      assertSame(failure, expected.getCause());
+    }
+
+    // the service is still usable after a failed run
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    service.run(ByteStreams.newInputStreamSupplier(INPUT.getBytes(Charsets.UTF_8)), out);
+    assertEquals(EXPECTED, out.toString("UTF-8"));
+  }
+
+  @Test public void stopDrainsRunsInProgress() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ListenableFuture<Void> run = service.submit(
+        ByteStreams.newInputStreamSupplier(bigInput()), out);
+    service.stopAndWait();
+
+    assertTrue(run.isDone());
+    assertEquals(bigExpected(), out.toString("UTF-8"));
+  }
+
+  @Test public void submitAfterStopFails() {
+    service.stopAndWait();
+    try {
+      service.submit(ByteStreams.newInputStreamSupplier(new byte[0]), new ByteArrayOutputStream());
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    assertFalse(service.isRunning());
+  }
+
+  private static byte[] bigInput() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      builder.append(INPUT);
+    }
+    return builder.toString().getBytes(Charsets.UTF_8);
+  }
+
+  private static String bigExpected() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      builder.append(EXPECTED);
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,203 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultiplexedMaskerTest {
+
+  private static final String INPUT = "a 4111 1111 1111 1111 b\n"
+      + "no card\n"
+      + "56613959932537";
+  private static final String EXPECTED = "a XXXX XXXX XXXX XXXX b\n"
+      + "no card\n"
+      + "XXXXXXXXXXXXXX";
+
+  private MultiplexedMasker masker;
+
+  @After public void tearDown() {
+    masker.stopAndWait();
+  }
+
+  @Test public void manyStreamsKeepTheirOwnOrder() throws Exception {
+    start(2);
+    List<ByteArrayOutputStream> outs = new ArrayList<ByteArrayOutputStream>();
+    List<MultiplexedMasker.Stream> streams = new ArrayList<MultiplexedMasker.Stream>();
+    for (int i = 0; i < 50; i++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      outs.add(out);
+      streams.add(masker.open(out, 1 + i % 3, null));
+    }
+
+    // interleave writes, splitting lines across writes
+    byte[] input = INPUT.getBytes(Charsets.UTF_8);
+    for (int round = 0; round < 200; round++) {
+      for (MultiplexedMasker.Stream stream : streams) {
+        stream.write(input, 0, 5);
+        stream.write(input, 5, input.length - 5);
+        stream.write('\n');
+      }
+    }
+    for (MultiplexedMasker.Stream stream : streams) {
+      stream.close();
+    }
+
+    String expected = repeat(EXPECTED + "\n", 200);
+    for (int i = 0; i < streams.size(); i++) {
+      streams.get(i).done().get(10, TimeUnit.SECONDS);
+      assertEquals(expected, outs.get(i).toString("UTF-8"));
+    }
+  }
+
+  @Test public void finalLineWithoutLineFeed() throws Exception {
+    start(1);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MultiplexedMasker.Stream stream = masker.open(out);
+    stream.write(INPUT.getBytes(Charsets.UTF_8));
+    stream.close();
+    stream.done().get(10, TimeUnit.SECONDS);
+    assertEquals(EXPECTED, out.toString("UTF-8"));
+  }
+
+  @Test public void noisyStreamDoesNotStarveOthers() throws Exception {
+    start(1);
+    final MultiplexedMasker.Stream noisy = masker.open(new ByteArrayOutputStream());
+    final AtomicBoolean stop = new AtomicBoolean();
+    Thread producer = new Thread(new Runnable() {
+      @Override public void run() {
+        byte[] line = (repeat("4111 1111 1111 1111 ", 100) + "\n").getBytes(Charsets.UTF_8);
+        try {
+          while (!stop.get()) {
+            noisy.write(line);
+          }
+          noisy.close();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    producer.start();
+
+    try {
+      for (int i = 0; i < 20; i++) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MultiplexedMasker.Stream quiet = masker.open(out);
+        quiet.write((INPUT + "\n").getBytes(Charsets.UTF_8));
+        quiet.close();
+        quiet.done().get(10, TimeUnit.SECONDS);
+        assertEquals(EXPECTED + "\n", out.toString("UTF-8"));
+      }
+      assertFalse(noisy.done().isDone());
+    } finally {
+      stop.set(true);
+      producer.join();
+    }
+  }
+
+  @Test public void failedOutputFailsOnlyThatStream() throws Exception {
+    start(2);
+    MultiplexedMasker.Stream broken = masker.open(new OutputStream() {
+      @Override public void write(int b) throws IOException {
+        throw new IOException("broken pipe");
+      }
+    });
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MultiplexedMasker.Stream healthy = masker.open(out);
+
+    broken.write((INPUT + "\n").getBytes(Charsets.UTF_8));
+    healthy.write((INPUT + "\n").getBytes(Charsets.UTF_8));
+    healthy.close();
+
+    ListenableFuture<Void> brokenDone = broken.done();
+    try {
+      brokenDone.get(10, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException expected) {
+      assertEquals("broken pipe", expected.getCause().getMessage());
+    }
+    try {
+      broken.write('x');
+      fail();
+    } catch (IOException expected) {
+    }
+    try {
+      broken.close();
+    } catch (IOException expected) {
+    }
+
+    healthy.done().get(10, TimeUnit.SECONDS);
+    assertEquals(EXPECTED + "\n", out.toString("UTF-8"));
+  }
+
+  @Test public void lineLongerThanBufferFails() throws Exception {
+    start(1);
+    MultiplexedMasker.Stream stream = masker.open(new ByteArrayOutputStream());
+    byte[] block = new byte[64 * 1024];
+    Arrays.fill(block, (byte) '1');
+    try {
+      for (int written = 0; written <= 2 * MultiplexedMasker.MAX_PENDING;
+          written += block.length) {
+        stream.write(block);
+      }
+      fail();
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage().startsWith("line longer than"));
+    }
+    stream.close();
+    stream.done().get(10, TimeUnit.SECONDS);
+  }
+
+  @Test public void streamFarBehindMasksInOrder() throws Exception {
+    start(1);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MultiplexedMasker.Stream stream = masker.open(out);
+    // several times the buffer, in writes that don't line up with lines or quanta
+    byte[] input = repeat(INPUT + "\n", 100000).getBytes(Charsets.UTF_8);
+    for (int off = 0; off < input.length; off += 7919) {
+      stream.write(input, off, Math.min(7919, input.length - off));
+    }
+    stream.close();
+    stream.done().get(30, TimeUnit.SECONDS);
+    assertEquals(repeat(EXPECTED + "\n", 100000), out.toString("UTF-8"));
+  }
+
+  @Test public void openAfterStopFails() {
+    start(1);
+    masker.stopAndWait();
+    try {
+      masker.open(new ByteArrayOutputStream());
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    assertTrue(!masker.isRunning());
+  }
+
+  private void start(int threads) {
+    masker = LuhnMaskers.builder().multithreaded(threads).buildMultiplexer();
+    masker.startAndWait();
+  }
+
+  private static String repeat(String s, int times) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      builder.append(s);
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,99 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class NumberDetectorsTest {
+
+  @Test public void luhnDetectorMasksLikeDefault() throws Exception {
+    byte[] input = MaskerBenchmark.corpus(5000, new Random(13));
+    assertEquals(mask(LuhnMaskers.builder(), input),
+        mask(LuhnMaskers.builder().detectors(NumberDetectors.luhn()), input));
+
+    StringBuilder builder = new StringBuilder();
+    for (String message : MaskerBenchmark.logMessages(5000, new Random(17))) {
+      builder.append(message).append('\n');
+    }
+    builder.append("0000-0000-0000-0000 4111-1111-1111-11110 56613959932537")
+        .append(" 5 6 6 1 3 9 5 9 9 3 2 5 3 7\n");
+    input = builder.toString().getBytes(Charsets.UTF_8);
+    assertEquals(spans(LuhnMaskers.builder(), input),
+        spans(LuhnMaskers.builder().detectors(NumberDetectors.luhn()), input));
+  }
+
+  @Test public void ibansAreMasked() throws Exception {
+    LuhnMaskers.Builder builder = LuhnMaskers.builder().detectors(NumberDetectors.iban());
+    assertEquals("to XXXX XXXX XXXX XXXX XXXX XX, ok\n",
+        mask(builder, "to DE89 3704 0044 0532 0130 00, ok\n"));
+    assertEquals("iban=XXXXXXXXXXXXXXXXXXXXXX\n", mask(builder, "iban=GB82WEST12345698765432\n"));
+    // wrong check digits, lowercase, double spaces and a number followed by more letters
+    assertEquals("DE88 3704 0044 0532 0130 00\n", mask(builder, "DE88 3704 0044 0532 0130 00\n"));
+    assertEquals("gb82west12345698765432\n", mask(builder, "gb82west12345698765432\n"));
+    assertEquals("DE89 3704  0044 0532 0130 00\n", mask(builder, "DE89 3704  0044 0532 0130 00\n"));
+    assertEquals("GB82WEST12345698765432AB\n", mask(builder, "GB82WEST12345698765432AB\n"));
+    // card numbers aren't masked unless the Luhn detector is used too
+    assertEquals("4111 1111 1111 1111\n", mask(builder, "4111 1111 1111 1111\n"));
+  }
+
+  @Test public void severalDetectorsInOnePass() throws Exception {
+    LuhnMaskers.Builder builder = LuhnMaskers.builder()
+        .detectors(NumberDetectors.luhn(), NumberDetectors.iban());
+    String input = "card 4111-1111-1111-1111 from GB82 WEST 1234 5698 7654 32\n";
+    assertEquals("card XXXX-XXXX-XXXX-XXXX from XXXX XXXX XXXX XXXX XXXX XX\n",
+        mask(builder, input));
+    assertEquals("5/1/6/19 30/1/31/27 ", spans(builder, input.getBytes(Charsets.UTF_8)));
+  }
+
+  @Test public void customLuhnLengths() throws Exception {
+    LuhnMaskers.Builder builder = LuhnMaskers.builder()
+        .detectors(ImmutableList.of(NumberDetectors.luhn(9, 9, " ")));
+    assertEquals("sin XXX XXX XXX\n", mask(builder, "sin 046 454 286\n"));
+    assertEquals("sin 046-454-286\n", mask(builder, "sin 046-454-286\n"));
+    assertEquals("4111 1111 1111 1111\n", mask(builder, "4111 1111 1111 1111\n"));
+  }
+
+  @Test public void cachedDetectorsMaskTheSame() throws Exception {
+    LuhnMaskers.Builder builder = LuhnMaskers.builder()
+        .detectors(NumberDetectors.luhn(), NumberDetectors.iban());
+    String lines = "";
+    for (int i = 0; i < 3; i++) {
+      lines += "paid 4111 1111 1111 1111 to DE89 3704 0044 0532 0130 00\n"
+          + "ref 20120101120000123\n";
+    }
+    byte[] input = lines.getBytes(Charsets.UTF_8);
+    LineCache cache = LineCache.create(16);
+    assertEquals(mask(builder, input), mask(builder.lineCache(cache), input));
+    assertEquals(2, cache.hitCount());
+  }
+
+  private static String mask(LuhnMaskers.Builder builder, String input) throws Exception {
+    return mask(builder, input.getBytes(Charsets.UTF_8));
+  }
+
+  private static String mask(LuhnMaskers.Builder builder, byte[] input) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    builder.build().run(ByteStreams.newInputStreamSupplier(input), out);
+    return out.toString("UTF-8");
+  }
+
+  private static String spans(LuhnMaskers.Builder builder, byte[] input) {
+    final StringBuilder masked = new StringBuilder();
+    builder.listener(new MaskListener() {
+      @Override public void masked(long offset, long line, int column, int length) {
+        masked.append(offset).append('/').append(line).append('/').append(column).append('/')
+            .append(length).append(' ');
+      }
+
+      @Override public void finished() {
+      }
+    }).build().run(ByteStreams.newInputStreamSupplier(input), new ByteArrayOutputStream());
+    return masked.toString();
+  }
+}
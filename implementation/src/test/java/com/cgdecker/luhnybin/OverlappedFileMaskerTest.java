@@ -0,0 +1,115 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class OverlappedFileMaskerTest {
+
+  private File input;
+  private File output;
+
+  @Before public void setUp() throws IOException {
+    input = File.createTempFile("overlapped", ".in");
+    output = File.createTempFile("overlapped", ".out");
+  }
+
+  @After public void tearDown() {
+    input.delete();
+    output.delete();
+  }
+
+  @Test public void matchesStreamMasker() throws IOException {
+    byte[] bytes = MaskerBenchmark.corpus(20000, new Random(23));
+    Files.write(bytes, input);
+    LuhnMaskers.builder().buildOverlappedFileMasker().mask(input, output);
+    assertArrayEquals(streamMasked(bytes), Files.toByteArray(output));
+  }
+
+  @Test public void linesSplitAcrossBuffers() throws IOException {
+    // small buffers, so most lines are cut off at the end of a read and some don't fit at all
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      builder.append(Strings.repeat("x", i % 7 * 13)).append(" 4111 1111 1111 1111 ")
+          .append(Strings.repeat("y", i % 5 * 31)).append('\n');
+    }
+    builder.append("4111111111111111");
+    byte[] bytes = builder.toString().getBytes("US-ASCII");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new OverlappedFileMasker(null, RangeMasker.ALL, false, 64)
+        .mask(new ByteArrayInputStream(bytes), out);
+    assertArrayEquals(streamMasked(bytes), out.toByteArray());
+  }
+
+  @Test public void reportsSpansInOrder() throws IOException {
+    byte[] bytes = MaskerBenchmark.corpus(2000, new Random(29));
+    final StringBuilder expected = new StringBuilder();
+    final StringBuilder actual = new StringBuilder();
+    LuhnMaskers.builder().listener(recorder(expected)).build()
+        .run(ByteStreams.newInputStreamSupplier(bytes), new ByteArrayOutputStream());
+    new OverlappedFileMasker(recorder(actual), RangeMasker.ALL, false, 4096)
+        .mask(new ByteArrayInputStream(bytes), new ByteArrayOutputStream());
+    assertEquals(expected.toString(), actual.toString());
+  }
+
+  @Test public void writeFailuresAreThrown() throws IOException {
+    byte[] bytes = MaskerBenchmark.corpus(2000, new Random(31));
+    OutputStream failing = new OutputStream() {
+      @Override public void write(int b) throws IOException {
+        throw new IOException("disk full");
+      }
+
+      @Override public void write(byte[] b, int off, int len) throws IOException {
+        throw new IOException("disk full");
+      }
+    };
+    try {
+      new OverlappedFileMasker(null, RangeMasker.ALL, false, 1024)
+          .mask(new ByteArrayInputStream(bytes), failing);
+      fail();
+    } catch (IOException expected) {
+      assertEquals("disk full", expected.getMessage());
+    }
+  }
+
+  @Test public void emptyInput() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LuhnMaskers.builder().buildOverlappedFileMasker()
+        .mask(new ByteArrayInputStream(new byte[0]), out);
+    assertEquals(0, out.size());
+  }
+
+  private static byte[] streamMasked(byte[] bytes) {
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    LuhnMaskers.newBasicMasker().run(ByteStreams.newInputStreamSupplier(bytes), expected);
+    return expected.toByteArray();
+  }
+
+  private static MaskListener recorder(final StringBuilder spans) {
+    return new MaskListener() {
+      @Override public void masked(long offset, long line, int column, int length) {
+        spans.append(offset).append('/').append(line).append('/').append(column).append('/')
+            .append(length).append(' ');
+      }
+
+      @Override public void finished() {
+        spans.append("finished");
+      }
+    };
+  }
+}
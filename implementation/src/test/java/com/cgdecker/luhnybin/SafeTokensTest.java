@@ -0,0 +1,97 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SafeTokensTest {
+
+  @Test public void keyedValuesAreSkipped() throws Exception {
+    SafeTokens tokens = SafeTokens.builder().key("ts=").key("id=").key("uid=").build();
+    LuhnMaskers.Builder builder = LuhnMaskers.builder().safeTokens(tokens);
+    assertEquals("ts=4111111111111111 uid=4111111111111111 card XXXXXXXXXXXXXXXX\n",
+        mask(builder, "ts=4111111111111111 uid=4111111111111111 card 4111111111111111\n"));
+    // keys must start a token
+    assertEquals("parts=XXXXXXXXXXXXXXXX\n", mask(builder, "parts=4111111111111111\n"));
+    assertEquals(2, tokens.tokenCount());
+    assertEquals(32, tokens.skippedDigitCount());
+  }
+
+  @Test public void safeTokensEndRuns() throws Exception {
+    LuhnMaskers.Builder builder = LuhnMaskers.builder()
+        .safeTokens(SafeTokens.builder().key("ts=").build());
+    // without the key, the 13 digit timestamp and the 3 digits before it would pass the check
+    assertEquals("XXX XXXXXXXXXXXXX\n", mask(LuhnMaskers.builder(), "411 1321000000008\n"));
+    assertEquals("411 ts=1321000000008\n", mask(builder, "411 ts=1321000000008\n"));
+  }
+
+  @Test public void shapesAreSkipped() throws Exception {
+    SafeTokens tokens = SafeTokens.builder().uuids().hexHashes(16).isoDateTimes().build();
+    LuhnMaskers.Builder builder = LuhnMaskers.builder().safeTokens(tokens);
+
+    String uuid = "request 41111111-1111-1111-1111-111111111111 done\n";
+    assertFalse(uuid.equals(mask(LuhnMaskers.builder(), uuid)));
+    assertEquals(uuid, mask(builder, uuid));
+
+    String hash = "commit 4111111111111111abcdef0123 card 4111111111111111\n";
+    assertEquals("commit 4111111111111111abcdef0123 card XXXXXXXXXXXXXXXX\n", mask(builder, hash));
+
+    String dateTime = "at 2011-11-14T12:30:00.123+01:00 and 2011-11-14 12:30 card 4111111111111111";
+    assertEquals("at 2011-11-14T12:30:00.123+01:00 and 2011-11-14 12:30 card XXXXXXXXXXXXXXXX\n",
+        mask(builder, dateTime + "\n"));
+
+    assertEquals(4, tokens.tokenCount());
+  }
+
+  @Test public void shapesMustBeWholeTokens() throws Exception {
+    LuhnMaskers.Builder builder = LuhnMaskers.builder()
+        .safeTokens(SafeTokens.builder().uuids().hexHashes(16).build());
+    // an all-digit token isn't a hash
+    assertEquals("XXXXXXXXXXXXXXXX\n", mask(builder, "4111111111111111\n"));
+    for (String notUuid : new String[] {"41111111-1111-1111-1111-111111111111x\n",
+        "41111111-1111-1111-1111-1111111111112\n"}) {
+      assertEquals(mask(LuhnMaskers.builder(), notUuid), mask(builder, notUuid));
+    }
+  }
+
+  @Test public void safeTokensApplyToJsonLines() throws Exception {
+    SafeTokens tokens = SafeTokens.builder().key("\"id\":").uuids().build();
+    LuhnMaskers.Builder builder = LuhnMaskers.builder().safeTokens(tokens)
+        .jsonFields(JsonFields.allExcept(ImmutableList.of("n")));
+    assertEquals("{\"id\":4111111111111111,\"card\":\"XXXXXXXXXXXXXXXX\","
+        + "\"req\":\"41111111-1111-1111-1111-111111111111\"}\n",
+        mask(builder, "{\"id\":4111111111111111,\"card\":\"4111111111111111\","
+            + "\"req\":\"41111111-1111-1111-1111-111111111111\"}\n"));
+    // a line that isn't JSON skips them too
+    assertEquals("{\"id\":4111111111111111, broken XXXXXXXXXXXXXXXX\n",
+        mask(builder, "{\"id\":4111111111111111, broken 4111111111111111\n"));
+    assertEquals(3, tokens.tokenCount());
+  }
+
+  @Test public void withoutSafeTokensMasksTheSame() throws Exception {
+    byte[] input = MaskerBenchmark.corpus(5000, new Random(19));
+    SafeTokens tokens = SafeTokens.builder().key("ts=").uuids().build();
+    assertEquals(mask(LuhnMaskers.builder(), input),
+        mask(LuhnMaskers.builder().safeTokens(tokens).adaptive(2), input));
+    assertEquals(0, tokens.tokenCount());
+    assertEquals(input.length, tokens.scannedByteCount());
+  }
+
+  private static String mask(LuhnMaskers.Builder builder, String input) throws Exception {
+    return mask(builder, input.getBytes(Charsets.UTF_8));
+  }
+
+  private static String mask(LuhnMaskers.Builder builder, byte[] input) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RawLuhnMasker masker = builder.build();
+    masker.run(ByteStreams.newInputStreamSupplier(input), out);
+    return out.toString("UTF-8");
+  }
+}
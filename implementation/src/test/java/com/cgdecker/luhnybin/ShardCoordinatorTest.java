@@ -0,0 +1,95 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardCoordinatorTest {
+
+  private File dir;
+  private File input;
+
+  @Before public void setUp() throws IOException {
+    dir = Files.createTempDir();
+    input = new File(dir, "input.txt");
+  }
+
+  @After public void tearDown() {
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  @Test public void rangesEndAtLineFeeds() throws IOException {
+    Files.write("aaaa\nbb\ncccccc\nd\neeee", input, Charsets.US_ASCII);
+    List<ShardCoordinator.Range> ranges = ShardCoordinator.split(input, 4);
+
+    long expectedStart = 0;
+    byte[] bytes = Files.toByteArray(input);
+    for (ShardCoordinator.Range range : ranges) {
+      assertEquals(expectedStart, range.start);
+      assertTrue(range.end > range.start);
+      if (range.end < bytes.length) {
+        assertEquals('\n', bytes[(int) range.end - 1]);
+      }
+      expectedStart = range.end;
+    }
+    assertEquals(bytes.length, expectedStart);
+  }
+
+  @Test public void emptyFileHasNoRanges() throws IOException {
+    Files.write(new byte[0], input);
+    assertEquals(0, ShardCoordinator.split(input, 4).size());
+  }
+
+  @Test public void workerJvmsMaskInOrder() throws IOException {
+    StringBuilder in = new StringBuilder();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      in.append("line ").append(i).append(": 4111 1111 1111 1111\n");
+      expected.append("line ").append(i).append(": XXXX XXXX XXXX XXXX\n");
+    }
+    in.append("56613959932537");
+    expected.append("XXXXXXXXXXXXXX");
+    Files.write(in, input, Charsets.UTF_8);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ShardCoordinator.create(2, ImmutableList.<String>of()).run(input, out);
+    assertEquals(expected.toString(), out.toString("UTF-8"));
+  }
+
+  @Test public void failedWorkerIsRetried() throws IOException {
+    Files.write("one\ntwo\nthree\n", input, Charsets.US_ASCII);
+    File marker = new File(dir, "failed-once");
+    // fails the first time it runs, then copies its input
+    List<String> command = ImmutableList.of("sh", "-c",
+        "if [ -e '" + marker + "' ]; then cat; else touch '" + marker + "'; exit 3; fi");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new ShardCoordinator(1, command).run(input, out);
+    assertEquals("one\ntwo\nthree\n", out.toString("US-ASCII"));
+  }
+
+  @Test public void workerThatAlwaysFailsFailsTheRun() throws IOException {
+    Files.write("one\n", input, Charsets.US_ASCII);
+    try {
+      new ShardCoordinator(1, ImmutableList.of("sh", "-c", "exit 3"))
+          .run(input, new ByteArrayOutputStream());
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+}
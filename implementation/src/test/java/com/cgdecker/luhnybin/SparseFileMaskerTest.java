@@ -0,0 +1,61 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class SparseFileMaskerTest {
+
+  private File input;
+  private File output;
+
+  @Before public void setUp() throws IOException {
+    input = File.createTempFile("sparse", ".in");
+    output = File.createTempFile("sparse", ".out");
+  }
+
+  @After public void tearDown() {
+    input.delete();
+    output.delete();
+  }
+
+  @Test public void matchesStreamMasker() throws IOException {
+    assertMatchesStreamMasker(MaskerBenchmark.corpus(20000, new Random(5)));
+  }
+
+  @Test public void sparseCards() throws IOException {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      builder.append(Strings.repeat("x", 10000)).append(" 4111 1111 1111 1111\n");
+    }
+    builder.append("4111111111111111");
+    assertMatchesStreamMasker(builder.toString().getBytes("US-ASCII"));
+  }
+
+  @Test public void noCards() throws IOException {
+    assertMatchesStreamMasker(Strings.repeat("nothing to see here\n", 10000).getBytes("US-ASCII"));
+  }
+
+  @Test public void emptyFile() throws IOException {
+    assertMatchesStreamMasker(new byte[0]);
+  }
+
+  private void assertMatchesStreamMasker(byte[] bytes) throws IOException {
+    Files.write(bytes, input);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    LuhnMaskers.newBasicMasker().run(ByteStreams.newInputStreamSupplier(bytes), expected);
+
+    LuhnMaskers.builder().buildFileMasker().mask(input, output);
+    assertArrayEquals(expected.toByteArray(), Files.toByteArray(output));
+  }
+}
@@ -0,0 +1,105 @@
+package com.cgdecker.luhnybin;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures how long short mask.sh-style runs take to write their first masked line, comparing
+ * {@link Main} in the shaded jar with {@link FastMain}, and with the class data sharing archive
+ * and native image if the build made them. Not a test; after {@code mvn package}, run the main
+ * method with the test classpath, passing the directory holding the jar if it isn't
+ * {@code target}.
+ */
+public class StartupBenchmark {
+
+  private static final int WARMUP_RUNS = 3;
+  private static final int RUNS = 20;
+  private static final int INPUT_LINES = 50;
+
+  public static void main(String[] args) throws Exception {
+    File target = new File(args.length > 0 ? args[0] : "target");
+    String jar = new File(target, "implementation-1.0.jar").getAbsolutePath();
+    File archive = new File(target, "luhnybin.jsa");
+    File image = new File(target, "luhnybin");
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+    byte[] input = MaskerBenchmark.corpus(INPUT_LINES, new Random(44));
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    LuhnMaskers.newBasicMasker().run(ByteStreams.newInputStreamSupplier(input), expected);
+    System.out.printf("Input: %,d bytes%n", input.length);
+
+    benchmark("java -jar (Main)", input, expected.toByteArray(), java, "-jar", jar);
+    benchmark("FastMain", input, expected.toByteArray(), java, "-XX:TieredStopAtLevel=1",
+        "-XX:+UseSerialGC", "-cp", jar, FastMain.class.getName());
+    if (archive.isFile()) {
+      benchmark("FastMain with AppCDS archive", input, expected.toByteArray(), java,
+          "-XX:SharedArchiveFile=" + archive.getAbsolutePath(), "-XX:TieredStopAtLevel=1",
+          "-XX:+UseSerialGC", "-cp", jar, FastMain.class.getName());
+    }
+    if (image.canExecute()) {
+      benchmark("native image", input, expected.toByteArray(), image.getAbsolutePath());
+    }
+  }
+
+  private static void benchmark(String name, byte[] input, byte[] expected, String... command)
+      throws IOException, InterruptedException {
+    for (int i = 0; i < WARMUP_RUNS; i++) {
+      run(input, expected, command);
+    }
+
+    long[] firstLines = new long[RUNS];
+    long[] exits = new long[RUNS];
+    for (int i = 0; i < RUNS; i++) {
+      long[] times = run(input, expected, command);
+      firstLines[i] = times[0];
+      exits[i] = times[1];
+    }
+    System.out.printf("%-30s first line %,6.1f ms  exit %,6.1f ms  (medians of %d)%n",
+        name, median(firstLines) / 1e6, median(exits) / 1e6, RUNS);
+  }
+
+  /**
+   * Runs the command once, returning the nanoseconds until the first line of output and until it
+   * exits.
+   */
+  private static long[] run(byte[] input, byte[] expected, String... command)
+      throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    Process process = new ProcessBuilder(command).start();
+    OutputStream stdin = process.getOutputStream();
+    stdin.write(input);
+    stdin.close();
+
+    InputStream stdout = process.getInputStream();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    long firstLine = -1;
+    int b;
+    while (firstLine == -1 && (b = stdout.read()) != -1) {
+      output.write(b);
+      if (b == '\n') {
+        firstLine = System.nanoTime() - start;
+      }
+    }
+    ByteStreams.copy(stdout, output);
+    int status = process.waitFor();
+    long exit = System.nanoTime() - start;
+
+    if (status != 0 || !Arrays.equals(expected, output.toByteArray()))
+      throw new AssertionError(Arrays.toString(command) + " exited with " + status
+          + " or wrote the wrong output");
+    return new long[] {firstLine, exit};
+  }
+
+  private static long median(long[] values) {
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+}
@@ -0,0 +1,24 @@
+package com.squareup.luhnybin;
+
+import com.cgdecker.luhnybin.LuhnMaskers;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class GeneratedCorpusTest {
+
+  @Test public void maskerMatchesExpectedOutput() throws IOException {
+    ByteArrayOutputStream input = new ByteArrayOutputStream();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    new CorpusGenerator(0xDEADBEEF).writeShard(0, 2 * 1024 * 1024, input, expected);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    LuhnMaskers.newBasicMasker().run(
+        ByteStreams.newInputStreamSupplier(input.toByteArray()), output);
+    assertArrayEquals(expected.toByteArray(), output.toByteArray());
+  }
+}
@@ -0,0 +1,15 @@
+#!/bin/sh
+
+# Like mask.sh, but starts as fast as possible, for short inputs: masks on a single thread with
+# the native image or class data sharing archive made by the build, if there is one.
+TARGET=$(cd "$(dirname "$0")/implementation/target" && pwd)
+
+if [ -x "$TARGET/luhnybin" ]; then
+  exec "$TARGET/luhnybin" "$@"
+fi
+
+if [ -f "$TARGET/luhnybin.jsa" ]; then
+  CDS="-XX:SharedArchiveFile=$TARGET/luhnybin.jsa"
+fi
+exec java $CDS -XX:TieredStopAtLevel=1 -XX:+UseSerialGC \
+    -cp "$TARGET/implementation-1.0.jar" com.cgdecker.luhnybin.FastMain "$@"
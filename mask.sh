@@ -1,3 +1,10 @@
 #!/bin/sh
 
+# Set LUHNYBIN_JFR to a file to record lines slower than LUHNYBIN_JFR_SLOW_MICROS (default 1000)
+# and blocked pipeline stages to it with Flight Recorder, for analyzing offline.
+if [ -n "$LUHNYBIN_JFR" ]; then
+  exec java -XX:StartFlightRecording=dumponexit=true,filename="$LUHNYBIN_JFR" \
+      -jar implementation/target/implementation-1.0.jar -m --jfr "${LUHNYBIN_JFR_SLOW_MICROS:-1000}"
+fi
+
 java -jar implementation/target/implementation-1.0.jar -m
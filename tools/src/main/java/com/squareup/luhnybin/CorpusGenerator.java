@@ -0,0 +1,267 @@
+package com.squareup.luhnybin;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates large corpora for load testing mask.sh: lines of text mixed with valid card #s (plain
+ * and formatted), long sequences of overlapping valid #s and sequences of digits with no valid #s,
+ * along with the output mask.sh should produce for them.
+ *
+ * <p>A corpus is made of independent shards. Each shard is generated from the corpus seed and its
+ * own index alone, so it's the same whether it's generated by itself, in parallel with others or
+ * on another machine. Every digit costs constant time (see {@link RollingLuhn}) and output goes
+ * straight through a small buffer, so a shard can be far larger than memory.
+ */
+public class CorpusGenerator {
+
+  private static final int MIN_LENGTH = 14;
+  private static final int MAX_LENGTH = 16;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final long seed;
+
+  public CorpusGenerator(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Writes about {@code bytes} bytes of the given shard to {@code input}, ending with a complete
+   * line, and what mask.sh should output for it to {@code expected} unless it's null. Neither
+   * stream is closed.
+   */
+  public void writeShard(int shard, long bytes, OutputStream input, OutputStream expected)
+      throws IOException {
+    ShardWriter writer = new ShardWriter(new Random(shardSeed(seed, shard)), input, expected);
+    while (writer.written < bytes) writer.line();
+    writer.flush();
+  }
+
+  /** Mixes the shard index into the seed so neighboring shards don't get related sequences. */
+  static long shardSeed(long seed, int shard) {
+    long z = seed + (shard + 1) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  public static void main(String[] args) throws Exception {
+    long seed = 0xDEADBEEF;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int i = 0;
+    for (; i < args.length && args[i].startsWith("--"); i += 2) {
+      if (i + 1 == args.length) usage();
+      if (args[i].equals("--seed")) {
+        seed = Long.parseLong(args[i + 1]);
+      } else if (args[i].equals("--threads")) {
+        threads = Integer.parseInt(args[i + 1]);
+      } else {
+        usage();
+      }
+    }
+    if (args.length - i != 3) usage();
+    int shards = Integer.parseInt(args[i]);
+    long bytes = parseSize(args[i + 1]);
+    String prefix = args[i + 2];
+    if (shards < 1 || threads < 1) usage();
+
+    final CorpusGenerator generator = new CorpusGenerator(seed);
+    if (prefix.equals("-")) {
+      // A single shard's input to standard out, for piping straight into mask.sh.
+      if (shards != 1) usage();
+      generator.writeShard(0, bytes, System.out, null);
+      System.out.flush();
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (int shard = 0; shard < shards; shard++) {
+      futures.add(executor.submit(new ShardTask(generator, shard, bytes, prefix)));
+    }
+    executor.shutdown();
+    try {
+      for (Future<Void> future : futures) future.get();
+    } catch (ExecutionException e) {
+      e.getCause().printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  private static void usage() {
+    System.err.println("Usage: CorpusGenerator [--seed n] [--threads n] shards bytesPerShard[k|m|g]"
+        + " prefix|-");
+    System.exit(1);
+  }
+
+  static long parseSize(String size) {
+    long unit = 1;
+    switch (Character.toLowerCase(size.charAt(size.length() - 1))) {
+      case 'k': unit = 1L << 10; break;
+      case 'm': unit = 1L << 20; break;
+      case 'g': unit = 1L << 30; break;
+      default: return Long.parseLong(size);
+    }
+    return Long.parseLong(size.substring(0, size.length() - 1)) * unit;
+  }
+
+  /** Writes one shard to {@code prefix-NNNNN.txt}, and its expected output to {@code .expected}. */
+  private static class ShardTask implements Callable<Void> {
+    private final CorpusGenerator generator;
+    private final int shard;
+    private final long bytes;
+    private final String prefix;
+
+    ShardTask(CorpusGenerator generator, int shard, long bytes, String prefix) {
+      this.generator = generator;
+      this.shard = shard;
+      this.bytes = bytes;
+      this.prefix = prefix;
+    }
+
+    public Void call() throws IOException {
+      String name = String.format("%s-%05d", prefix, shard);
+      OutputStream input = new FileOutputStream(name + ".txt");
+      try {
+        OutputStream expected = new FileOutputStream(name + ".expected");
+        try {
+          generator.writeShard(shard, bytes, input, expected);
+        } finally {
+          expected.close();
+        }
+      } finally {
+        input.close();
+      }
+      return null;
+    }
+  }
+
+  /** Generates the lines of one shard. */
+  private static class ShardWriter {
+
+    private final Random random;
+    private final RollingLuhn luhn = new RollingLuhn();
+    private final OutputStream input;
+    private final OutputStream expected;
+    private final byte[] inputBuffer = new byte[BUFFER_SIZE];
+    private final byte[] expectedBuffer;
+    private int buffered;
+    long written;
+
+    ShardWriter(Random random, OutputStream input, OutputStream expected) {
+      this.random = random;
+      this.input = input;
+      this.expected = expected;
+      this.expectedBuffer = expected == null ? null : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Writes a line of segments. Segments are separated by words that contain neither digits nor
+     * separators, so what's masked in one never depends on another.
+     */
+    void line() throws IOException {
+      int segments = random.nextInt(8);
+      for (int i = 0; i < segments; i++) {
+        if (i > 0) {
+          put(' ');
+          word(1 + random.nextInt(4));
+          put(' ');
+        }
+        segment();
+      }
+      put('\n');
+    }
+
+    private void segment() throws IOException {
+      int kind = random.nextInt(20);
+      if (kind < 10) {
+        word(1 + random.nextInt(12));
+      } else if (kind < 14) {
+        validNumber(MIN_LENGTH + random.nextInt(MAX_LENGTH - MIN_LENGTH + 1));
+      } else if (kind < 16) {
+        formattedNumber(random.nextBoolean() ? ' ' : '-');
+      } else if (kind < 19) {
+        nonMatchingSequence(1 + random.nextInt(random.nextInt(10) == 0 ? 1000 : 40));
+      } else {
+        overlappingNumbers(MAX_LENGTH + random.nextInt(200));
+      }
+    }
+
+    /** Writes characters from ':' to '}', which include no digits, spaces or dashes. */
+    private void word(int length) throws IOException {
+      for (int i = 0; i < length; i++) put((char) (random.nextInt(68) + ':'));
+    }
+
+    private void validNumber(int length) throws IOException {
+      luhn.clear();
+      for (int i = 0; i < length - 1; i++) maskedDigit(random.nextInt(10));
+      maskedDigit(luhn.checkDigit(length - 1));
+    }
+
+    private void formattedNumber(char delimiter) throws IOException {
+      luhn.clear();
+      for (int i = 0; i < MAX_LENGTH; i++) {
+        if (i > 0 && i % 4 == 0) put(delimiter);
+        maskedDigit(i < MAX_LENGTH - 1 ? random.nextInt(10) : luhn.checkDigit(MAX_LENGTH - 1));
+      }
+    }
+
+    /** Writes a valid # followed by digits that each complete a valid # with the 15 before. */
+    private void overlappingNumbers(int length) throws IOException {
+      validNumber(MAX_LENGTH);
+      for (int i = MAX_LENGTH; i < length; i++) maskedDigit(luhn.checkDigit(MAX_LENGTH - 1));
+    }
+
+    /** Writes digits with no valid #s, choosing each digit as LuhnyBinTests does. */
+    private void nonMatchingSequence(int length) throws IOException {
+      luhn.clear();
+      for (int i = 0; i < length; i++) {
+        int excluded = 0;
+        for (int subLength = MIN_LENGTH; subLength <= MAX_LENGTH; subLength++) {
+          if (subLength - 1 > luhn.count()) break;
+          excluded |= 1 << luhn.checkDigit(subLength - 1);
+        }
+
+        int digit;
+        do {
+          digit = random.nextInt(10);
+        } while ((excluded & (1 << digit)) != 0);
+        luhn.add(digit);
+        put((char) ('0' + digit));
+      }
+    }
+
+    private void maskedDigit(int digit) throws IOException {
+      luhn.add(digit);
+      put((char) ('0' + digit), 'X');
+    }
+
+    private void put(char c) throws IOException {
+      put(c, c);
+    }
+
+    private void put(char in, char out) throws IOException {
+      if (buffered == BUFFER_SIZE) flush();
+      inputBuffer[buffered] = (byte) in;
+      if (expectedBuffer != null) expectedBuffer[buffered] = (byte) out;
+      buffered++;
+      written++;
+    }
+
+    void flush() throws IOException {
+      input.write(inputBuffer, 0, buffered);
+      if (expected != null) expected.write(expectedBuffer, 0, buffered);
+      buffered = 0;
+    }
+  }
+}
@@ -127,16 +127,16 @@ public class LuhnyBinTests extends TestSuite {
 
   /** Generates a sequence of digits with the specified length and no card #s. */
   private String nonMatchingSequence(int length) {
-    StringBuilder builder = new StringBuilder();
+    StringBuilder builder = new StringBuilder(length);
+    RollingLuhn luhn = new RollingLuhn();
     DigitSet excluded = new DigitSet();
     for (int lastIndex = 0; lastIndex < length; lastIndex++) {
       excluded.clear();
 
       // Compute digits that would result in valid card #s.
       for (int subLength = MIN_LENGTH; subLength <= MAX_LENGTH; subLength++) {
-        int start = lastIndex - (subLength - 1);
-        if (start < 0) break;
-        excluded.add(computeLast(builder.subSequence(start, lastIndex)));
+        if (subLength - 1 > lastIndex) break;
+        excluded.add((char) ('0' + luhn.checkDigit(subLength - 1)));
       }
 
       // Find a digit that doesn't result in a valid card #.
@@ -145,15 +145,23 @@ public class LuhnyBinTests extends TestSuite {
         digit = randomDigit();
       } while (excluded.contains(digit));
       builder.append(digit);
+      luhn.add(digit - '0');
     }
 
     return builder.toString();
   }
 
   private void testOverlappingMatches() {
-    StringBuilder output = new StringBuilder(randomNumber(MAX_LENGTH));
+    String first = randomNumber(MAX_LENGTH);
+    StringBuilder output = new StringBuilder(1000).append(first);
+    RollingLuhn luhn = new RollingLuhn();
+    for (int i = 0; i < first.length(); i++) luhn.add(first.charAt(i) - '0');
+
+    // Each digit completes a valid # with the 15 before it.
     for (int i = 0; i < 1000 - MAX_LENGTH; i++) {
-      output.append(computeLast(output.subSequence(i + 1, i + MAX_LENGTH)));
+      int digit = luhn.checkDigit(MAX_LENGTH - 1);
+      output.append((char) ('0' + digit));
+      luhn.add(digit);
     }
 
     test("long sequence of overlapping, valid #s")
@@ -0,0 +1,486 @@
+package com.squareup.luhnybin;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A precompiled corpus for replaying against mask.sh: the input to send and the output to expect,
+ * stored as two regions of one file that are memory-mapped rather than read into memory, so a
+ * corpus can be far larger than the heap.
+ *
+ * <p>Both regions are split into blocks of whole lines, block {@code n} of the expected output
+ * being what mask.sh should send back for block {@code n} of the input. An index at the end of
+ * the file gives each block's position, length, first line number and CRC-32 in both regions.
+ * Replaying writes the input straight from its mapping and checks what comes back one block at a
+ * time against the expected checksum, reusing a single buffer; only a block that fails the check
+ * is compared byte by byte, to find the first line that differs.
+ *
+ * <p>The file starts with a header of {@value #HEADER_SIZE} bytes: the magic number
+ * {@code LUHNCORP}, a format version, the block count, the total line count and the offsets and
+ * lengths of the two regions and of the index. Each index entry is {@value #ENTRY_SIZE} bytes:
+ * for the input then the expected output, the block's offset within its region, its length and
+ * its CRC-32, followed by the number of its first line. All numbers are big-endian.
+ */
+public class ReplayCorpus {
+
+  private static final long MAGIC = 0x4C55484E434F5250L; // "LUHNCORP"
+  private static final int VERSION = 1;
+
+  static final int HEADER_SIZE = 64;
+  static final int ENTRY_SIZE = 40;
+
+  /** Blocks end at the first line feed after this many bytes of input. */
+  static final int BLOCK_SIZE = 1024 * 1024;
+
+  /** Regions are mapped in windows of at most this many bytes. */
+  private static final long MAX_MAPPING = 1L << 30;
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  private final FileChannel channel;
+  private final long lineCount;
+  private final Region input;
+  private final Region expected;
+  private final long[] firstLines;
+
+  private ReplayCorpus(FileChannel channel) throws IOException {
+    this.channel = channel;
+    ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+    if (header.getLong() != MAGIC) throw new IOException("Not a replay corpus.");
+    int version = header.getInt();
+    if (version != VERSION) throw new IOException("Unsupported corpus version: " + version);
+    int blocks = header.getInt();
+    this.lineCount = header.getLong();
+    long inputOffset = header.getLong();
+    long inputLength = header.getLong();
+    long expectedOffset = header.getLong();
+    long expectedLength = header.getLong();
+    long indexOffset = header.getLong();
+
+    this.input = new Region(inputOffset, inputLength, blocks);
+    this.expected = new Region(expectedOffset, expectedLength, blocks);
+    this.firstLines = new long[blocks];
+    ByteBuffer index = readFully(channel, indexOffset, (long) blocks * ENTRY_SIZE);
+    for (int i = 0; i < blocks; i++) {
+      input.readEntry(i, index);
+      expected.readEntry(i, index);
+      firstLines[i] = index.getLong();
+    }
+  }
+
+  /** Opens a corpus file. Close it when done. */
+  public static ReplayCorpus open(File file) throws IOException {
+    return new ReplayCorpus(new RandomAccessFile(file, "r").getChannel());
+  }
+
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  public int blockCount() {
+    return firstLines.length;
+  }
+
+  public long lineCount() {
+    return lineCount;
+  }
+
+  public long inputLength() {
+    return input.length;
+  }
+
+  /**
+   * Compiles the input and expected output read from the given streams into a corpus file, reading
+   * each stream once. The expected output must have the same number of lines as the input.
+   */
+  public static void compile(InputStream inputData, InputStream expectedData, File file)
+      throws IOException {
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    try {
+      out.setLength(0);
+      FileChannel channel = out.getChannel();
+      channel.position(HEADER_SIZE);
+      OutputStream stream = Channels.newOutputStream(channel);
+
+      // The input decides where blocks end; the expected output is split after the same lines.
+      List<long[]> inputBlocks = new ArrayList<long[]>();
+      long inputLength = copyBlocks(inputData, stream, inputBlocks, null);
+      long[] lines = new long[inputBlocks.size()];
+      for (int i = 0; i < lines.length; i++) lines[i] = inputBlocks.get(i)[3];
+      List<long[]> expectedBlocks = new ArrayList<long[]>();
+      long expectedLength = copyBlocks(expectedData, stream, expectedBlocks, lines);
+
+      ByteBuffer index = ByteBuffer.allocate(inputBlocks.size() * ENTRY_SIZE);
+      long firstLine = 1;
+      for (int i = 0; i < inputBlocks.size(); i++) {
+        long[] in = inputBlocks.get(i);
+        long[] exp = expectedBlocks.get(i);
+        index.putLong(in[0]).putInt((int) in[1]).putInt((int) in[2]);
+        index.putLong(exp[0]).putInt((int) exp[1]).putInt((int) exp[2]);
+        index.putLong(firstLine);
+        firstLine += in[3];
+      }
+      long indexOffset = channel.position();
+      index.flip();
+      writeFully(channel, index);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putLong(MAGIC).putInt(VERSION).putInt(inputBlocks.size()).putLong(firstLine - 1)
+          .putLong(HEADER_SIZE).putLong(inputLength)
+          .putLong(HEADER_SIZE + inputLength).putLong(expectedLength)
+          .putLong(indexOffset);
+      header.position(0);
+      channel.position(0);
+      writeFully(channel, header);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Copies the given stream to the given output, recording each block as {offset, length, CRC-32,
+   * line count}. If {@code lines} is null, blocks end at the first line feed after
+   * {@link #BLOCK_SIZE} bytes (or at the end of input); otherwise block {@code n} is the next
+   * {@code lines[n]} lines, and the last block is whatever is left. Returns the number of bytes
+   * copied.
+   */
+  private static long copyBlocks(InputStream in, OutputStream out, List<long[]> blocks,
+      long[] lines) throws IOException {
+    byte[] buffer = new byte[64 * 1024];
+    CRC32 crc = new CRC32();
+    long total = 0;
+    long blockStart = 0;
+    long blockLines = 0;
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      int from = 0;
+      for (int i = 0; i < read; i++) {
+        if (buffer[i] != '\n') continue;
+        blockLines++;
+        long blockLength = total + i + 1 - blockStart;
+        boolean end = lines == null
+            ? blockLength >= BLOCK_SIZE
+            : blocks.size() < lines.length - 1 && blockLines == lines[blocks.size()];
+        if (end) {
+          crc.update(buffer, from, i + 1 - from);
+          from = i + 1;
+          checkBlockLength(blockLength);
+          blocks.add(new long[] {blockStart, blockLength, (int) crc.getValue(), blockLines});
+          crc.reset();
+          blockStart += blockLength;
+          blockLines = 0;
+        }
+      }
+      crc.update(buffer, from, read - from);
+      out.write(buffer, 0, read);
+      total += read;
+    }
+
+    if (total > blockStart) {
+      // A last line without a line feed.
+      checkBlockLength(total - blockStart);
+      blocks.add(new long[] {blockStart, total - blockStart, (int) crc.getValue(), blockLines});
+    }
+    if (lines != null && blocks.size() != lines.length) {
+      throw new IOException("Expected output doesn't have the same lines as the input.");
+    }
+    return total;
+  }
+
+  private static void checkBlockLength(long length) throws IOException {
+    if (length > Integer.MAX_VALUE - 8) throw new IOException("Line too long: " + length);
+  }
+
+  /**
+   * Writes the input to {@code out}, closing it when done, while reading what comes back from
+   * {@code in} and checking it block by block. Returns null if everything matched and nothing came
+   * back after the last block, or the first line that didn't.
+   */
+  public Mismatch replay(final OutputStream out, InputStream in) throws IOException {
+    Thread writer = new Thread("replay-writer") {
+      @Override public void run() {
+        try {
+          WritableByteChannel channel = Channels.newChannel(out);
+          for (int i = 0; i < blockCount(); i++) writeFully(channel, input.block(i));
+          out.close();
+        } catch (IOException e) {
+          // The reading side reports what went wrong.
+        }
+      }
+    };
+    writer.setDaemon(true);
+    writer.start();
+
+    byte[] buffer = new byte[expected.maxBlockLength()];
+    CRC32 crc = new CRC32();
+    for (int i = 0; i < blockCount(); i++) {
+      int length = expected.lengths[i];
+      int read = ByteStreams.read(in, buffer, 0, length);
+      crc.reset();
+      crc.update(buffer, 0, read);
+      if (read < length || (int) crc.getValue() != expected.crcs[i]) {
+        return mismatch(i, buffer, read);
+      }
+    }
+
+    // Anything after the expected output is wrong too.
+    byte[] extra = new byte[1024];
+    int read = in.read(extra);
+    if (read > 0) {
+      return new Mismatch(lineCount + 1, "(end of input)", "(end of output)",
+          lineAt(extra, read, 0));
+    }
+    return null;
+  }
+
+  /** Verifies the input region against its checksums. */
+  public void checkInput() throws IOException {
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[64 * 1024];
+    for (int i = 0; i < blockCount(); i++) {
+      ByteBuffer block = input.block(i);
+      crc.reset();
+      while (block.hasRemaining()) {
+        int length = Math.min(buffer.length, block.remaining());
+        block.get(buffer, 0, length);
+        crc.update(buffer, 0, length);
+      }
+      if ((int) crc.getValue() != input.crcs[i]) {
+        throw new IOException("Input block " + i + " (from line " + firstLines[i]
+            + ") is corrupt.");
+      }
+    }
+  }
+
+  /** Finds the first line of the given block that differs from what was expected. */
+  private Mismatch mismatch(int block, byte[] actual, int actualLength) throws IOException {
+    ByteBuffer expectedBlock = expected.block(block);
+    byte[] expectedBytes = new byte[expectedBlock.remaining()];
+    expectedBlock.get(expectedBytes);
+
+    int lineStart = 0;
+    long line = firstLines[block];
+    int i = 0;
+    while (i < actualLength && i < expectedBytes.length && actual[i] == expectedBytes[i]) {
+      if (actual[i] == '\n') {
+        lineStart = i + 1;
+        line++;
+      }
+      i++;
+    }
+    // The writer thread may still be mapping input blocks, so don't touch its mapping.
+    ByteBuffer inputBlock = input.read(block);
+    byte[] inputBytes = new byte[inputBlock.remaining()];
+    inputBlock.get(inputBytes);
+    return new Mismatch(line, nthLine(inputBytes, inputBytes.length, line - firstLines[block]),
+        lineAt(expectedBytes, expectedBytes.length, lineStart),
+        lineAt(actual, actualLength, lineStart));
+  }
+
+  /** Returns the line starting at the given index. */
+  private static String lineAt(byte[] bytes, int length, int start) {
+    int end = start;
+    while (end < length && bytes[end] != '\n') end++;
+    return new String(bytes, start, end - start, ASCII);
+  }
+
+  /** Returns the given line of the given bytes, counting from 0. */
+  private static String nthLine(byte[] bytes, int length, long line) {
+    int start = 0;
+    for (long i = 0; i < line; i++) {
+      while (start < length && bytes[start] != '\n') start++;
+      start++;
+    }
+    return lineAt(bytes, length, Math.min(start, length));
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long position, long length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate((int) length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) == -1) throw new EOFException();
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static void writeFully(WritableByteChannel channel, ByteBuffer buffer)
+      throws IOException {
+    while (buffer.hasRemaining()) channel.write(buffer);
+  }
+
+  /** The first line that mask.sh got wrong. */
+  public static class Mismatch {
+    public final long line;
+    public final String input;
+    public final String expected;
+    public final String actual;
+
+    Mismatch(long line, String input, String expected, String actual) {
+      this.line = line;
+      this.input = input;
+      this.expected = expected;
+      this.actual = actual;
+    }
+
+    @Override public String toString() {
+      return "Line " + line + " differs:"
+          + "\n  Input:           " + input
+          + "\n  Expected result: " + expected
+          + "\n  Actual result:   " + actual;
+    }
+  }
+
+  /** One of the two regions of the file, mapped a window at a time. */
+  private class Region {
+    final long offset;
+    final long length;
+    final long[] offsets;
+    final int[] lengths;
+    final int[] crcs;
+
+    private MappedByteBuffer mapping;
+    private long mappingStart;
+
+    Region(long offset, long length, int blocks) {
+      this.offset = offset;
+      this.length = length;
+      this.offsets = new long[blocks];
+      this.lengths = new int[blocks];
+      this.crcs = new int[blocks];
+    }
+
+    void readEntry(int block, ByteBuffer index) {
+      offsets[block] = index.getLong();
+      lengths[block] = index.getInt();
+      crcs[block] = index.getInt();
+    }
+
+    int maxBlockLength() {
+      int max = 0;
+      for (int length : lengths) max = Math.max(max, length);
+      return max;
+    }
+
+    /** Reads a copy of the given block, leaving the mapping alone. Safe from any thread. */
+    ByteBuffer read(int block) throws IOException {
+      return readFully(channel, offset + offsets[block], lengths[block]);
+    }
+
+    /**
+     * Returns a view of the given block, mapping the window it's in if it isn't mapped yet. Only
+     * one thread may call this.
+     */
+    ByteBuffer block(int block) throws IOException {
+      long start = offsets[block];
+      int blockLength = lengths[block];
+      if (mapping == null || start < mappingStart
+          || start + blockLength > mappingStart + mapping.capacity()) {
+        long size = Math.max(blockLength, Math.min(MAX_MAPPING, length - start));
+        mapping = channel.map(FileChannel.MapMode.READ_ONLY, offset + start, size);
+        mappingStart = start;
+      }
+      ByteBuffer view = mapping.duplicate();
+      view.position((int) (start - mappingStart));
+      view.limit((int) (start - mappingStart) + blockLength);
+      return view;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length >= 2 && args[0].equals("compile")) {
+      File file = new File(args[1]);
+      if (args.length == 2) {
+        // The standard test suite.
+        LuhnyBinTests tests = new LuhnyBinTests();
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        tests.writeTo(input);
+        tests.writeExpectedTo(expected);
+        compile(new ByteArrayInputStream(input.toByteArray()),
+            new ByteArrayInputStream(expected.toByteArray()), file);
+      } else if (args.length == 4) {
+        InputStream input = new FileInputStream(args[2]);
+        try {
+          InputStream expected = new FileInputStream(args[3]);
+          try {
+            compile(input, expected, file);
+          } finally {
+            expected.close();
+          }
+        } finally {
+          input.close();
+        }
+      } else {
+        usage();
+      }
+    } else if (args.length == 2 && args[0].equals("replay")) {
+      replay(new File(args[1]));
+    } else {
+      usage();
+    }
+  }
+
+  private static void replay(File file) throws IOException, InterruptedException {
+    if (!new File("mask.sh").exists()) {
+      System.err.println("Couldn't find 'mask.sh' in the current directory.");
+      System.exit(1);
+    }
+
+    ReplayCorpus corpus = open(file);
+    try {
+      corpus.checkInput();
+      System.out.printf("Replaying %,d lines (%,d bytes) against mask.sh...%n",
+          corpus.lineCount(), corpus.inputLength());
+      Process process = new ProcessBuilder("sh", "mask.sh").start();
+      final InputStream errors = process.getErrorStream();
+      Thread errorCopier = new Thread() {
+        @Override public void run() {
+          try {
+            ByteStreams.copy(errors, System.err);
+          } catch (IOException e) { /* ignore */ }
+        }
+      };
+      errorCopier.setDaemon(true);
+      errorCopier.start();
+
+      long start = System.nanoTime();
+      Mismatch mismatch = corpus.replay(process.getOutputStream(), process.getInputStream());
+      long elapsed = Math.max((System.nanoTime() - start) / 1000000, 1);
+      process.destroy();
+      if (mismatch != null) {
+        System.err.println(mismatch);
+        System.exit(1);
+      }
+      System.out.printf("Passed in %,dms (%,.1f MB/s).%n", elapsed,
+          corpus.inputLength() / 1000.0 / elapsed);
+    } finally {
+      corpus.close();
+    }
+  }
+
+  private static void usage() {
+    System.err.println("Usage: ReplayCorpus compile file [input expected]\n"
+        + "       ReplayCorpus replay file");
+    System.exit(1);
+  }
+}
@@ -0,0 +1,66 @@
+package com.squareup.luhnybin;
+
+/**
+ * Luhn sums over a stream of digits, kept so that the digit completing a valid number with any
+ * of the last 15 digits added is found in constant time, without rescanning them.
+ *
+ * <p>For each digit added, two running sums are kept (mod 10): {@code odds}, in which the digit
+ * itself is doubled, then the one before it isn't, and so on back to the first digit, and
+ * {@code evens}, in which the doubling starts with the digit before it. The Luhn sum of a recent
+ * run of digits is then the difference of two of these.
+ */
+final class RollingLuhn {
+
+  /** How many digits back windows may start. */
+  static final int MAX_WINDOW = 15;
+
+  private static final int[] DOUBLED = {0, 2, 4, 6, 8, 1, 3, 5, 7, 9};
+
+  private static final int SIZE = MAX_WINDOW + 1;
+
+  private final int[] evens = new int[SIZE];
+  private final int[] odds = new int[SIZE];
+  private long count;
+
+  /** Adds a digit, from 0 to 9. */
+  void add(int digit) {
+    int i = (int) (count % SIZE);
+    if (count == 0) {
+      evens[i] = digit;
+      odds[i] = DOUBLED[digit];
+    } else {
+      int previous = (int) ((count - 1) % SIZE);
+      evens[i] = (digit + odds[previous]) % 10;
+      odds[i] = (DOUBLED[digit] + evens[previous]) % 10;
+    }
+    count++;
+  }
+
+  /** Returns the number of digits added since this was created or cleared. */
+  long count() {
+    return count;
+  }
+
+  /**
+   * Returns the digit which, following the last {@code length} digits added, makes a number that
+   * passes the Luhn check. Same as {@link LuhnyBinTests#computeLast} for those digits.
+   */
+  int checkDigit(int length) {
+    if (length < 1 || length > MAX_WINDOW || length > count) {
+      throw new IllegalArgumentException("Can't check the last " + length + " of " + count);
+    }
+    long last = count - 1;
+    int sum = odds[(int) (last % SIZE)];
+    long before = count - length - 1;
+    if (before >= 0) {
+      int i = (int) (before % SIZE);
+      sum -= length % 2 == 0 ? odds[i] : evens[i];
+    }
+    int remainder = (sum + 10) % 10;
+    return remainder == 0 ? 0 : 10 - remainder;
+  }
+
+  void clear() {
+    count = 0;
+  }
+}
@@ -58,6 +58,10 @@ class TestCase {
     out.write(outputBytes);
   }
 
+  void writeExpectedTo(OutputStream out) throws IOException {
+    out.write(expectedInputBytes);
+  }
+
   void check(InputStream in, Listener listener) throws IOException {
     int read = 0;
     while (read < buffer.length) {
@@ -47,6 +47,11 @@ class TestSuite {
     for (TestCase testCase : testCases) testCase.writeTo(out);
   }
 
+  /** Writes what mask.sh should send back for {@link #writeTo}. */
+  void writeExpectedTo(OutputStream out) throws IOException {
+    for (TestCase testCase : testCases) testCase.writeExpectedTo(out);
+  }
+
   void check(InputStream in, TestCase.Listener listener) throws IOException {
     for (TestCase testCase : testCases) testCase.check(in, listener);
   }
@@ -0,0 +1,48 @@
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CorpusGeneratorTest {
+
+  @Test public void shardsAreReproducible() throws IOException {
+    Assert.assertArrayEquals(shard(1, 3), shard(1, 3));
+    Assert.assertFalse(Arrays.equals(shard(1, 3), shard(1, 4)));
+    Assert.assertFalse(Arrays.equals(shard(1, 3), shard(2, 3)));
+  }
+
+  @Test public void expectedOutputOnlyMasksDigits() throws IOException {
+    ByteArrayOutputStream input = new ByteArrayOutputStream();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    new CorpusGenerator(7).writeShard(0, 100000, input, expected);
+
+    byte[] in = input.toByteArray();
+    byte[] out = expected.toByteArray();
+    Assert.assertTrue(in.length >= 100000);
+    Assert.assertEquals('\n', in[in.length - 1]);
+    Assert.assertEquals(in.length, out.length);
+    int masked = 0;
+    for (int i = 0; i < in.length; i++) {
+      if (in[i] != out[i]) {
+        Assert.assertTrue(in[i] >= '0' && in[i] <= '9' && out[i] == 'X');
+        masked++;
+      }
+    }
+    Assert.assertTrue(masked > 0);
+  }
+
+  @Test public void parseSize() {
+    Assert.assertEquals(100, CorpusGenerator.parseSize("100"));
+    Assert.assertEquals(2048, CorpusGenerator.parseSize("2k"));
+    Assert.assertEquals(3L << 30, CorpusGenerator.parseSize("3G"));
+  }
+
+  private static byte[] shard(long seed, int shard) throws IOException {
+    ByteArrayOutputStream input = new ByteArrayOutputStream();
+    new CorpusGenerator(seed).writeShard(shard, 10000, input, null);
+    return input.toByteArray();
+  }
+}
@@ -0,0 +1,134 @@
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplayCorpusTest {
+
+  private File file;
+  private byte[] input;
+  private byte[] expected;
+
+  @Before public void setUp() throws IOException {
+    file = File.createTempFile("replay", ".corpus");
+    ByteArrayOutputStream inputBytes = new ByteArrayOutputStream();
+    ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+    // Big enough for several blocks.
+    new CorpusGenerator(47).writeShard(0, 3 * ReplayCorpus.BLOCK_SIZE, inputBytes, expectedBytes);
+    input = inputBytes.toByteArray();
+    expected = expectedBytes.toByteArray();
+    ReplayCorpus.compile(new ByteArrayInputStream(input), new ByteArrayInputStream(expected), file);
+  }
+
+  @After public void tearDown() {
+    file.delete();
+  }
+
+  @Test public void index() throws IOException {
+    ReplayCorpus corpus = ReplayCorpus.open(file);
+    try {
+      // Each block runs on past BLOCK_SIZE to the end of a line.
+      Assert.assertEquals(3, corpus.blockCount());
+      Assert.assertEquals(input.length, corpus.inputLength());
+      Assert.assertEquals(count(input, (byte) '\n'), corpus.lineCount());
+      corpus.checkInput();
+    } finally {
+      corpus.close();
+    }
+  }
+
+  @Test public void replayMatches() throws IOException {
+    Assert.assertNull(replay(expected));
+  }
+
+  @Test public void mismatchIsPinpointed() throws IOException {
+    // Sending the input back unmasked fails at the first line with anything to mask in it.
+    int firstMasked = 0;
+    while (input[firstMasked] == expected[firstMasked]) firstMasked++;
+    long line = 1 + count(Arrays.copyOf(input, firstMasked), (byte) '\n');
+
+    ReplayCorpus.Mismatch mismatch = replay(input);
+    Assert.assertEquals(line, mismatch.line);
+    Assert.assertEquals(mismatch.input, mismatch.actual);
+    Assert.assertFalse(mismatch.expected.equals(mismatch.actual));
+  }
+
+  @Test public void shortOutputIsAMismatch() throws IOException {
+    byte[] truncated = Arrays.copyOf(expected, expected.length - 10);
+    Assert.assertNotNull(replay(truncated));
+  }
+
+  @Test public void extraOutputIsAMismatch() throws IOException {
+    byte[] extra = Arrays.copyOf(expected, expected.length + 6);
+    System.arraycopy("extra\n".getBytes("US-ASCII"), 0, extra, expected.length, 6);
+    ReplayCorpus.Mismatch mismatch = replay(extra);
+    Assert.assertEquals(count(input, (byte) '\n') + 1, mismatch.line);
+    Assert.assertEquals("extra", mismatch.actual);
+  }
+
+  @Test public void suiteWithoutFinalLineFeed() throws IOException {
+    ReplayCorpus.compile(new ByteArrayInputStream("a 4111111111111111\nb".getBytes("US-ASCII")),
+        new ByteArrayInputStream("a XXXXXXXXXXXXXXXX\nb".getBytes("US-ASCII")), file);
+    ReplayCorpus corpus = ReplayCorpus.open(file);
+    try {
+      Assert.assertEquals(1, corpus.blockCount());
+    } finally {
+      corpus.close();
+    }
+  }
+
+  /** Replays the corpus against a fake mask.sh that sends back the given bytes. */
+  private ReplayCorpus.Mismatch replay(final byte[] response) throws IOException {
+    final PipedInputStream masker = new PipedInputStream(64 * 1024);
+    OutputStream toMasker = new PipedOutputStream(masker);
+    PipedInputStream fromMasker = new PipedInputStream(64 * 1024);
+    final OutputStream maskerOut = new PipedOutputStream(fromMasker);
+    Thread thread = new Thread() {
+      @Override public void run() {
+        try {
+          byte[] buffer = new byte[8192];
+          while (masker.read(buffer) != -1) {}
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+    Thread writer = new Thread() {
+      @Override public void run() {
+        try {
+          maskerOut.write(response);
+          maskerOut.close();
+        } catch (IOException e) {
+          // The replay stopped reading.
+        }
+      }
+    };
+    writer.setDaemon(true);
+    writer.start();
+
+    ReplayCorpus corpus = ReplayCorpus.open(file);
+    try {
+      return corpus.replay(toMasker, fromMasker);
+    } finally {
+      corpus.close();
+    }
+  }
+
+  private static long count(byte[] bytes, byte b) {
+    long count = 0;
+    for (byte each : bytes) if (each == b) count++;
+    return count;
+  }
+}
@@ -0,0 +1,32 @@
+package com.squareup.luhnybin;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RollingLuhnTest {
+
+  @Test public void matchesComputeLast() {
+    Random random = new Random(46);
+    RollingLuhn luhn = new RollingLuhn();
+    StringBuilder digits = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      int digit = random.nextInt(10);
+      digits.append((char) ('0' + digit));
+      luhn.add(digit);
+      for (int length = 1; length <= Math.min(digits.length(), RollingLuhn.MAX_WINDOW); length++) {
+        CharSequence window = digits.subSequence(digits.length() - length, digits.length());
+        char checkDigit = (char) ('0' + luhn.checkDigit(length));
+        Assert.assertEquals(LuhnyBinTests.computeLast(window), checkDigit);
+      }
+    }
+  }
+
+  @Test public void clear() {
+    RollingLuhn luhn = new RollingLuhn();
+    for (char c : "999999".toCharArray()) luhn.add(c - '0');
+    luhn.clear();
+    for (char c : "411111111111111".toCharArray()) luhn.add(c - '0');
+    Assert.assertEquals(1, luhn.checkDigit(15));
+  }
+}